@@ -45,9 +45,11 @@ import java.io.InputStream;
  */
 public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
-    private static void reportCRCError() throws IOException {
+    private void reportCRCError() throws IOException {
         // The clean way would be to throw an exception.
-        //throw new IOException("crc error");
+        if (this.strictCRC) {
+            throw new IOException("BZip2 CRC error");
+        }
 
         // Just print a message, like the previous versions of this class did
         System.err.println("BZip2 CRC error");
@@ -93,6 +95,12 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
     private InputStream in;
 
+    /**
+     * If true, a CRC mismatch results in an IOException rather than
+     * just a message on stderr.
+     */
+    private final boolean strictCRC;
+
     private int currentChar = -1;
 
     private static final int EOF                  = 0;
@@ -143,9 +151,24 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
      *  if <tt>in == null</tt>
      */
     public CBZip2InputStream(final InputStream in) throws IOException {
+        this(in, false);
+    }
+
+    /**
+     * Constructs a new CBZip2InputStream which decompresses bytes read from
+     * the specified stream.
+     *
+     * @param strictCRC if <tt>true</tt> a CRC error is reported by throwing
+     *  an IOException, otherwise a message is printed and decompression
+     *  continues.
+     * @see #CBZip2InputStream(InputStream)
+     */
+    public CBZip2InputStream(final InputStream in, final boolean strictCRC)
+        throws IOException {
         super();
 
         this.in = in;
+        this.strictCRC = strictCRC;
         init();
     }
 
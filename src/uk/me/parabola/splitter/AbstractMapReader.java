@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+/**
+ * Base functionality for a reader that processes its input in pieces,
+ * keeping a running total of what has been read and displaying regular
+ * status updates.
+ */
+abstract class AbstractMapReader implements MapReader {
+
+	// How many elements to process before displaying a status update
+	private static final int NODE_STATUS_UPDATE_THRESHOLD = 2500000;
+	private static final int WAY_STATUS_UPDATE_THRESHOLD = 500000;
+	private static final int RELATION_STATUS_UPDATE_THRESHOLD = 50000;
+
+	private long nodeCount;
+	private long wayCount;
+	private long relationCount;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
+
+	@Override
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public long getWayCount() {
+		return wayCount;
+	}
+
+	@Override
+	public long getRelationCount() {
+		return relationCount;
+	}
+
+	@Override
+	public long getMinNodeId() {
+		return minNodeId;
+	}
+
+	@Override
+	public long getMaxNodeId() {
+		return maxNodeId;
+	}
+
+	/**
+	 * Adds the totals for a piece of the input to the running totals.
+	 */
+	protected void addCounts(MapReader piece) {
+		if (piece.getNodeCount() > 0) {
+			if (piece.getMinNodeId() < minNodeId) {
+				minNodeId = piece.getMinNodeId();
+			}
+			if (piece.getMaxNodeId() > maxNodeId) {
+				maxNodeId = piece.getMaxNodeId();
+			}
+			long count = nodeCount + piece.getNodeCount();
+			if (count / NODE_STATUS_UPDATE_THRESHOLD != nodeCount / NODE_STATUS_UPDATE_THRESHOLD) {
+				System.out.println(Utils.format(count / NODE_STATUS_UPDATE_THRESHOLD * NODE_STATUS_UPDATE_THRESHOLD) + " nodes processed...");
+			}
+			nodeCount = count;
+		}
+		if (piece.getWayCount() > 0) {
+			long count = wayCount + piece.getWayCount();
+			if (count / WAY_STATUS_UPDATE_THRESHOLD != wayCount / WAY_STATUS_UPDATE_THRESHOLD) {
+				System.out.println(Utils.format(count / WAY_STATUS_UPDATE_THRESHOLD * WAY_STATUS_UPDATE_THRESHOLD) + " ways processed...");
+			}
+			wayCount = count;
+		}
+		if (piece.getRelationCount() > 0) {
+			long count = relationCount + piece.getRelationCount();
+			if (count / RELATION_STATUS_UPDATE_THRESHOLD != relationCount / RELATION_STATUS_UPDATE_THRESHOLD) {
+				System.out.println(Utils.format(count / RELATION_STATUS_UPDATE_THRESHOLD * RELATION_STATUS_UPDATE_THRESHOLD) + " relations processed...");
+			}
+			relationCount = count;
+		}
+	}
+}
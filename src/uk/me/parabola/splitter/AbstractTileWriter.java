@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * Base functionality for a tile writer, taking care of the tile bounds and
+ * opening the output file.
+ */
+public abstract class AbstractTileWriter implements TileWriter {
+	protected final Area bounds;
+	private Area extendedBounds;
+	private int mapId;
+
+	protected AbstractTileWriter(Area bounds) {
+		this.bounds = bounds;
+	}
+
+	@Override
+	public void initForWrite(int mapId, int extra) {
+		this.mapId = mapId;
+		String filename = new Formatter().format(Locale.ROOT, "%08d", mapId).toString() + getFileExtension();
+		try {
+			initForWrite(new FileOutputStream(filename), extra);
+		} catch (IOException e) {
+			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Prepares to write the tile to the given stream rather than to a file.
+	 */
+	void initForWrite(OutputStream out, int extra) throws IOException {
+		extendedBounds = new Area(bounds.getMinLat() - extra,
+						bounds.getMinLong() - extra,
+						bounds.getMaxLat() + extra,
+						bounds.getMaxLong() + extra);
+		open(out);
+	}
+
+	@Override
+	public int getMapId() {
+		return mapId;
+	}
+
+	@Override
+	public Area getExtendedBounds() {
+		return extendedBounds;
+	}
+
+	@Override
+	public boolean nodeBelongsToThisArea(Node node) {
+		return (extendedBounds.contains(node.getMapLat(), node.getMapLon()));
+	}
+
+	/**
+	 * @return the extension of the files that are written, eg {@code .osm.gz}
+	 */
+	protected abstract String getFileExtension();
+
+	/**
+	 * Starts writing the tile to the given stream, beginning with the file header.
+	 */
+	protected abstract void open(OutputStream out) throws IOException;
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The parts shared by the parsers that work directly on the raw bytes of a
+ * UTF-8 encoded OSM file.
+ * <p/>
+ * The input is read into a buffer that is refilled as it is used up. Comments,
+ * CDATA sections, processing instructions and declarations are skipped here,
+ * and the start and end tags are handed to the subclass. A start tag can be
+ * split up into its name and attributes, which are held as offsets into the
+ * buffer so that nothing needs to be turned into a String unless it is wanted.
+ */
+abstract class AbstractXmlScanner implements OSMByteParser {
+
+	static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] COMMENT_START = toBytes("<!--");
+	private static final byte[] COMMENT_END = toBytes("-->");
+	private static final byte[] CDATA_START = toBytes("<![CDATA[");
+	private static final byte[] CDATA_END = toBytes("]]>");
+	private static final byte[] PI_END = toBytes("?>");
+
+	private static final byte[] BOX_ATTR = toBytes("box");
+	private static final byte[][] BOUND_ATTRS = new byte[OSMParser.BOUND_ATTRS.length][];
+	static {
+		for (int i = 0; i < BOUND_ATTRS.length; i++)
+			BOUND_ATTRS[i] = toBytes(OSMParser.BOUND_ATTRS[i]);
+	}
+
+	private static final byte[][] ENTITY_NAMES = {toBytes("amp"), toBytes("lt"), toBytes("gt"), toBytes("quot"), toBytes("apos")};
+	private static final char[] ENTITY_CHARS = {'&', '<', '>', '"', '\''};
+
+	// The input and the window onto it that is currently held in the buffer
+	private InputStream in;
+	protected byte[] buf;
+	protected int pos;
+	protected int limit;
+	private long bufferOffset;
+	protected boolean done;
+
+	// The name and attributes of the tag that is being processed, as offsets into buf
+	protected int nameStart;
+	protected int nameEnd;
+	protected int attrCount;
+	protected int[] attrNameStart = new int[16];
+	protected int[] attrNameEnd = new int[16];
+	protected int[] attrValueStart = new int[16];
+	protected int[] attrValueEnd = new int[16];
+	// True if a value consists only of printable ASCII with no entities
+	protected boolean[] attrValueSimple = new boolean[16];
+	// True if the start tag also ends the element, as in <tag/>
+	protected boolean emptyElement;
+
+	// Scratch space for decoding attribute values
+	private char[] chars = new char[256];
+	private int charCount;
+
+	/**
+	 * @param bufferSize the initial size of the buffer. The buffer grows as needed
+	 * to hold a complete tag, so the tests can use a tiny one.
+	 */
+	protected AbstractXmlScanner(int bufferSize) {
+		buf = new byte[bufferSize];
+	}
+
+	@Override
+	public boolean isStopped() {
+		return done;
+	}
+
+	@Override
+	public void parse(InputStream in) throws IOException {
+		this.in = in;
+		pos = 0;
+		limit = 0;
+		bufferOffset = 0;
+		done = false;
+
+		while (!done) {
+			int start = indexOf((byte) '<', pos);
+			if (start < 0) {
+				// Only text content left in the buffer, which we're not interested in
+				pos = limit;
+				if (!fill())
+					break;
+				continue;
+			}
+			pos = start;
+			int next = scanMarkup(start);
+			if (next < 0) {
+				// The markup isn't completely in the buffer yet
+				if (!fill())
+					throw createException("Unexpected end of file found inside markup", pos);
+			} else {
+				pos = next;
+			}
+		}
+		this.in = null;
+	}
+
+	/**
+	 * Processes the start tag whose name begins at the given index.
+	 *
+	 * @return the index to carry on scanning from, or -1 if the tag isn't
+	 * complete yet. Nothing must be passed to the processor in that case, as
+	 * the tag is scanned again once there is more data.
+	 */
+	protected abstract int scanStartTag(int p) throws IOException;
+
+	/**
+	 * Processes the end tag whose name begins at the given index.
+	 *
+	 * @return the index to carry on scanning from, or -1 if the tag isn't
+	 * complete yet.
+	 */
+	protected abstract int scanEndTag(int p) throws IOException;
+
+	/**
+	 * Discards everything in the buffer before {@code pos} and then reads more
+	 * data in after what's left, growing the buffer if there's no room.
+	 *
+	 * @return {@code false} if there is no more data available.
+	 */
+	private boolean fill() throws IOException {
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			bufferOffset += pos;
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length) {
+			byte[] temp = new byte[buf.length * 2];
+			System.arraycopy(buf, 0, temp, 0, limit);
+			buf = temp;
+		}
+		int n = in.read(buf, limit, buf.length - limit);
+		if (n < 0)
+			return false;
+		limit += n;
+		return true;
+	}
+
+	/**
+	 * Processes the markup starting at the given '<'.
+	 *
+	 * @return the index of the first byte after the markup, or -1 if the markup
+	 * isn't complete yet.
+	 */
+	private int scanMarkup(int start) throws IOException {
+		if (start + 1 >= limit)
+			return -1;
+		switch (buf[start + 1]) {
+		case '?':
+			return skipPast(PI_END, start + 2);
+		case '!':
+			if (limit - start < COMMENT_START.length)
+				return -1;
+			if (startsWith(COMMENT_START, start))
+				return skipPast(COMMENT_END, start + COMMENT_START.length);
+			if (limit - start < CDATA_START.length)
+				return -1;
+			if (startsWith(CDATA_START, start))
+				return skipPast(CDATA_END, start + CDATA_START.length);
+			return skipDeclaration(start + 2);
+		case '/':
+			return scanEndTag(start + 2);
+		default:
+			return scanStartTag(start + 1);
+		}
+	}
+
+	/**
+	 * Sets {@code nameStart} and {@code nameEnd} to the tag name starting at the
+	 * given index.
+	 *
+	 * @return the index after the name, which is {@code limit} if the name might
+	 * not be complete.
+	 */
+	protected int scanName(int p) {
+		nameStart = p;
+		while (p < limit && !isNameEnd(buf[p]))
+			p++;
+		nameEnd = p;
+		return p;
+	}
+
+	/**
+	 * Splits up the attributes of a start tag, starting just after its name.
+	 *
+	 * @return the index after the end of the tag, or -1 if the tag isn't complete yet.
+	 */
+	protected int scanAttributes(int p) throws IOException {
+		attrCount = 0;
+		emptyElement = false;
+		while (true) {
+			while (p < limit && isWhitespace(buf[p]))
+				p++;
+			if (p >= limit)
+				return -1;
+			byte b = buf[p];
+			if (b == '>')
+				return p + 1;
+			if (b == '/') {
+				if (p + 1 >= limit)
+					return -1;
+				if (buf[p + 1] != '>')
+					throw createException("Expected '>' after '/'", p + 1);
+				emptyElement = true;
+				return p + 2;
+			}
+
+			// An attribute
+			int attrStart = p;
+			while (p < limit && buf[p] != '=' && !isWhitespace(buf[p]))
+				p++;
+			int attrEnd = p;
+			while (p < limit && isWhitespace(buf[p]))
+				p++;
+			if (p >= limit)
+				return -1;
+			if (buf[p] != '=')
+				throw createException("Expected '=' after an attribute name", p);
+			p++;
+			while (p < limit && isWhitespace(buf[p]))
+				p++;
+			if (p >= limit)
+				return -1;
+			byte quote = buf[p];
+			if (quote != '"' && quote != '\'')
+				throw createException("Expected a quoted attribute value", p);
+			int valueStart = ++p;
+			boolean simple = true;
+			while (p < limit && (b = buf[p]) != quote) {
+				// Anything outside printable ASCII (including the multi-byte UTF-8
+				// sequences, which are negative) or an entity needs decoding
+				if (b < 0x20 || b == '&')
+					simple = false;
+				p++;
+			}
+			if (p >= limit)
+				return -1;
+			addAttribute(attrStart, attrEnd, valueStart, p, simple);
+			p++;
+		}
+	}
+
+	/**
+	 * Skips over a declaration such as {@code <!DOCTYPE ...>}, including any internal subset.
+	 */
+	private int skipDeclaration(int p) {
+		int depth = 0;
+		byte quote = 0;
+		for (; p < limit; p++) {
+			byte b = buf[p];
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '[') {
+				depth++;
+			} else if (b == ']') {
+				depth--;
+			} else if (b == '>' && depth <= 0) {
+				return p + 1;
+			}
+		}
+		return -1;
+	}
+
+	private void addAttribute(int attrStart, int attrEnd, int valueStart, int valueEnd, boolean simple) {
+		if (attrCount == attrNameStart.length) {
+			int size = attrCount * 2;
+			attrNameStart = grow(attrNameStart, size);
+			attrNameEnd = grow(attrNameEnd, size);
+			attrValueStart = grow(attrValueStart, size);
+			attrValueEnd = grow(attrValueEnd, size);
+			boolean[] temp = new boolean[size];
+			System.arraycopy(attrValueSimple, 0, temp, 0, attrCount);
+			attrValueSimple = temp;
+		}
+		attrNameStart[attrCount] = attrStart;
+		attrNameEnd[attrCount] = attrEnd;
+		attrValueStart[attrCount] = valueStart;
+		attrValueEnd[attrCount] = valueEnd;
+		attrValueSimple[attrCount] = simple;
+		attrCount++;
+	}
+
+	/**
+	 * @return {@code true} if the current tag has the given name.
+	 */
+	protected boolean isElement(byte[] name) {
+		return matches(name, nameStart, nameEnd);
+	}
+
+	/**
+	 * @return the index of the given attribute of the current tag, or -1 if the
+	 * tag doesn't have that attribute.
+	 */
+	protected int findAttr(byte[] name) {
+		for (int i = 0; i < attrCount; i++) {
+			if (matches(name, attrNameStart[i], attrNameEnd[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	protected String getAttr(byte[] name) throws IOException {
+		int i = findAttr(name);
+		return i < 0 ? null : decode(i);
+	}
+
+	/**
+	 * @return {@code true} if the value of the given attribute is exactly the given bytes.
+	 */
+	protected boolean valueEquals(int attr, byte[] value) {
+		return matches(value, attrValueStart[attr], attrValueEnd[attr]);
+	}
+
+	protected long getLongAttr(byte[] name) throws IOException {
+		int i = findAttr(name);
+		if (i < 0)
+			throw new NumberFormatException("The required attribute '" + new String(name, "US-ASCII") + "' is missing");
+		if (!attrValueSimple[i])
+			return Long.parseLong(decode(i));
+
+		int p = attrValueStart[i];
+		int end = attrValueEnd[i];
+		boolean negative = false;
+		if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+			negative = buf[p] == '-';
+			p++;
+		}
+		if (p == end)
+			throw new NumberFormatException("Invalid integer value '" + decode(i) + "'");
+		// Leave anything that might overflow to Long.parseLong() to check
+		if (end - p > 18)
+			return Long.parseLong(decode(i));
+		long value = 0;
+		for (; p < end; p++) {
+			int digit = buf[p] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Invalid integer value '" + decode(i) + "'");
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	protected int getFixedPointAttr(int i) throws IOException {
+		if (!attrValueSimple[i])
+			return Convert.parseFixedPoint(decode(i));
+		return Convert.parseFixedPoint(buf, attrValueStart[i], attrValueEnd[i]);
+	}
+
+	/**
+	 * @return the area given by the attributes of a bounds tag, or {@code null}
+	 * if it couldn't be read.
+	 */
+	protected Area getBoundsAttrs() throws IOException {
+		String[] split;
+		String boxStr = getAttr(BOX_ATTR);
+		if (boxStr == null) {
+			split = new String[4];
+			for (int i = 0; i < BOUND_ATTRS.length; i++)
+				split[i] = getAttr(BOUND_ATTRS[i]);
+		} else {
+			split = boxStr.split(",");
+		}
+		return OSMParser.parseBounds(split, boxStr != null);
+	}
+
+	/**
+	 * Converts the value of the given attribute into a String, decoding any UTF-8
+	 * sequences and entities.
+	 */
+	protected String decode(int attr) throws IOException {
+		int start = attrValueStart[attr];
+		int end = attrValueEnd[attr];
+		// A value never decodes to more chars than it has bytes
+		if (chars.length < end - start)
+			chars = new char[Math.max(end - start, chars.length * 2)];
+		charCount = 0;
+		if (attrValueSimple[attr]) {
+			for (int p = start; p < end; p++)
+				chars[charCount++] = (char) buf[p];
+			return new String(chars, 0, charCount);
+		}
+
+		int p = start;
+		while (p < end) {
+			int b = buf[p];
+			if (b < 0) {
+				p = decodeUtf8(p, end);
+			} else if (b == '&') {
+				p = decodeEntity(p, end);
+			} else if (b == '\r' && p + 1 < end && buf[p + 1] == '\n') {
+				// A CR LF line ending is treated as a single character
+				p++;
+			} else {
+				// Attribute value normalisation, as per the XML spec
+				if (b == '\t' || b == '\n' || b == '\r')
+					b = ' ';
+				chars[charCount++] = (char) b;
+				p++;
+			}
+		}
+		return new String(chars, 0, charCount);
+	}
+
+	/**
+	 * Decodes the multi-byte UTF-8 sequence starting at the given index.
+	 *
+	 * @return the index after the end of the sequence.
+	 */
+	private int decodeUtf8(int p, int end) throws IOException {
+		int b = buf[p];
+		int codePoint;
+		int extra;
+		if ((b & 0xe0) == 0xc0) {
+			codePoint = b & 0x1f;
+			extra = 1;
+		} else if ((b & 0xf0) == 0xe0) {
+			codePoint = b & 0x0f;
+			extra = 2;
+		} else if ((b & 0xf8) == 0xf0) {
+			codePoint = b & 0x07;
+			extra = 3;
+		} else {
+			throw createException("Invalid UTF-8 byte 0x" + Integer.toHexString(b & 0xff), p);
+		}
+		if (p + extra >= end)
+			throw createException("Truncated UTF-8 sequence", p);
+		for (int i = 1; i <= extra; i++) {
+			int c = buf[p + i];
+			if ((c & 0xc0) != 0x80)
+				throw createException("Invalid UTF-8 sequence", p);
+			codePoint = (codePoint << 6) | (c & 0x3f);
+		}
+		appendCodePoint(codePoint);
+		return p + extra + 1;
+	}
+
+	/**
+	 * Decodes the entity starting at the given '&'.
+	 *
+	 * @return the index after the end of the entity.
+	 */
+	private int decodeEntity(int p, int end) throws IOException {
+		int semicolon = p + 1;
+		while (semicolon < end && buf[semicolon] != ';')
+			semicolon++;
+		if (semicolon >= end)
+			throw createException("Unterminated entity", p);
+
+		int q = p + 1;
+		if (buf[q] == '#') {
+			q++;
+			int radix = 10;
+			if (q < semicolon && buf[q] == 'x') {
+				radix = 16;
+				q++;
+			}
+			if (q == semicolon)
+				throw createException("Invalid character reference", p);
+			int codePoint = 0;
+			for (; q < semicolon; q++) {
+				int digit = Character.digit(buf[q], radix);
+				if (digit < 0)
+					throw createException("Invalid character reference", p);
+				codePoint = codePoint * radix + digit;
+				if (codePoint > Character.MAX_CODE_POINT)
+					throw createException("Invalid character reference", p);
+			}
+			appendCodePoint(codePoint);
+		} else {
+			int i = 0;
+			while (i < ENTITY_NAMES.length && !matches(ENTITY_NAMES[i], q, semicolon))
+				i++;
+			if (i == ENTITY_NAMES.length)
+				throw createException("Unknown entity", p);
+			chars[charCount++] = ENTITY_CHARS[i];
+		}
+		return semicolon + 1;
+	}
+
+	private void appendCodePoint(int codePoint) {
+		if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			chars[charCount++] = (char) codePoint;
+		} else {
+			chars[charCount++] = Character.highSurrogate(codePoint);
+			chars[charCount++] = Character.lowSurrogate(codePoint);
+		}
+	}
+
+	protected IOException createException(String message, int p) {
+		return new IOException(message + " at byte offset " + (bufferOffset + p));
+	}
+
+	private int indexOf(byte b, int from) {
+		for (int i = from; i < limit; i++) {
+			if (buf[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index after the first occurrence of {@code marker} at or after
+	 * {@code from}, or -1 if it isn't found.
+	 */
+	private int skipPast(byte[] marker, int from) {
+		for (int i = from; i <= limit - marker.length; i++) {
+			if (startsWith(marker, i))
+				return i + marker.length;
+		}
+		return -1;
+	}
+
+	private boolean startsWith(byte[] marker, int p) {
+		if (limit - p < marker.length)
+			return false;
+		for (int i = 0; i < marker.length; i++) {
+			if (buf[p + i] != marker[i])
+				return false;
+		}
+		return true;
+	}
+
+	protected boolean matches(byte[] name, int start, int end) {
+		if (end - start != name.length)
+			return false;
+		for (int i = 0; i < name.length; i++) {
+			if (buf[start + i] != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isNameEnd(byte b) {
+		return b == '>' || b == '/' || isWhitespace(b);
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] temp = new int[size];
+		System.arraycopy(array, 0, temp, 0, array.length);
+		return temp;
+	}
+
+	protected static byte[] toBytes(String s) {
+		byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (byte) s.charAt(i);
+		return result;
+	}
+}
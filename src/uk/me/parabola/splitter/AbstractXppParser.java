@@ -43,6 +43,10 @@ public abstract class AbstractXppParser {
 		return Integer.parseInt(parser.getAttributeValue(null, name));
 	}
 
+	protected long getLongAttr(String name) {
+		return Long.parseLong(parser.getAttributeValue(null, name));
+	}
+
 	protected String getTextContent() {
 		return parser.getText();
 	}
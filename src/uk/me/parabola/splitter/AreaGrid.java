@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid laid over a set of areas, for quickly finding the areas
+ * that a point falls in.
+ * <p/>
+ * Each cell of the grid holds the indices of the areas that overlap it,
+ * which may be several when the areas overlap each other. A lookup only
+ * needs to work out the cell the point is in. The areas in the cell are only
+ * candidates, because they may just cover part of the cell, so the caller
+ * still has to check them.
+ * <p/>
+ * The cells are made no bigger than the smallest area, so that a cell never
+ * overlaps more than a few areas that don't overlap each other, unless that
+ * would take more than {@link #MAX_CELLS} cells.
+ */
+class AreaGrid {
+	// The grid never has more cells than this in total
+	private static final int MAX_CELLS = 1 << 20;
+	private static final int[] EMPTY = new int[0];
+
+	private final int minLat;
+	private final int minLon;
+	private final int maxLat;
+	private final int maxLon;
+	// Each cell is 2^shift map units wide and high
+	private final int shift;
+	private final int columns;
+	private final int[][] cells;
+
+	AreaGrid(Area[] areas) {
+		if (areas.length == 0) {
+			minLat = minLon = 0;
+			maxLat = maxLon = -1;
+			shift = 0;
+			columns = 0;
+			cells = new int[0][];
+			return;
+		}
+		int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+		int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+		for (Area area : areas) {
+			minLat = Math.min(minLat, area.getMinLat());
+			minLon = Math.min(minLon, area.getMinLong());
+			maxLat = Math.max(maxLat, area.getMaxLat());
+			maxLon = Math.max(maxLon, area.getMaxLong());
+		}
+		this.minLat = minLat;
+		this.minLon = minLon;
+		this.maxLat = maxLat;
+		this.maxLon = maxLon;
+
+		// The largest power of two that fits inside the smallest area
+		long smallest = Long.MAX_VALUE;
+		for (Area area : areas)
+			smallest = Math.min(smallest, Math.min((long) area.getMaxLat() - area.getMinLat(), (long) area.getMaxLong() - area.getMinLong()));
+		int shift = 0;
+		while (shift < 31 && 2L << shift <= smallest)
+			shift++;
+		while (((((long) maxLat - minLat) >> shift) + 1) * ((((long) maxLon - minLon) >> shift) + 1) > MAX_CELLS)
+			shift++;
+		this.shift = shift;
+		int rows = ((maxLat - minLat) >> shift) + 1;
+		columns = ((maxLon - minLon) >> shift) + 1;
+
+		cells = new int[rows * columns][];
+		for (int i = 0; i < areas.length; i++) {
+			Area area = areas[i];
+			int firstRow = (area.getMinLat() - minLat) >> shift;
+			int lastRow = (area.getMaxLat() - minLat) >> shift;
+			int firstColumn = (area.getMinLong() - minLon) >> shift;
+			int lastColumn = (area.getMaxLong() - minLon) >> shift;
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int column = firstColumn; column <= lastColumn; column++)
+					cells[row * columns + column] = append(cells[row * columns + column], i);
+			}
+		}
+
+		// Neighbouring cells very often hold the same areas, so share their arrays
+		int[] previous = EMPTY;
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i] == null)
+				cells[i] = EMPTY;
+			else if (Arrays.equals(cells[i], previous))
+				cells[i] = previous;
+			previous = cells[i];
+		}
+	}
+
+	private static int[] append(int[] array, int value) {
+		if (array == null)
+			return new int[] {value};
+		int[] result = new int[array.length + 1];
+		System.arraycopy(array, 0, result, 0, array.length);
+		result[array.length] = value;
+		return result;
+	}
+
+	/**
+	 * Finds the areas that might contain the given point.
+	 *
+	 * @param lat the latitude in map units.
+	 * @param lon the longitude in map units.
+	 * @return the indices of the candidate areas in ascending order. The array
+	 * must not be modified.
+	 */
+	public int[] getCandidates(int lat, int lon) {
+		if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon)
+			return EMPTY;
+		return cells[((lat - minLat) >> shift) * columns + ((lon - minLon) >> shift)];
+	}
+}
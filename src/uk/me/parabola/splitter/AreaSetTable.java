@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs a set of area numbers into a single int, so that the areas a node or
+ * way belongs to can be held in a {@link SplitIntMap}.
+ * <p/>
+ * Most elements are in one or two areas, and these are held in the int
+ * itself as two 16 bit fields. The low 16 bits hold the first area plus
+ * one, and the next 15 bits hold the second area plus one. 0 means the set
+ * is empty.
+ * <p/>
+ * Sets with more areas than that are only found where tiles meet or for long
+ * ways, and the same few combinations are shared by many elements. A negative
+ * value is the complement of an index into a table of these larger sets. Each
+ * different set is only stored once, as a BitSet so that it can be added to
+ * another set a word at a time.
+ */
+class AreaSetTable {
+	/** The highest number of areas that can be encoded. */
+	public static final int MAX_AREAS = 0x7fff;
+
+	private final List<BitSet> overflow = new ArrayList<BitSet>();
+	private final Map<BitSet, Integer> overflowIndex = new HashMap<BitSet, Integer>();
+
+	/**
+	 * Adds an area to a set.
+	 *
+	 * @param set the existing set, or 0 for an empty set.
+	 * @param area the area number, from 0 to {@link #MAX_AREAS} - 1.
+	 * @return the new set.
+	 */
+	public int add(int set, int area) {
+		int value = area + 1;
+		if (set == 0)
+			return value;
+		if (set > 0) {
+			int first = set & 0xffff;
+			int second = set >>> 16;
+			if (first == value || second == value)
+				return set;
+			if (second == 0)
+				return set | value << 16;
+			BitSet areas = new BitSet();
+			areas.set(first - 1);
+			areas.set(second - 1);
+			areas.set(area);
+			return getOverflowSet(areas, false);
+		}
+		BitSet areas = overflow.get(~set);
+		if (areas.get(area))
+			return set;
+		BitSet larger = (BitSet) areas.clone();
+		larger.set(area);
+		return getOverflowSet(larger, false);
+	}
+
+	/**
+	 * Gets the set that holds the given areas.
+	 *
+	 * @param areas the area numbers, from 0 to {@link #MAX_AREAS} - 1. This
+	 * is not modified, and can be reused by the caller afterwards.
+	 * @return the set.
+	 */
+	public int getSet(BitSet areas) {
+		int first = areas.nextSetBit(0);
+		if (first < 0)
+			return 0;
+		int second = areas.nextSetBit(first + 1);
+		if (second < 0)
+			return first + 1;
+		if (areas.nextSetBit(second + 1) < 0)
+			return (first + 1) | (second + 1) << 16;
+		return getOverflowSet(areas, true);
+	}
+
+	/**
+	 * @param copy {@code true} if the areas have to be copied before they can be kept.
+	 */
+	private int getOverflowSet(BitSet areas, boolean copy) {
+		Integer index = overflowIndex.get(areas);
+		if (index == null) {
+			BitSet stored = copy ? (BitSet) areas.clone() : areas;
+			index = overflow.size();
+			overflow.add(stored);
+			overflowIndex.put(stored, index);
+		}
+		return ~index;
+	}
+
+	/**
+	 * Sets the bit for each of the areas in a set.
+	 */
+	public void addTo(int set, BitSet target) {
+		if (set > 0) {
+			target.set((set & 0xffff) - 1);
+			int second = set >>> 16;
+			if (second != 0)
+				target.set(second - 1);
+		} else if (set < 0) {
+			target.or(overflow.get(~set));
+		}
+	}
+
+	/**
+	 * @return the number of different sets that have more than two areas.
+	 */
+	public int getOverflowCount() {
+		return overflow.size();
+	}
+}
@@ -40,8 +40,8 @@ class BinaryMapLoader implements MapReader {
 	private long nodeCount;
 	private long wayCount;
 	private long relationCount;
-	private int minNodeId = Integer.MAX_VALUE;
-	private int maxNodeId = Integer.MIN_VALUE;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
 
 	BinaryMapLoader(String path, MapProcessor processor) {
 		this.path = path;
@@ -65,12 +65,12 @@ class BinaryMapLoader implements MapReader {
 	}
 
 	@Override
-	public int getMinNodeId() {
+	public long getMinNodeId() {
 		return minNodeId;
 	}
 
 	@Override
-	public int getMaxNodeId() {
+	public long getMaxNodeId() {
 		return maxNodeId;
 	}
 
@@ -85,9 +85,10 @@ class BinaryMapLoader implements MapReader {
 
 	private void processNodes() throws IOException {
 		System.out.println("Loading and processing nodes");
-		NodeStoreReader reader = new NodeStoreReader(path + File.separatorChar + "nodes.bin");
+		// The tags aren't even decoded if only the coordinates are wanted
+		NodeStoreReader reader = new NodeStoreReader(path + File.separatorChar + "nodes.bin", startNodeOnly);
 		while (reader.next()) {
-			int id = reader.getId();
+			long id = reader.getId();
 			processor.startNode(id, reader.getLat(), reader.getLon());
 			if (!startNodeOnly) {
 				for (Map.Entry<String, String> entry : reader.getTags().entrySet()) {
@@ -116,8 +117,9 @@ class BinaryMapLoader implements MapReader {
 		WayStoreReader reader = new WayStoreReader(path + File.separatorChar + "ways.bin");
 		while (reader.next()) {
 			processor.startWay(reader.getId());
-			for (int nodeId : reader.getNodeIds()) {
-				processor.wayNode(nodeId);
+			long[] nodeIds = reader.getNodeIdBuffer();
+			for (int i = 0; i < reader.getNodeCount(); i++) {
+				processor.wayNode(nodeIds[i]);
 			}
 			for (Map.Entry<String, String> entry : reader.getTags().entrySet()) {
 				processor.wayTag(entry.getKey(), entry.getValue());
@@ -136,9 +138,6 @@ class BinaryMapLoader implements MapReader {
 		RelationStoreReader reader = new RelationStoreReader(path + File.separatorChar + "relations.bin");
 		while (reader.next()) {
 			processor.startRelation(reader.getId());
-			for (Map.Entry<String, String> entry : reader.getTags().entrySet()) {
-				processor.relationTag(entry.getKey(), entry.getValue());
-			}
 			for (Member member : reader.getMembers()) {
 				switch (member.getType()) {
 				case Node:
@@ -149,6 +148,9 @@ class BinaryMapLoader implements MapReader {
 					break;
 				}
 			}
+			for (Map.Entry<String, String> entry : reader.getTags().entrySet()) {
+				processor.relationTag(entry.getKey(), entry.getValue());
+			}
 			processor.endRelation();
 			relationCount++;
 			if (relationCount % RELATION_STATUS_UPDATE_THRESHOLD == 0) {
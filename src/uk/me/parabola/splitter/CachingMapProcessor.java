@@ -36,9 +36,9 @@ public class CachingMapProcessor implements MapProcessor {
 
 	private MapProcessor delegate;
 	CacheVerifier verifier;
-	private int currentNode;
-	private int currentWay;
-	private int currentRel;
+	private long currentNode;
+	private long currentWay;
+	private long currentRel;
 	private boolean startedWayTags;
 	private boolean startedRelTags;
 
@@ -63,7 +63,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void startNode(int id, double lat, double lon) {
+	public void startNode(long id, int lat, int lon) {
 		currentNode = id;
 		try {
 			nodeWriter.write(id, lat, lon);
@@ -75,7 +75,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void startWay(int id) {
+	public void startWay(long id) {
 		currentWay = id;
 		startedWayTags = false;
 		try {
@@ -89,7 +89,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void startRelation(int id) {
+	public void startRelation(long id) {
 		currentRel = id;
 		startedRelTags = false;
 		try {
@@ -147,7 +147,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void wayNode(int nodeId) {
+	public void wayNode(long nodeId) {
 		try {
 			wayWriter.writeNodeRef(nodeId);
 		} catch (IOException e) {
@@ -159,7 +159,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void relationNode(int nodeId, String role) {
+	public void relationNode(long nodeId, String role) {
 		try {
 			relationWriter.writeMember(MemberType.Node, nodeId, role);
 		} catch (IOException e) {
@@ -171,7 +171,7 @@ public class CachingMapProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void relationWay(int wayId, String role) {
+	public void relationWay(long wayId, String role) {
 		try {
 			relationWriter.writeMember(MemberType.Way, wayId, role);
 		} catch (IOException e) {
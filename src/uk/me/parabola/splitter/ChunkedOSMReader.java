@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an uncompressed OSM file using several threads.
+ * <p/>
+ * The file is cut up into chunks of a few megabytes, with each chunk starting
+ * at a {@code <node>}, {@code <way>} or {@code <relation>} element. The chunks
+ * are memory mapped and parsed by {@link OSMByteParser}s on a pool of threads.
+ * <p/>
+ * The parsed elements are buffered up and passed on to the processor in file
+ * order, from the calling thread. When the processor only wants the start of
+ * the nodes, the buffer for a chunk is no more than the ids and coordinates
+ * of its nodes in an int array, so there's no need for a copy of the
+ * processor on each thread.
+ */
+class ChunkedOSMReader extends AbstractMapReader {
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	// How much of the file to look at in one go when searching for a chunk boundary
+	private static final int SEARCH_SIZE = 64 * 1024;
+
+	private static final byte[][] ELEMENT_STARTS = {toBytes("<node"), toBytes("<way"), toBytes("<relation")};
+
+	private final MapProcessor processor;
+	private final boolean mixed;
+	private final int maxThreads;
+	private final int chunkSize;
+
+	ChunkedOSMReader(MapProcessor processor, boolean mixed, int maxThreads) {
+		this(processor, mixed, maxThreads, CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the minimum size of each chunk. The tests use small
+	 * chunks to put the boundaries in awkward places.
+	 */
+	ChunkedOSMReader(MapProcessor processor, boolean mixed, int maxThreads, int chunkSize) {
+		this.processor = processor;
+		this.mixed = mixed;
+		this.maxThreads = maxThreads;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return {@code true} if the given file is one that can be read by this
+	 * class, ie it is an uncompressed UTF-8 OSM file.
+	 */
+	static boolean canRead(String filename) throws IOException {
+		if (filename.endsWith(".gz") || filename.endsWith(".bz2") || filename.endsWith(".zip"))
+			return false;
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1024);
+		try {
+			return OSMXmlScanner.isSupportedEncoding(OSMXmlScanner.getDeclaredEncoding(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a single OSM file, passing all of its contents to the processor.
+	 * Note that {@link MapProcessor#endMap()} is not called.
+	 */
+	public void process(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		FileChannel channel = file.getChannel();
+		ExecutorService executor = Executors.newFixedThreadPool(maxThreads, new NamedThreadFactory("osm-parser-"));
+
+		try {
+			long size = channel.size();
+			long start = 0;
+			boolean stopped = false;
+			// Keep enough chunks in flight to keep all the threads busy, while
+			// still putting a limit on the memory that's used
+			LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+			while (start < size && !stopped) {
+				long end = findChunkEnd(channel, start + chunkSize, size);
+				pending.add(executor.submit(new Chunk(channel, start, end)));
+				start = end;
+				if (pending.size() >= maxThreads * 2) {
+					stopped = complete(pending.removeFirst());
+				}
+			}
+			while (!pending.isEmpty()) {
+				complete(pending.removeFirst());
+			}
+		} finally {
+			executor.shutdownNow();
+			file.close();
+		}
+	}
+
+	/**
+	 * Passes the results of parsing a chunk on to the processor.
+	 * @return {@code true} if no more of the file needs to be read.
+	 */
+	private boolean complete(Future<Chunk> future) throws IOException {
+		Chunk chunk;
+		try {
+			chunk = future.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for the file to be parsed", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Failed to parse the file", e.getCause());
+		}
+		chunk.events.replay(processor);
+		addCounts(chunk.scanner);
+		return chunk.scanner.isStopped();
+	}
+
+	/**
+	 * Finds the start of the first node, way or relation at or after the given position.
+	 * @return the position of the element, or the size of the file if there isn't one.
+	 */
+	private static long findChunkEnd(FileChannel channel, long from, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SEARCH_SIZE);
+		byte[] bytes = buf.array();
+		while (from < size) {
+			buf.clear();
+			while (buf.hasRemaining() && channel.read(buf, from + buf.position()) > 0) {
+				// Keep reading until the buffer is full or the end of the file is reached
+			}
+			int length = buf.position();
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == '<' && isElementStart(bytes, i, length))
+					return from + i;
+			}
+			if (from + length >= size)
+				break;
+			// Allow for an element name that is split across the end of the buffer
+			from += length - 10;
+		}
+		return size;
+	}
+
+	private static boolean isElementStart(byte[] bytes, int pos, int length) {
+		for (byte[] start : ELEMENT_STARTS) {
+			int end = pos + start.length;
+			if (end >= length)
+				continue;
+			int i = 1;
+			while (i < start.length && bytes[pos + i] == start[i])
+				i++;
+			if (i == start.length) {
+				byte next = bytes[end];
+				if (next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '>' || next == '/')
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] toBytes(String s) {
+		byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (byte) s.charAt(i);
+		return result;
+	}
+
+	/**
+	 * Parses one chunk of the file.
+	 */
+	private class Chunk implements Callable<Chunk> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+
+		private OSMByteParser scanner;
+		// The parsed elements, to be passed to the processor in order
+		private MapEventBuffer events;
+
+		Chunk(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			events = new MapEventBuffer(processor.isStartNodeOnly());
+			scanner = OSMXmlScanner.createParser(events, mixed);
+			scanner.parse(new ByteBufferInputStream(buffer));
+			return this;
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+	}
+}
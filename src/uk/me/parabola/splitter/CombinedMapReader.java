@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines the totals of several {@link MapReader}s. This is used when
+ * the input files have to be read by different readers, eg a mix of
+ * .osm and .osm.pbf files.
+ */
+class CombinedMapReader implements MapReader {
+	private final List<MapReader> readers = new ArrayList<MapReader>();
+
+	public void add(MapReader reader) {
+		if (!readers.contains(reader))
+			readers.add(reader);
+	}
+
+	@Override
+	public long getNodeCount() {
+		long count = 0;
+		for (MapReader reader : readers)
+			count += reader.getNodeCount();
+		return count;
+	}
+
+	@Override
+	public long getWayCount() {
+		long count = 0;
+		for (MapReader reader : readers)
+			count += reader.getWayCount();
+		return count;
+	}
+
+	@Override
+	public long getRelationCount() {
+		long count = 0;
+		for (MapReader reader : readers)
+			count += reader.getRelationCount();
+		return count;
+	}
+
+	@Override
+	public long getMinNodeId() {
+		long min = Long.MAX_VALUE;
+		for (MapReader reader : readers)
+			min = Math.min(min, reader.getMinNodeId());
+		return min;
+	}
+
+	@Override
+	public long getMaxNodeId() {
+		long max = Long.MIN_VALUE;
+		for (MapReader reader : readers)
+			max = Math.max(max, reader.getMaxNodeId());
+		return max;
+	}
+}
@@ -185,4 +185,193 @@ public class Convert {
 		else
 			return decimal;
 	}
+
+	/**
+	 * The number of fixed point units in one degree. Coordinates are held as
+	 * integers in units of 10^-7 degrees, the same precision that OSM uses.
+	 */
+	public static final int FIXED_POINT_SCALE = 10000000;
+	private static final int FIXED_POINT_DIGITS = 7;
+
+	// The largest whole number of degrees that fits in a fixed point int
+	private static final long MAX_FIXED_POINT_DEGREES = Integer.MAX_VALUE / FIXED_POINT_SCALE;
+
+	/**
+	 * Parses a coordinate in decimal degrees into an integer number of 10^-7
+	 * degrees, without going through a double. Any digits beyond the seventh
+	 * decimal place are rounded, half away from zero.
+	 *
+	 * @param cs the characters to parse.
+	 * @return the coordinate in units of 10^-7 degrees.
+	 * @throws NumberFormatException if the value failed to parse or is out of range.
+	 */
+	public static int parseFixedPoint(String cs) throws NumberFormatException {
+		int end = cs.length();
+		int i = 0;
+		if (i < end && (cs.charAt(i) == '-' || cs.charAt(i) == '+'))
+			i++;
+		boolean isNegative = i > 0 && cs.charAt(0) == '-';
+
+		long whole = 0;
+		int fraction = 0;
+		int decimals = -1;
+		boolean roundUp = false;
+		boolean hasDigits = false;
+		for (; i < end; i++) {
+			char c = cs.charAt(i);
+			int digit = c - '0';
+			if ((digit >= 0) && (digit < 10)) {
+				hasDigits = true;
+				if (decimals < 0) {
+					whole = whole * 10 + digit;
+					if (whole > MAX_FIXED_POINT_DEGREES)
+						throw new NumberFormatException("Coordinate out of range: " + cs);
+				} else if (decimals < FIXED_POINT_DIGITS) {
+					fraction = fraction * 10 + digit;
+					decimals++;
+				} else if (decimals == FIXED_POINT_DIGITS) {
+					roundUp = digit >= 5;
+					decimals++;
+				}
+			} else if ((c == '.') && (decimals < 0)) {
+				decimals = 0;
+			} else {
+				// Something unusual such as an exponent, let the JDK have a go
+				return toFixedPoint(Double.parseDouble(cs));
+			}
+		}
+		if (!hasDigits)
+			throw new NumberFormatException("No digits found in coordinate '" + cs + '\'');
+		return toFixedPoint(isNegative, whole, fraction, decimals, roundUp);
+	}
+
+	/**
+	 * Parses a coordinate held as a sequence of ASCII bytes into an integer
+	 * number of 10^-7 degrees. This behaves in the same way as
+	 * {@link #parseFixedPoint(String)}.
+	 *
+	 * @param buf the buffer holding the characters to parse.
+	 * @param start the index of the first character.
+	 * @param finish the index after the last character.
+	 * @return the coordinate in units of 10^-7 degrees.
+	 * @throws NumberFormatException if the value failed to parse or is out of range.
+	 */
+	public static int parseFixedPoint(byte[] buf, int start, int finish) throws NumberFormatException {
+		int i = start;
+		if (i < finish && (buf[i] == '-' || buf[i] == '+'))
+			i++;
+		boolean isNegative = i > start && buf[start] == '-';
+
+		long whole = 0;
+		int fraction = 0;
+		int decimals = -1;
+		boolean roundUp = false;
+		boolean hasDigits = false;
+		for (; i < finish; i++) {
+			int c = buf[i];
+			int digit = c - '0';
+			if ((digit >= 0) && (digit < 10)) {
+				hasDigits = true;
+				if (decimals < 0) {
+					whole = whole * 10 + digit;
+					if (whole > MAX_FIXED_POINT_DEGREES)
+						throw new NumberFormatException("Coordinate out of range: " + asString(buf, start, finish));
+				} else if (decimals < FIXED_POINT_DIGITS) {
+					fraction = fraction * 10 + digit;
+					decimals++;
+				} else if (decimals == FIXED_POINT_DIGITS) {
+					roundUp = digit >= 5;
+					decimals++;
+				}
+			} else if ((c == '.') && (decimals < 0)) {
+				decimals = 0;
+			} else {
+				// Something unusual such as an exponent, let the JDK have a go
+				return toFixedPoint(Double.parseDouble(asString(buf, start, finish)));
+			}
+		}
+		if (!hasDigits)
+			throw new NumberFormatException("No digits found in coordinate '" + asString(buf, start, finish) + '\'');
+		return toFixedPoint(isNegative, whole, fraction, decimals, roundUp);
+	}
+
+	private static int toFixedPoint(boolean isNegative, long whole, int fraction, int decimals, boolean roundUp) {
+		for (int d = Math.max(decimals, 0); d < FIXED_POINT_DIGITS; d++)
+			fraction *= 10;
+		long value = whole * FIXED_POINT_SCALE + fraction;
+		if (roundUp)
+			value++;
+		if (value > Integer.MAX_VALUE)
+			throw new NumberFormatException("Coordinate out of range, it has a magnitude of " + whole + " degrees");
+		return (int) (isNegative ? -value : value);
+	}
+
+	private static int toFixedPoint(double degrees) {
+		double value = Math.rint(degrees * FIXED_POINT_SCALE);
+		if (Double.isNaN(value) || value > Integer.MAX_VALUE || value < -Integer.MAX_VALUE)
+			throw new NumberFormatException("Coordinate out of range: " + degrees);
+		return (int) value;
+	}
+
+	/**
+	 * Writes a long out as ASCII digits.
+	 * @return the number of bytes written, at most 20.
+	 */
+	public static int longToBytes(long value, byte[] buf, int startIndex) {
+		int pos = startIndex;
+		// Work with the negative value, as that can hold Long.MIN_VALUE
+		long neg = value;
+		if (neg < 0)
+			buf[pos++] = '-';
+		else
+			neg = -neg;
+		int digits = 1;
+		for (long i = neg; i <= -10; i /= 10)
+			digits++;
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' - neg % 10);
+			neg /= 10;
+		}
+		return pos + digits - startIndex;
+	}
+
+	/**
+	 * Writes a fixed point coordinate out as ASCII decimal degrees. Trailing
+	 * zeros are dropped, apart from a single digit after the decimal point. This
+	 * gives the same text as the value that was originally parsed by
+	 * {@link #parseFixedPoint(String)}, as long as it had no more than 7 decimal places.
+	 *
+	 * @param value the coordinate in units of 10^-7 degrees.
+	 * @param buf the buffer to write into. This needs to have at least 12 bytes free.
+	 * @param startIndex where to start writing in the buffer.
+	 * @return the number of bytes written, at most 12.
+	 */
+	public static int fixedPointToBytes(int value, byte[] buf, int startIndex) {
+		int pos = startIndex;
+		long abs = value;
+		if (abs < 0) {
+			buf[pos++] = '-';
+			abs = -abs;
+		}
+		pos += longToBytes(abs / FIXED_POINT_SCALE, buf, pos);
+		buf[pos++] = '.';
+		int fraction = (int) (abs % FIXED_POINT_SCALE);
+		int digits = FIXED_POINT_DIGITS;
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		return pos + digits - startIndex;
+	}
+
+	private static String asString(byte[] buf, int start, int finish) {
+		char[] chars = new char[finish - start];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) (buf[start + i] & 0xff);
+		return new String(chars);
+	}
 }
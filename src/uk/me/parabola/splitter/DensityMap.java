@@ -77,6 +77,30 @@ public class DensityMap {
 		return ++nodeMap[x][y];
 	}
 
+	/**
+	 * Adds the node counts from another density map into this one.
+	 * @param other a density map that has the same bounds and resolution as this one.
+	 */
+	public void merge(DensityMap other) {
+		Area otherBounds = other.bounds;
+		if (shift != other.shift || bounds.getMinLat() != otherBounds.getMinLat() || bounds.getMinLong() != otherBounds.getMinLong()
+						|| bounds.getMaxLat() != otherBounds.getMaxLat() || bounds.getMaxLong() != otherBounds.getMaxLong())
+			throw new IllegalArgumentException("Only density maps with the same bounds and resolution can be merged");
+		for (int x = 0; x < width; x++) {
+			int[] otherColumn = other.nodeMap[x];
+			if (otherColumn == null)
+				continue;
+			if (nodeMap[x] == null) {
+				nodeMap[x] = otherColumn.clone();
+			} else {
+				int[] column = nodeMap[x];
+				for (int y = 0; y < height; y++)
+					column[y] += otherColumn[y];
+			}
+		}
+		totalNodeCount += other.totalNodeCount;
+	}
+
 	public int getNodeCount() {
 		return totalNodeCount;
 	}
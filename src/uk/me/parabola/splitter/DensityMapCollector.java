@@ -16,8 +16,11 @@ package uk.me.parabola.splitter;
 /**
  * Builds up a density map.
  */
-class DensityMapCollector implements MapCollector {
+class DensityMapCollector implements MapCollector, MergeableMapProcessor {
 
+	private final Area mapBounds;
+	private final boolean trim;
+	private final int resolution;
 	private final DensityMap densityMap;
 	private final MapDetails details = new MapDetails();
 	private Area bounds;
@@ -31,9 +34,26 @@ class DensityMapCollector implements MapCollector {
 			// If we don't receive any bounds we have to assume the whole planet
 			bounds = new Area(-0x400000, -0x800000, 0x400000, 0x800000);
 		}
+		this.mapBounds = bounds;
+		this.trim = trim;
+		this.resolution = resolution;
 		densityMap = new DensityMap(bounds, trim, resolution);
 	}
 
+	@Override
+	public MergeableMapProcessor createEmptyCopy() {
+		return new DensityMapCollector(mapBounds, trim, resolution);
+	}
+
+	@Override
+	public void merge(MergeableMapProcessor other) {
+		DensityMapCollector collector = (DensityMapCollector) other;
+		densityMap.merge(collector.densityMap);
+		details.addToBounds(collector.details);
+		if (collector.bounds != null)
+			boundTag(collector.bounds);
+	}
+
 	@Override
 	public boolean isStartNodeOnly() {
 		return true;
@@ -48,18 +68,18 @@ class DensityMapCollector implements MapCollector {
 	}
 
 	@Override
-	public void startNode(int id, double lat, double lon) {
-		int glat = Utils.toMapUnit(lat);
-		int glon = Utils.toMapUnit(lon);
+	public void startNode(long id, int lat, int lon) {
+		int glat = Utils.fixedPointToMapUnit(lat);
+		int glon = Utils.fixedPointToMapUnit(lon);
 		densityMap.addNode(glat, glon);
 		details.addToBounds(glat, glon);
 	}
 
 	@Override
-	public void startWay(int id) {}
+	public void startWay(long id) {}
 
 	@Override
-	public void startRelation(int id) {}
+	public void startRelation(long id) {}
 
 	@Override
 	public void nodeTag(String key, String value) {}
@@ -71,13 +91,13 @@ class DensityMapCollector implements MapCollector {
 	public void relationTag(String key, String value) {}
 
 	@Override
-	public void wayNode(int nodeId) {}
+	public void wayNode(long nodeId) {}
 
 	@Override
-	public void relationNode(int nodeId, String role) {}
+	public void relationNode(long nodeId, String role) {}
 
 	@Override
-	public void relationWay(int wayId, String role) {}
+	public void relationWay(long wayId, String role) {}
 
 	@Override
 	public void endNode() {}
@@ -12,41 +12,125 @@
  */
 package uk.me.parabola.splitter;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author Steve Ratcliffe
  */
 public class Element {
-	private Map<String, String> tags = new HashMap<String, String>(8);
-	private int id;
+	private static final AtomicIntegerFieldUpdater<Element> USERS = AtomicIntegerFieldUpdater.newUpdater(Element.class, "users");
 
-	protected void setId(int id) {
+	private static final String[] NO_TAGS = new String[0];
+
+	// The keys and values of the tags, one after the other. Most nodes don't
+	// have any tags at all, so the array isn't created until it's needed.
+	private String[] tags = NO_TAGS;
+	private int tagCount;
+	private long id;
+
+	// Set if the element is being written to more than one tile
+	private boolean multiTile;
+	// The element as it is written out, so that it only needs to be formatted
+	// once no matter how many tiles it is written to
+	private volatile byte[] fragment;
+
+	// The pool the element goes back to once it has been written out, if any
+	private ElementPool<?> pool;
+	// The number of tiles that still have to write the element out
+	private volatile int users;
+
+	protected void setId(long id) {
 		this.id = id;
 	}
 
-	public int getId() {
+	public long getId() {
 		return id;
 	}
 
 	public void reset() {
 		this.id = 0;
-		tags.clear();
+		// Keep the array for the next element, but not the strings
+		for (int i = 0; i < tagCount * 2; i++)
+			tags[i] = null;
+		tagCount = 0;
+		multiTile = false;
+		fragment = null;
+	}
+
+	void setPool(ElementPool<?> pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the number of times that {@link #release()} will be called before
+	 * the element can be reused. This must be done before the element is
+	 * passed to any other thread.
+	 */
+	void setUsers(int users) {
+		this.users = users;
+	}
+
+	/**
+	 * Called once a tile has finished with the element. When all the tiles
+	 * have finished with it, it is put back in its pool.
+	 */
+	void release() {
+		if (USERS.decrementAndGet(this) == 0 && pool != null)
+			pool.put(this);
 	}
 
 	public void addTag(String key, String value) {
 		if (key.equals("created_by"))
 			return;
-		tags.put(key, value);
+		// A repeated key replaces the earlier value
+		for (int i = 0; i < tagCount * 2; i += 2) {
+			if (tags[i].equals(key)) {
+				tags[i + 1] = value;
+				return;
+			}
+		}
+		if (tagCount * 2 == tags.length) {
+			String[] temp = new String[Math.max(8, tags.length * 2)];
+			System.arraycopy(tags, 0, temp, 0, tags.length);
+			tags = temp;
+		}
+		tags[tagCount * 2] = key;
+		tags[tagCount * 2 + 1] = value;
+		tagCount++;
+	}
+
+	public boolean isMultiTile() {
+		return multiTile;
+	}
+
+	public void setMultiTile(boolean multiTile) {
+		this.multiTile = multiTile;
+	}
+
+	public byte[] getFragment() {
+		return fragment;
+	}
+
+	public void setFragment(byte[] fragment) {
+		this.fragment = fragment;
 	}
 
 	public boolean hasTags() {
-		return tags != null && !tags.isEmpty();
+		return tagCount > 0;
+	}
+
+	/**
+	 * @return the number of tags. They are kept in the order they were added.
+	 */
+	public int getTagCount() {
+		return tagCount;
+	}
+
+	public String getTagKey(int i) {
+		return tags[i * 2];
 	}
 
-	public Iterator<Map.Entry<String, String>> tagsIterator() {
-		return tags.entrySet().iterator();
+	public String getTagValue(int i) {
+		return tags[i * 2 + 1];
 	}
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of elements that are reused once they've been written out, rather
+ * than creating a new one for every element that's read.
+ * <p/>
+ * Elements are taken from the pool on the thread that's reading the map, and
+ * can be given back on any thread. There is no limit on the size of the pool;
+ * it only grows as large as the number of elements that are waiting to be
+ * written at once.
+ *
+ * @see Element#release()
+ */
+abstract class ElementPool<T extends Element> {
+	private final ConcurrentLinkedQueue<T> free = new ConcurrentLinkedQueue<T>();
+
+	/**
+	 * @return an empty element, either one from the pool or a new one.
+	 */
+	public T get() {
+		T element = free.poll();
+		if (element == null) {
+			element = create();
+			element.setPool(this);
+		}
+		return element;
+	}
+
+	/**
+	 * Empties the given element and puts it back in the pool.
+	 */
+	void put(Element element) {
+		// Safe, as only the elements created by this pool are given it in get()
+		@SuppressWarnings("unchecked")
+		T typed = (T) element;
+		typed.reset();
+		free.add(typed);
+	}
+
+	protected abstract T create();
+}
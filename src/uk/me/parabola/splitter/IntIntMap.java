@@ -12,6 +12,7 @@
  */
 package uk.me.parabola.splitter;
 
+import java.nio.IntBuffer;
 import java.util.Iterator;
 
 /**
@@ -22,14 +23,18 @@ import java.util.Iterator;
  * reserved and should not be used as a key. Doing so will result in undefined
  * behaviour.
  *
+ * The keys and values are held in buffers from a {@link MapStorage}, so the
+ * map can be kept outside of the Java heap.
+ *
  * @author Steve Ratcliffe
  */
 public class IntIntMap {
 	private static final int INIT_SIZE = 1 << 16;
 
 	private int size;
-	private int[] keys;
-	private int[] values;
+	private final MapStorage storage;
+	private IntBuffer keys;
+	private IntBuffer values;
 
 	private int capacity;
 
@@ -45,10 +50,15 @@ public class IntIntMap {
 	}
 
 	public IntIntMap(int initCap, float load) {
+		this(initCap, load, MapStorage.HEAP);
+	}
+
+	public IntIntMap(int initCap, float load, MapStorage storage) {
 		if (!Utils.isPowerOfTwo(initCap))
 			throw new IllegalArgumentException("The initial capacity " + initCap + " must be a power of two");
-		keys = new int[initCap];
-		values = new int[initCap];
+		this.storage = storage;
+		keys = storage.allocate(initCap);
+		values = storage.allocate(initCap);
 		capacity = initCap;
 
 		loadFactor = load;
@@ -63,22 +73,22 @@ public class IntIntMap {
 
 	public int get(int key) {
 		int ind = keyPos(key);
-		if (keys[ind] == 0)
+		if (keys.get(ind) == 0)
 			return 0;
 
-		return values[ind];
+		return values.get(ind);
 	}
 
 	public int put(int key, int value) {
 		ensureSpace();
 
 		int ind = keyPos(key);
-		keys[ind] = key;
+		keys.put(ind, key);
 
-		int old = values[ind];
+		int old = values.get(ind);
 		if (old == 0)
 			size++;
-		values[ind] = value;
+		values.put(ind, value);
 
 		return old;
 	}
@@ -90,14 +100,14 @@ public class IntIntMap {
 
 			public boolean hasNext() {
 				while (itercount < capacity)
-					if (values[itercount++] != 0)
+					if (values.get(itercount++) != 0)
 						return true;
 				return false;
 			}
 
 			public Entry next() {
-				entry.setKey(keys[itercount-1]);
-				entry.setValue(values[itercount-1]);
+				entry.setKey(keys.get(itercount-1));
+				entry.setValue(values.get(itercount-1));
 				return entry;
 			}
 
@@ -113,18 +123,19 @@ public class IntIntMap {
 			int ncap = capacity << 1;
 			targetSize = (int) (ncap * loadFactor);
 
-			int[] okey = keys;
-			int[] oval = values;
+			IntBuffer okey = keys;
+			IntBuffer oval = values;
+			int ocap = capacity;
 
 			size = 0;
-			keys = new int[ncap];
-			values = new int[ncap];
+			keys = storage.allocate(ncap);
+			values = storage.allocate(ncap);
 			capacity = ncap;
 			//hit= miss = 0;
-			for (int i = 0; i < okey.length; i++) {
-				int k = okey[i];
+			for (int i = 0; i < ocap; i++) {
+				int k = okey.get(i);
 				if (k != 0)
-					put(k, oval[i]);
+					put(k, oval.get(i));
 			}
 		}
 		assert size < capacity;
@@ -133,7 +144,7 @@ public class IntIntMap {
 	private int keyPos(int key) {
 		int k = key & (capacity - 1);
 
-		int h1 = keys[k];
+		int h1 = keys.get(k);
 		if (h1 != 0 && h1 != key) {
 			for (int k2 = k+OFF; ; k2+= OFF) {
 				//miss++;
@@ -141,7 +152,7 @@ public class IntIntMap {
 					//noinspection AssignmentToForLoopParameter
 					k2 -= capacity;
 
-				int fk = keys[k2];
+				int fk = keys.get(k2);
 				if (fk == 0 || fk == key) {
 					//hit++;
 					//if ((size % 100000) == 0)
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+/**
+ * Maintains a list of long primitives.
+ */
+public class LongList {
+	private static final int DEFAULT_BUFFER_SIZE = 10;
+
+	private long[] data;
+	private int size;
+
+	public LongList() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public LongList(int initialSize) {
+		data = new long[initialSize];
+	}
+
+	public void add(long value) {
+		ensureCapacity();
+		data[size++] = value;
+	}
+
+	public long get(int i) {
+		return data[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity() {
+		if (size == data.length) {
+			long[] temp = data;
+			data = new long[size * 3 / 2 + 1];
+			System.arraycopy(temp, 0, data, 0, size);
+		}
+	}
+}
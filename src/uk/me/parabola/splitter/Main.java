@@ -16,12 +16,15 @@ package uk.me.parabola.splitter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import uk.me.parabola.splitter.args.ParamParser;
 import uk.me.parabola.splitter.args.SplitterParams;
@@ -43,8 +46,8 @@ import org.xmlpull.v1.XmlPullParserException;
  */
 public class Main {
 
-	// We can only process a maximum of 255 areas at a time because we
-	// compress an area ID into 8 bits to save memory (and 0 is reserved)
+	// The number of areas to process at a time. This is limited by the
+	// number of areas that an AreaSetTable can encode.
 	private int maxAreasPerPass = 255;
 
 	private List<String> filenames;
@@ -92,6 +95,15 @@ public class Main {
 	
 	private int maxThreads;
 
+	// The format of the output files, either xml or pbf.
+	private String outputType = "xml";
+
+	// Where the node and way maps are held during the split.
+	private String mapStorageType = "heap";
+
+	// The number of ways found on the first pass, or zero if there wasn't one.
+	private long wayCount;
+
 	private SplitterParams params;
 
 	public static void main(String[] args) {
@@ -224,8 +236,8 @@ public class Main {
 		mixed = params.isMixed();
 		diskCachePath = params.getCache();
 		maxAreasPerPass = params.getMaxAreas();
-		if (maxAreasPerPass < 1 || maxAreasPerPass > 255) {
-			System.err.println("The --max-areas parameter must be a value between 1 and 255. Resetting to 255.");
+		if (maxAreasPerPass < 1 || maxAreasPerPass > AreaSetTable.MAX_AREAS) {
+			System.err.println("The --max-areas parameter must be a value between 1 and " + AreaSetTable.MAX_AREAS + ". Resetting to 255.");
 			maxAreasPerPass = 255;
 		}
 		kmlOutputFile = params.getWriteKml();
@@ -235,6 +247,16 @@ public class Main {
 		}
 
 		maxThreads = params.getMaxThreads().getCount();
+		outputType = params.getOutput();
+		if (!"xml".equals(outputType) && !"pbf".equals(outputType)) {
+			System.err.println("The --output parameter must be either xml or pbf. Resetting to xml.");
+			outputType = "xml";
+		}
+		mapStorageType = params.getMapStorage();
+		if (!MapStorage.isValidType(mapStorageType)) {
+			System.err.println("The --map-storage parameter must be one of heap, direct or mapped. Resetting to heap.");
+			mapStorageType = "heap";
+		}
 		filenames = parser.getAdditionalParams();
 
 		String splitFile = params.getSplitFile();
@@ -271,7 +293,7 @@ public class Main {
 			}
 		}
 
-		MapReader mapReader = processMap(processor, loadFromCache);
+		MapReader mapReader = processMap(processor, loadFromCache, maxThreads);
 		System.out.print("A total of " + Utils.format(mapReader.getNodeCount()) + " nodes, " +
 						Utils.format(mapReader.getWayCount()) + " ways and " +
 						Utils.format(mapReader.getRelationCount()) + " relations were processed ");
@@ -280,6 +302,7 @@ public class Main {
 		} else {
 			System.out.println("in " + filenames.size() + (filenames.size() == 1 ? " file" : " files"));
 		}
+		wayCount = mapReader.getWayCount();
 		System.out.println("Min node ID = " + mapReader.getMinNodeId());
 		System.out.println("Max node ID = " + mapReader.getMaxNodeId());
 
@@ -339,65 +362,149 @@ public class Main {
 			System.out.println("Processing " + areas.size() + " areas in a single pass");
 		}
 
-		for (int i = 0; i < passesRequired; i++) {
-			OSMWriter[] currentWriters = new OSMWriter[Math.min(maxAreasPerPass, areas.size() - i * maxAreasPerPass)];
-			for (int j = 0; j < currentWriters.length; j++) {
-				Area area = areas.get(i * maxAreasPerPass + j);
-				currentWriters[j] = new OSMWriter(area);
-				currentWriters[j].initForWrite(area.getMapId(), overlapAmount);
+		// The threads are shared out between the stages that run at the same time. One thread
+		// processes the elements and the rest are split between reading the input, writing the
+		// tiles and, for xml output, the gzip compression of all the tiles of a pass.
+		boolean compressed = !"pbf".equals(outputType);
+		int spareThreads = maxThreads - 1;
+		int writerThreads = spareThreads / (compressed ? 3 : 2);
+		int compressorThreads = compressed ? spareThreads / 3 : 0;
+		ExecutorService compressor = null;
+		if (compressorThreads > 0)
+			compressor = Executors.newFixedThreadPool(compressorThreads, new NamedThreadFactory("gzip-"));
+
+		try {
+			for (int i = 0; i < passesRequired; i++) {
+				writePass(areas, i, passesRequired, compressor, writerThreads, maxThreads - writerThreads - compressorThreads);
 			}
+		} finally {
+			if (compressor != null)
+				compressor.shutdownNow();
+		}
+	}
 
-			System.out.println("Starting pass " + (i + 1) + " of " + passesRequired + ", processing " + currentWriters.length +
-							" areas (" + areas.get(i * maxAreasPerPass).getMapId() + " to " +
-							areas.get(i * maxAreasPerPass + currentWriters.length - 1).getMapId() + ')');
+	/**
+	 * Writes out the areas for a single pass over the input file(s).
+	 *
+	 * @param writerThreads The number of threads to write the tiles on.
+	 * @param readThreads The number of threads to read and process the input with.
+	 */
+	private void writePass(List<Area> areas, int i, int passesRequired, ExecutorService compressor,
+					int writerThreads, int readThreads) throws IOException, XmlPullParserException {
+		TileWriter[] currentWriters = new TileWriter[Math.min(maxAreasPerPass, areas.size() - i * maxAreasPerPass)];
+		for (int j = 0; j < currentWriters.length; j++) {
+			Area area = areas.get(i * maxAreasPerPass + j);
+			if ("pbf".equals(outputType))
+				currentWriters[j] = new PbfWriter(area);
+			else
+				currentWriters[j] = new OSMWriter(area, compressor);
+			currentWriters[j].initForWrite(area.getMapId(), overlapAmount);
+		}
 
-			MapProcessor processor = new SplitProcessor(currentWriters, maxThreads);
-			if (generateCache) {
-				if (passesRequired == 1) {
-					System.out.println("*********************************************************************");
-					System.out.println("* WARNING: No valid existing cache found but caching was requested. *");
-					System.out.println("*          A cache will be generated even though only one pass is   *");
-					System.out.println("*          required. This is likely to slow things down! You should *");
-					System.out.println("*          normally only do this if you plan to reuse the cache on  *");
-					System.out.println("*          additional runs of the splitter.                         *");
-					System.out.println("*********************************************************************");
-				} else {
-					System.out.println("No valid existing cache found. A cache will be generated on this pass");
-				}
-				processor = new CachingMapProcessor(diskCachePath, verifier, processor);
+		System.out.println("Starting pass " + (i + 1) + " of " + passesRequired + ", processing " + currentWriters.length +
+						" areas (" + areas.get(i * maxAreasPerPass).getMapId() + " to " +
+						areas.get(i * maxAreasPerPass + currentWriters.length - 1).getMapId() + ')');
+
+		MapProcessor processor = new SplitProcessor(currentWriters, writerThreads, MapStorage.create(mapStorageType), wayCount);
+		if (generateCache) {
+			if (passesRequired == 1) {
+				System.out.println("*********************************************************************");
+				System.out.println("* WARNING: No valid existing cache found but caching was requested. *");
+				System.out.println("*          A cache will be generated even though only one pass is   *");
+				System.out.println("*          required. This is likely to slow things down! You should *");
+				System.out.println("*          normally only do this if you plan to reuse the cache on  *");
+				System.out.println("*          additional runs of the splitter.                         *");
+				System.out.println("*********************************************************************");
+			} else {
+				System.out.println("No valid existing cache found. A cache will be generated on this pass");
 			}
-			MapReader mapReader = processMap(processor, !generateCache && diskCachePath != null);
-			generateCache = false;	// Make sure the cache isn't generated more than once!
-			System.out.println("Wrote " + Utils.format(mapReader.getNodeCount()) + " nodes, " +
-							Utils.format(mapReader.getWayCount()) + " ways, " +
-							Utils.format(mapReader.getRelationCount()) + " relations");
+			processor = new CachingMapProcessor(diskCachePath, verifier, processor);
 		}
+		MapReader mapReader = processMap(processor, !generateCache && diskCachePath != null, readThreads);
+		generateCache = false;	// Make sure the cache isn't generated more than once!
+		// Later passes can size their way maps from this one
+		wayCount = Math.max(wayCount, mapReader.getWayCount());
+		System.out.println("Wrote " + Utils.format(mapReader.getNodeCount()) + " nodes, " +
+						Utils.format(mapReader.getWayCount()) + " ways, " +
+						Utils.format(mapReader.getRelationCount()) + " relations");
 	}
 
-	private MapReader processMap(MapProcessor processor, boolean useCache) throws XmlPullParserException, IOException {
+	/**
+	 * @param threads The number of threads that can be used to read and process the input.
+	 */
+	private MapReader processMap(MapProcessor processor, boolean useCache, int threads) throws XmlPullParserException, IOException {
+		// Mergeable processors only want the node coordinates, which are cheap
+		// enough to process on the reading thread. Otherwise one of the threads
+		// processes the elements while the rest read them.
+		if (threads > 1 && !(processor instanceof MergeableMapProcessor)) {
+			processor = new PipelinedMapProcessor(processor);
+			threads--;
+		}
 		if (useCache) {
 			BinaryMapLoader loader = new BinaryMapLoader(diskCachePath, processor);
 			loader.load();
 			return loader;
 		} else {
-			OSMParser parser = new OSMParser(processor, mixed);
-			processOsmFiles(parser);
-			return parser;
+			return processOsmFiles(processor, threads);
 		}
 	}
 
-	private void processOsmFiles(OSMParser parser) throws IOException, XmlPullParserException {
+	private MapReader processOsmFiles(MapProcessor processor, int threads) throws IOException, XmlPullParserException {
+		if (threads > 1 && filenames.size() > 1 && !mixed) {
+			// Read all the files at the same time
+			System.out.println("Processing " + filenames.size() + " files concurrently");
+			MultiFileReader reader = new MultiFileReader(processor, threads);
+			reader.process(filenames);
+			processor.endMap();
+			return reader;
+		}
+
+		CombinedMapReader result = new CombinedMapReader();
+		OSMByteParser scanner = null;
+		OSMParser parser = null;
+		PbfReader pbfReader = null;
+		ChunkedOSMReader chunkedReader = null;
 		for (String filename : filenames) {
 			System.out.println("Processing " + filename);
-			Reader reader = Utils.openFile(filename, maxThreads > 1);
-			parser.setReader(reader);
-			try {
-				parser.parse();
-			} finally {
-				reader.close();
+			if (filename.endsWith(".pbf")) {
+				if (pbfReader == null) {
+					pbfReader = new PbfReader(processor, mixed, threads);
+					result.add(pbfReader);
+				}
+				pbfReader.process(filename);
+			} else if (threads > 1 && ChunkedOSMReader.canRead(filename)) {
+				if (chunkedReader == null) {
+					chunkedReader = new ChunkedOSMReader(processor, mixed, threads);
+					result.add(chunkedReader);
+				}
+				chunkedReader.process(filename);
+			} else {
+				InputStream in = Utils.openFileStream(filename, threads);
+				try {
+					String encoding = OSMXmlScanner.getDeclaredEncoding(in);
+					if (OSMXmlScanner.isSupportedEncoding(encoding)) {
+						if (scanner == null) {
+							scanner = OSMXmlScanner.createParser(processor, mixed);
+							result.add(scanner);
+						}
+						scanner.parse(in);
+					} else {
+						// Fall back to the slower, general purpose XML parser
+						System.out.println(filename + " is encoded as " + encoding + ", using the XPP parser to read it");
+						if (parser == null) {
+							parser = new OSMParser(processor, mixed);
+							result.add(parser);
+						}
+						parser.setReader(new InputStreamReader(in, encoding));
+						parser.parse();
+					}
+				} finally {
+					in.close();
+				}
 			}
 		}
-		parser.endMap();
+		processor.endMap();
+		return result;
 	}
 
 	/**
@@ -434,7 +541,7 @@ public class Main {
 				w.println("# description: OSM Map");
 			else
 				w.println("description: " + a.getName());
-			w.format("input-file: %d.osm.gz\n", a.getMapId());
+			w.format("input-file: %d.osm.%s\n", a.getMapId(), "pbf".equals(outputType) ? "pbf" : "gz");
 		}
 
 		w.println();
@@ -40,6 +40,16 @@ public class MapDetails {
 			maxLon = lon;
 	}
 
+	/**
+	 * Add the bounds collected by another instance to the total bounds for the map.
+	 */
+	public void addToBounds(MapDetails other) {
+		minLat = Math.min(minLat, other.minLat);
+		minLon = Math.min(minLon, other.minLon);
+		maxLat = Math.max(maxLat, other.maxLat);
+		maxLon = Math.max(maxLon, other.maxLon);
+	}
+
 	/**
 	 * Get the bounds of this map.
 	 *
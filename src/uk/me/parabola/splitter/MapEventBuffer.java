@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+/**
+ * Records the calls made on it as a compact sequence of events so that they
+ * can later be replayed, in the same order, to another {@link MapProcessor}.
+ * This allows the expensive decoding of the input to happen on a different
+ * thread to the processing of the elements.
+ * <p/>
+ * The buffer also keeps count of the elements that it has seen so it can act
+ * as a {@link MapReader} for the portion of the map it holds.
+ */
+class MapEventBuffer implements MapProcessor, MapReader {
+
+	private static final int BOUNDS = 1;
+	private static final int START_NODE = 2;
+	private static final int START_WAY = 3;
+	private static final int START_RELATION = 4;
+	private static final int NODE_TAG = 5;
+	private static final int WAY_TAG = 6;
+	private static final int RELATION_TAG = 7;
+	private static final int WAY_NODE = 8;
+	private static final int RELATION_NODE = 9;
+	private static final int RELATION_WAY = 10;
+	private static final int END_NODE = 11;
+	private static final int END_WAY = 12;
+	private static final int END_RELATION = 13;
+
+	private final boolean startNodeOnly;
+
+	// The event codes and any int arguments, including the node coordinates.
+	// Ids take up two ints each, the high half first.
+	private int[] ints = new int[4096];
+	private int intCount;
+	// Any strings (tags, roles) and areas
+	private Object[] objects = new Object[1024];
+	private int objectCount;
+
+	private long nodeCount;
+	private long wayCount;
+	private long relationCount;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
+
+	/**
+	 * @param startNodeOnly {@code true} if only the {@link #startNode} and
+	 * {@link #boundTag} events need to be recorded.
+	 */
+	MapEventBuffer(boolean startNodeOnly) {
+		this.startNodeOnly = startNodeOnly;
+	}
+
+	@Override
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public long getWayCount() {
+		return wayCount;
+	}
+
+	@Override
+	public long getRelationCount() {
+		return relationCount;
+	}
+
+	@Override
+	public long getMinNodeId() {
+		return minNodeId;
+	}
+
+	@Override
+	public long getMaxNodeId() {
+		return maxNodeId;
+	}
+
+	/**
+	 * @return {@code true} if no events have been recorded.
+	 */
+	public boolean isEmpty() {
+		return intCount == 0;
+	}
+
+	/**
+	 * Discards all of the recorded events so the buffer can be used again.
+	 */
+	public void clear() {
+		// Don't hold on to the strings any longer than necessary
+		for (int i = 0; i < objectCount; i++)
+			objects[i] = null;
+		intCount = 0;
+		objectCount = 0;
+		nodeCount = 0;
+		wayCount = 0;
+		relationCount = 0;
+		minNodeId = Long.MAX_VALUE;
+		maxNodeId = Long.MIN_VALUE;
+	}
+
+	@Override
+	public boolean isStartNodeOnly() {
+		return startNodeOnly;
+	}
+
+	@Override
+	public void boundTag(Area bounds) {
+		addInt(BOUNDS);
+		addObject(bounds);
+	}
+
+	@Override
+	public void startNode(long id, int lat, int lon) {
+		addInt(START_NODE);
+		addLong(id);
+		addInt(lat);
+		addInt(lon);
+
+		if (id < minNodeId) {
+			minNodeId = id;
+		}
+		if (id > maxNodeId) {
+			maxNodeId = id;
+		}
+		nodeCount++;
+	}
+
+	@Override
+	public void startWay(long id) {
+		addInt(START_WAY);
+		addLong(id);
+		wayCount++;
+	}
+
+	@Override
+	public void startRelation(long id) {
+		addInt(START_RELATION);
+		addLong(id);
+		relationCount++;
+	}
+
+	@Override
+	public void nodeTag(String key, String value) {
+		addInt(NODE_TAG);
+		addObject(key);
+		addObject(value);
+	}
+
+	@Override
+	public void wayTag(String key, String value) {
+		addInt(WAY_TAG);
+		addObject(key);
+		addObject(value);
+	}
+
+	@Override
+	public void relationTag(String key, String value) {
+		addInt(RELATION_TAG);
+		addObject(key);
+		addObject(value);
+	}
+
+	@Override
+	public void wayNode(long nodeId) {
+		addInt(WAY_NODE);
+		addLong(nodeId);
+	}
+
+	@Override
+	public void relationNode(long nodeId, String role) {
+		addInt(RELATION_NODE);
+		addLong(nodeId);
+		addObject(role);
+	}
+
+	@Override
+	public void relationWay(long wayId, String role) {
+		addInt(RELATION_WAY);
+		addLong(wayId);
+		addObject(role);
+	}
+
+	@Override
+	public void endNode() {
+		addInt(END_NODE);
+	}
+
+	@Override
+	public void endWay() {
+		addInt(END_WAY);
+	}
+
+	@Override
+	public void endRelation() {
+		addInt(END_RELATION);
+	}
+
+	@Override
+	public void endMap() {
+	}
+
+	/**
+	 * Replays all of the recorded events, in the order they were received, to
+	 * the given processor. Note that {@link MapProcessor#endMap()} is never called
+	 * by this method.
+	 */
+	public void replay(MapProcessor processor) {
+		int i = 0;
+		int o = 0;
+		while (i < intCount) {
+			switch (ints[i++]) {
+			case BOUNDS:
+				processor.boundTag((Area) objects[o++]);
+				break;
+			case START_NODE:
+				processor.startNode(getLong(i), ints[i + 2], ints[i + 3]);
+				i += 4;
+				break;
+			case START_WAY:
+				processor.startWay(getLong(i));
+				i += 2;
+				break;
+			case START_RELATION:
+				processor.startRelation(getLong(i));
+				i += 2;
+				break;
+			case NODE_TAG:
+				processor.nodeTag((String) objects[o++], (String) objects[o++]);
+				break;
+			case WAY_TAG:
+				processor.wayTag((String) objects[o++], (String) objects[o++]);
+				break;
+			case RELATION_TAG:
+				processor.relationTag((String) objects[o++], (String) objects[o++]);
+				break;
+			case WAY_NODE:
+				processor.wayNode(getLong(i));
+				i += 2;
+				break;
+			case RELATION_NODE:
+				processor.relationNode(getLong(i), (String) objects[o++]);
+				i += 2;
+				break;
+			case RELATION_WAY:
+				processor.relationWay(getLong(i), (String) objects[o++]);
+				i += 2;
+				break;
+			case END_NODE:
+				processor.endNode();
+				break;
+			case END_WAY:
+				processor.endWay();
+				break;
+			case END_RELATION:
+				processor.endRelation();
+				break;
+			default:
+				throw new IllegalStateException("Unknown event " + ints[i - 1] + " found in the event buffer");
+			}
+		}
+	}
+
+	private void addInt(int value) {
+		if (intCount == ints.length) {
+			int[] temp = new int[ints.length * 2];
+			System.arraycopy(ints, 0, temp, 0, intCount);
+			ints = temp;
+		}
+		ints[intCount++] = value;
+	}
+
+	private void addLong(long value) {
+		addInt((int) (value >>> 32));
+		addInt((int) value);
+	}
+
+	private long getLong(int i) {
+		return ((long) ints[i] << 32) | (ints[i + 1] & 0xffffffffL);
+	}
+
+	private void addObject(Object value) {
+		if (objectCount == objects.length) {
+			Object[] temp = new Object[objects.length * 2];
+			System.arraycopy(objects, 0, temp, 0, objectCount);
+			objects = temp;
+		}
+		objects[objectCount++] = value;
+	}
+}
@@ -17,7 +17,7 @@ public interface MapProcessor {
 
 	/**
 	 * @return {@code true} if this processor is only interested in
-	 * {@link #startNode(int, double,double)} events, {@code false}
+	 * {@link #startNode(long, int, int)} events, {@code false}
 	 * if all events are handled.
 	 * <p/>
 	 * If this is set to {@code true}, the caller can significantly
@@ -36,27 +36,28 @@ public interface MapProcessor {
 	/**
 	 * Called when a node is encountered.
 	 * @param id the node's ID.
-	 * @param lat the node's latitude.
-	 * @param lon the node's longitude.
+	 * @param lat the node's latitude, in units of 10^-7 degrees.
+	 * @param lon the node's longitude, in units of 10^-7 degrees.
+	 * @see Convert#parseFixedPoint(String)
 	 */
-	void startNode(int id, double lat, double lon);
+	void startNode(long id, int lat, int lon);
 
 	/**
 	 * Called when a way is encountered.
 	 * @param id the way's ID.
 	 */
-	void startWay(int id);
+	void startWay(long id);
 
 	/**
 	 * Called when a relation is encountered.
 	 * @param id the relation's ID.
 	 */
-	void startRelation(int id);
+	void startRelation(long id);
 
 	/**
 	 * Called when a tag is encountered on a node. This method will be
 	 * called for every tag associated with the node that was specified
-	 * in the most recent call to {@link #startNode(int, double, double)}.
+	 * in the most recent call to {@link #startNode(long, int, int)}.
 	 * @param key the tag's key.
 	 * @param value the tag's value.
 	 */
@@ -65,7 +66,7 @@ public interface MapProcessor {
 	/**
 	 * Called when a tag is encountered on a way. This method will be
 	 * called for every tag associated with the way that was specified
-	 * in the most recent call to {@link #startWay(int)}.
+	 * in the most recent call to {@link #startWay(long)}.
 	 * @param key the tag's key.
 	 * @param value the tag's value.
 	 */
@@ -74,7 +75,7 @@ public interface MapProcessor {
 	/**
 	 * Called when a tag is encountered on a relation. This method will
 	 * be called for every tag associated with the relation that was
-	 * specified in the most recent call to {@link #startRelation(int)}.
+	 * specified in the most recent call to {@link #startRelation(long)}.
 	 * @param key the tag's key.
 	 * @param value the tag's value.
 	 */
@@ -83,45 +84,45 @@ public interface MapProcessor {
 	/**
 	 * Called when a reference to a node is encountered within a way. This
 	 * method will be called for every node associated with the way that was
-	 * specified in the most recent call to {@link #startWay(int)} .
+	 * specified in the most recent call to {@link #startWay(long)} .
 	 * @param nodeId the ID of the node.
 	 */
-	void wayNode(int nodeId);
+	void wayNode(long nodeId);
 
 	/**
 	 * Called when a reference to a node is encountered within a relation.
 	 * This method will be called for every node that is associated with the
-	 * relation that was specified in the most recent call to {@link #startRelation(int)} .
+	 * relation that was specified in the most recent call to {@link #startRelation(long)} .
 	 * @param nodeId the ID of the node.
 	 */
-	void relationNode(int nodeId, String role);
+	void relationNode(long nodeId, String role);
 
 	/**
 	 * Called when a reference to a way is encountered within a relation.
 	 * This method will be called for every way that is associated with the relation
-	 * that was specified in the most recent call to {@link #startRelation(int)} .
+	 * that was specified in the most recent call to {@link #startRelation(long)} .
 	 * @param nodeId the ID of the node.
 	 */
-	void relationWay(int wayId, String role);
+	void relationWay(long wayId, String role);
 
 	/**
 	 * Called when processing is complete for a node. This method will be called once
 	 * there is no further data available for the node specified in the most recent
-	 * call to {@link #startNode(int, double, double)}.
+	 * call to {@link #startNode(long, int, int)}.
 	 */
 	void endNode();
 
 	/**
 	 * Called when processing is complete for a way. This method will be called once
 	 * there is no further data available for the way specified in the most recent
-	 * call to {@link #startWay(int)}.
+	 * call to {@link #startWay(long)}.
 	 */
 	void endWay();
 
 	/**
 	 * Called when processing is complete for a relation. This method will be called once
 	 * there is no further data available for the relation specified in the most recent
-	 * call to {@link #startRelation(int)}.
+	 * call to {@link #startRelation(long)}.
 	 */
 	void endRelation();
 
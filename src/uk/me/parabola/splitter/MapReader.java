@@ -20,7 +20,7 @@ public interface MapReader {
 
 	long getRelationCount();
 
-	int getMinNodeId();
+	long getMinNodeId();
 
-	int getMaxNodeId();
+	long getMaxNodeId();
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Allocates the int arrays that back the big node and way maps.
+ * <p/>
+ * On a large split these maps take up most of the memory, and having them on
+ * the Java heap means a big heap that takes the garbage collector a long time
+ * to scan. They can instead be held in native memory, or in a memory mapped
+ * temporary file so that the operating system can page them in and out.
+ * <p/>
+ * The returned buffers are always filled with zeros. A storage is meant to
+ * last for a single pass over the map, and is then closed to free the space.
+ */
+public abstract class MapStorage {
+	/** Plain arrays on the Java heap. */
+	public static final MapStorage HEAP = new MapStorage() {
+		@Override
+		public IntBuffer allocate(int size) {
+			return IntBuffer.allocate(size);
+		}
+	};
+
+	/**
+	 * @return {@code true} if {@link #create(String)} recognises the given type.
+	 */
+	public static boolean isValidType(String type) {
+		return "heap".equals(type) || "direct".equals(type) || "mapped".equals(type);
+	}
+
+	/**
+	 * @param type one of heap, direct or mapped.
+	 * @return a storage of the given type, or {@code null} if the type isn't recognised.
+	 */
+	public static MapStorage create(String type) {
+		if ("heap".equals(type))
+			return HEAP;
+		if ("direct".equals(type))
+			return new DirectStorage();
+		if ("mapped".equals(type))
+			return new MappedStorage();
+		return null;
+	}
+
+	/**
+	 * @return a buffer that holds the given number of ints, all set to zero.
+	 */
+	public abstract IntBuffer allocate(int size);
+
+	/**
+	 * Frees the space used by the buffers, if it isn't simply left to the
+	 * garbage collector. None of the buffers may be used afterwards.
+	 */
+	public void close() {
+	}
+
+	private static int toBytes(int size) {
+		if (size < 0 || size > Integer.MAX_VALUE / 4)
+			throw new IllegalArgumentException("Can't allocate a buffer of " + size + " ints");
+		return size * 4;
+	}
+
+	/**
+	 * Direct buffers, outside of the Java heap. These count against
+	 * -XX:MaxDirectMemorySize, which is the same as the maximum heap size unless
+	 * it is set. Once that runs out the rest of the buffers are mapped onto a
+	 * temporary file instead, rather than failing the split.
+	 */
+	private static class DirectStorage extends MapStorage {
+		private MappedStorage fallback;
+
+		@Override
+		public synchronized IntBuffer allocate(int size) {
+			if (fallback == null) {
+				try {
+					return ByteBuffer.allocateDirect(toBytes(size)).order(ByteOrder.nativeOrder()).asIntBuffer();
+				} catch (OutOfMemoryError e) {
+					System.out.println("Ran out of direct memory for the node and way maps (" + e.getMessage() +
+									"), so a memory mapped temporary file is being used for the rest of this pass. Raise -XX:MaxDirectMemorySize to avoid this.");
+					fallback = new MappedStorage();
+				}
+			}
+			return fallback.allocate(size);
+		}
+
+		@Override
+		public synchronized void close() {
+			if (fallback != null) {
+				fallback.close();
+				fallback = null;
+			}
+		}
+	}
+
+	/**
+	 * Maps the buffers onto a temporary file. Small buffers are carved out of
+	 * larger mapped slabs so that the number of separate mappings stays low.
+	 */
+	private static class MappedStorage extends MapStorage {
+		private static final int SLAB_SIZE = 64 * 1024 * 1024;
+
+		private FileChannel channel;
+		// The length of the file that has been mapped so far
+		private long fileLength;
+		private ByteBuffer slab;
+		private boolean closed;
+
+		@Override
+		public synchronized IntBuffer allocate(int size) {
+			if (closed)
+				throw new IllegalStateException("The map storage has been closed");
+			int bytes = toBytes(size);
+			ByteBuffer buf;
+			if (bytes > SLAB_SIZE / 4) {
+				buf = map(bytes);
+			} else {
+				if (slab == null || slab.remaining() < bytes)
+					slab = map(SLAB_SIZE);
+				slab.limit(slab.position() + bytes);
+				buf = slab.slice();
+				slab.position(slab.limit());
+				slab.limit(slab.capacity());
+			}
+			return buf.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+
+		private ByteBuffer map(int bytes) {
+			try {
+				if (channel == null) {
+					File file = File.createTempFile("splitter", ".map");
+					file.deleteOnExit();
+					channel = new RandomAccessFile(file, "rw").getChannel();
+					// The mappings stay valid once the file is deleted, at least on unix
+					file.delete();
+				}
+				// The file grows to fit the new mapping, and the new part of it reads as zeros
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, bytes);
+				fileLength += bytes;
+				return buf;
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to map a temporary file for the node and way maps", e);
+			}
+		}
+
+		/**
+		 * Gives the space in the temporary file back. The mappings themselves
+		 * can't be removed directly, they go once the buffers are garbage collected.
+		 */
+		@Override
+		public synchronized void close() {
+			closed = true;
+			slab = null;
+			if (channel == null)
+				return;
+			try {
+				channel.truncate(0);
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Unable to close the temporary file for the node and way maps: " + e.getMessage());
+			}
+			channel = null;
+			fileLength = 0;
+		}
+	}
+}
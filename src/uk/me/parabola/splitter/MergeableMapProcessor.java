@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+/**
+ * A {@link MapProcessor} whose results don't depend on the order that the map
+ * elements arrive in. This allows the elements to be spread across several
+ * threads, each of them feeding a separate copy of the processor, with the
+ * copies being merged back together once all the elements have been seen.
+ */
+interface MergeableMapProcessor extends MapProcessor {
+
+	/**
+	 * @return a new, empty processor that collects the same information as this one.
+	 */
+	MergeableMapProcessor createEmptyCopy();
+
+	/**
+	 * Adds everything that has been collected by another processor into this one.
+	 *
+	 * @param other a processor that was created by {@link #createEmptyCopy()}.
+	 */
+	void merge(MergeableMapProcessor other);
+}
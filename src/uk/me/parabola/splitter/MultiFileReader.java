@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads several input files at the same time, each on its own thread.
+ * <p/>
+ * If the processor is a {@link MergeableMapProcessor} each file feeds its own
+ * copy of the processor. The copies are only created as the files are started,
+ * and each one is merged in and dropped as soon as its file has been read.
+ * <p/>
+ * Otherwise the elements are passed to the processor in batches from the calling
+ * thread. The files are kept in step with each other so that all the nodes in
+ * all the files are passed on before any of the ways, and all the ways before
+ * any of the relations. This means the files must not be 'mixed'.
+ */
+class MultiFileReader extends AbstractMapReader {
+
+	// The number of elements that are passed to the processor in one go
+	private static final int BATCH_SIZE = 10000;
+
+	// The phases that each file goes through
+	private static final int NODES = 0;
+	private static final int WAYS = 1;
+	private static final int RELATIONS = 2;
+	private static final int FINISHED = 3;
+
+	// Marks the end of a file in the queue of batches
+	private static final MapEventBuffer END_MARKER = new MapEventBuffer(false);
+
+	private final MapProcessor processor;
+	private final int maxThreads;
+
+	// The current phase of each file, guarded by this
+	private int[] phases;
+
+	MultiFileReader(MapProcessor processor, int maxThreads) {
+		this.processor = processor;
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Reads all of the given files, passing their contents to the processor.
+	 * Note that {@link MapProcessor#endMap()} is not called.
+	 */
+	public void process(List<String> filenames) throws IOException, XmlPullParserException {
+		if (processor instanceof MergeableMapProcessor) {
+			processMergeable(filenames);
+		} else {
+			processOrdered(filenames);
+		}
+	}
+
+	private void processMergeable(List<String> filenames) throws IOException, XmlPullParserException {
+		MergeableMapProcessor mergeable = (MergeableMapProcessor) processor;
+		ExecutorService executor = Executors.newFixedThreadPool(maxThreads, new NamedThreadFactory("file-reader-"));
+		CompletionService<MergeableFileTask> completion = new ExecutorCompletionService<MergeableFileTask>(executor);
+		try {
+			// Only start as many files as there are threads, so that there are
+			// never more copies of the processor than that
+			Iterator<String> files = filenames.iterator();
+			int running = 0;
+			while (running < maxThreads && files.hasNext()) {
+				completion.submit(new MergeableFileTask(files.next(), mergeable.createEmptyCopy()));
+				running++;
+			}
+			while (running > 0) {
+				MergeableFileTask task;
+				try {
+					task = getResult(completion.take());
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the input files to be read", e);
+				}
+				running--;
+				addCounts(task.reader);
+				mergeable.merge(task.copy);
+				if (files.hasNext()) {
+					completion.submit(new MergeableFileTask(files.next(), mergeable.createEmptyCopy()));
+					running++;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void processOrdered(List<String> filenames) throws IOException, XmlPullParserException {
+		int count = filenames.size();
+		phases = new int[count];
+		// There is a thread per file, but only maxThreads of them are allowed to do
+		// any work at once. Threads waiting for the other files to catch up don't count.
+		Semaphore permits = new Semaphore(maxThreads);
+		BlockingQueue<MapEventBuffer> queue = new ArrayBlockingQueue<MapEventBuffer>(maxThreads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("file-reader-"));
+		try {
+			List<Future<MapReader>> results = new ArrayList<Future<MapReader>>();
+			for (int i = 0; i < count; i++)
+				results.add(executor.submit(new FileTask(i, filenames.get(i), permits, queue)));
+
+			int finished = 0;
+			while (finished < count) {
+				MapEventBuffer batch;
+				try {
+					batch = queue.take();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the input files to be read", e);
+				}
+				if (batch == END_MARKER) {
+					finished++;
+				} else {
+					batch.replay(processor);
+					addCounts(batch);
+				}
+			}
+			// Pass on any problems that were encountered
+			for (Future<MapReader> result : results)
+				getResult(result);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static <T> T getResult(Future<T> result) throws IOException, XmlPullParserException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for the input files to be read", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof XmlPullParserException)
+				throw (XmlPullParserException) cause;
+			throw new RuntimeException("Failed to read an input file", cause);
+		}
+	}
+
+	/**
+	 * Reads a single file on the current thread, using the appropriate parser for its format.
+	 */
+	private static MapReader readFile(String filename, MapProcessor target) throws IOException, XmlPullParserException {
+		if (filename.endsWith(".pbf")) {
+			PbfReader reader = new PbfReader(target, false, 1);
+			reader.process(filename);
+			return reader;
+		}
+		InputStream in = Utils.openFileStream(filename, 1);
+		try {
+			String encoding = OSMXmlScanner.getDeclaredEncoding(in);
+			if (OSMXmlScanner.isSupportedEncoding(encoding)) {
+				OSMByteParser scanner = OSMXmlScanner.createParser(target, false);
+				scanner.parse(in);
+				return scanner;
+			}
+			OSMParser parser = new OSMParser(target, false);
+			parser.setReader(new InputStreamReader(in, encoding));
+			parser.parse();
+			return parser;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Moves a file on to the given phase, then waits until all the other files
+	 * have also reached it.
+	 */
+	private synchronized void enterPhase(int file, int phase) throws InterruptedException {
+		phases[file] = phase;
+		notifyAll();
+		while (true) {
+			int min = FINISHED;
+			for (int p : phases)
+				min = Math.min(min, p);
+			if (min >= phase)
+				break;
+			wait();
+		}
+	}
+
+	private synchronized void finish(int file) {
+		phases[file] = FINISHED;
+		notifyAll();
+	}
+
+	/**
+	 * Reads one file into its own copy of a mergeable processor.
+	 */
+	private static class MergeableFileTask implements Callable<MergeableFileTask> {
+		private final String filename;
+		private final MergeableMapProcessor copy;
+
+		private MapReader reader;
+
+		MergeableFileTask(String filename, MergeableMapProcessor copy) {
+			this.filename = filename;
+			this.copy = copy;
+		}
+
+		@Override
+		public MergeableFileTask call() throws IOException, XmlPullParserException {
+			reader = readFile(filename, copy);
+			return this;
+		}
+	}
+
+	/**
+	 * Reads one file, passing its elements on to the queue in batches and
+	 * holding back the ways and relations until the other files are ready.
+	 */
+	private class FileTask implements Callable<MapReader>, MapProcessor {
+		private final int file;
+		private final String filename;
+		private final Semaphore permits;
+		private final BlockingQueue<MapEventBuffer> queue;
+
+		private int phase = NODES;
+		private MapEventBuffer batch;
+		private boolean holdingPermit;
+
+		FileTask(int file, String filename, Semaphore permits, BlockingQueue<MapEventBuffer> queue) {
+			this.file = file;
+			this.filename = filename;
+			this.permits = permits;
+			this.queue = queue;
+			batch = new MapEventBuffer(processor.isStartNodeOnly());
+		}
+
+		@Override
+		public MapReader call() throws Exception {
+			try {
+				permits.acquire();
+				holdingPermit = true;
+				MapReader reader = readFile(filename, this);
+				flush();
+				return reader;
+			} catch (InterruptedRuntimeException e) {
+				throw e.getCause();
+			} finally {
+				if (holdingPermit)
+					permits.release();
+				finish(file);
+				try {
+					queue.put(END_MARKER);
+				} catch (InterruptedException e) {
+					// Nothing is waiting for the marker any more, and throwing here
+					// would hide the reason the file stopped being read
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Sends the current batch if it is full, and then makes sure the file
+		 * is in the given phase before any more elements are added to it.
+		 */
+		private void beforeElement(int elementPhase) {
+			try {
+				long size = batch.getNodeCount() + batch.getWayCount() + batch.getRelationCount();
+				if (size >= BATCH_SIZE || elementPhase > phase)
+					flush();
+				if (elementPhase > phase) {
+					phase = elementPhase;
+					permits.release();
+					holdingPermit = false;
+					enterPhase(file, phase);
+					permits.acquire();
+					holdingPermit = true;
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedRuntimeException(e);
+			}
+		}
+
+		private void flush() throws InterruptedException {
+			if (!batch.isEmpty()) {
+				queue.put(batch);
+				batch = new MapEventBuffer(processor.isStartNodeOnly());
+			}
+		}
+
+		@Override
+		public boolean isStartNodeOnly() {
+			return processor.isStartNodeOnly();
+		}
+
+		@Override
+		public void boundTag(Area bounds) {
+			batch.boundTag(bounds);
+		}
+
+		@Override
+		public void startNode(long id, int lat, int lon) {
+			beforeElement(NODES);
+			batch.startNode(id, lat, lon);
+		}
+
+		@Override
+		public void startWay(long id) {
+			beforeElement(WAYS);
+			batch.startWay(id);
+		}
+
+		@Override
+		public void startRelation(long id) {
+			beforeElement(RELATIONS);
+			batch.startRelation(id);
+		}
+
+		@Override
+		public void nodeTag(String key, String value) {
+			batch.nodeTag(key, value);
+		}
+
+		@Override
+		public void wayTag(String key, String value) {
+			batch.wayTag(key, value);
+		}
+
+		@Override
+		public void relationTag(String key, String value) {
+			batch.relationTag(key, value);
+		}
+
+		@Override
+		public void wayNode(long nodeId) {
+			batch.wayNode(nodeId);
+		}
+
+		@Override
+		public void relationNode(long nodeId, String role) {
+			batch.relationNode(nodeId, role);
+		}
+
+		@Override
+		public void relationWay(long wayId, String role) {
+			batch.relationWay(wayId, role);
+		}
+
+		@Override
+		public void endNode() {
+			batch.endNode();
+		}
+
+		@Override
+		public void endWay() {
+			batch.endWay();
+		}
+
+		@Override
+		public void endRelation() {
+			batch.endRelation();
+		}
+
+		@Override
+		public void endMap() {
+		}
+	}
+
+	/**
+	 * Carries an InterruptedException through the {@link MapProcessor} methods,
+	 * which aren't allowed to throw it.
+	 */
+	private static class InterruptedRuntimeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		InterruptedRuntimeException(InterruptedException cause) {
+			super(cause);
+		}
+
+		@Override
+		public InterruptedException getCause() {
+			return (InterruptedException) super.getCause();
+		}
+	}
+}
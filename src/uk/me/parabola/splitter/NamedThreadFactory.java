@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates daemon threads with a common name prefix followed by a number,
+ * so they are easy to identify in a thread dump.
+ */
+class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private int count;
+
+	NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public synchronized Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + count++);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
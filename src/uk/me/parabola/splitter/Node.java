@@ -18,31 +18,32 @@ package uk.me.parabola.splitter;
  * @author Steve Ratcliffe
  */
 public class Node extends Element {
-	private double lat, lon;
+	// The coordinates in units of 10^-7 degrees
+	private int lat, lon;
 	private int mapLat, mapLon;
 
-	public void set(int id, double lat, double lon) {
+	public void set(long id, int lat, int lon) {
 		setId(id);
 		this.lat = lat;
 		this.lon = lon;
-		this.mapLat = Utils.toMapUnit(lat);
-		this.mapLon = Utils.toMapUnit(lon);
+		this.mapLat = Utils.fixedPointToMapUnit(lat);
+		this.mapLon = Utils.fixedPointToMapUnit(lon);
 	}
 
 	@Override
 	public void reset() {
 		super.reset();
-		lat = 0.0d;
-		lon = 0.0d;
+		lat = 0;
+		lon = 0;
 		mapLat = 0;
 		mapLon = 0;
 	}
 
-	public double getLat() {
+	public int getLat() {
 		return lat;
 	}
 
-	public double getLon() {
+	public int getLon() {
 		return lon;
 	}
 
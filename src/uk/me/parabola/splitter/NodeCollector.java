@@ -36,12 +36,12 @@ class NodeCollector implements MapCollector {
 	}
 
 	@Override
-	public void startNode(int id, double lat, double lon) {
+	public void startNode(long id, int lat, int lon) {
 		// Since we are rounding areas to fit on a low zoom boundary we
 		// can drop the bottom 8 bits of the lat and lon and then fit
 		// the whole lot into a single int.
-		int glat = Utils.toMapUnit(lat);
-		int glon = Utils.toMapUnit(lon);
+		int glat = Utils.fixedPointToMapUnit(lat);
+		int glon = Utils.fixedPointToMapUnit(lon);
 		int coord = ((glat << 8) & 0xffff0000) + ((glon >> 8) & 0xffff);
 
 		coords.add(coord);
@@ -49,10 +49,10 @@ class NodeCollector implements MapCollector {
 	}
 
 	@Override
-	public void startWay(int id) {}
+	public void startWay(long id) {}
 
 	@Override
-	public void startRelation(int id) {}
+	public void startRelation(long id) {}
 
 	@Override
 	public void nodeTag(String key, String value) {}
@@ -64,13 +64,13 @@ class NodeCollector implements MapCollector {
 	public void relationTag(String key, String value) {}
 
 	@Override
-	public void wayNode(int nodeId) {}
+	public void wayNode(long nodeId) {}
 
 	@Override
-	public void relationNode(int nodeId, String role) {}
+	public void relationNode(long nodeId, String role) {}
 
 	@Override
-	public void relationWay(int wayId, String role) {}
+	public void relationWay(long wayId, String role) {}
 
 	@Override
 	public void endNode() {}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+
+/**
+ * A very fast reader for processors that are only interested in the node
+ * coordinates, ie where {@link MapProcessor#isStartNodeOnly()} is {@code true}.
+ * <p/>
+ * The input is skimmed for the start of each {@code <node>} element, and only
+ * the id, lat, lon and action attributes of the node are looked at. The tags
+ * and everything else in the file are skipped over without their attributes
+ * being split up.
+ * Unless the file is mixed, reading stops at the first way or relation.
+ */
+class NodeCoordinateScanner extends AbstractXmlScanner {
+
+	// How many nodes to process before displaying a status update
+	private static final int NODE_STATUS_UPDATE_THRESHOLD = 2500000;
+
+	private static final byte[] NODE = toBytes("node");
+	private static final byte[] WAY = toBytes("way");
+	private static final byte[] RELATION = toBytes("relation");
+	private static final byte[] BOUNDS = toBytes("bounds");
+	private static final byte[] BOUND = toBytes("bound");
+	private static final byte[] ID_ATTR = toBytes("id");
+	private static final byte[] LAT_ATTR = toBytes("lat");
+	private static final byte[] LON_ATTR = toBytes("lon");
+	private static final byte[] ACTION_ATTR = toBytes("action");
+	private static final byte[] DELETE = toBytes("delete");
+
+	private final MapProcessor processor;
+	private final boolean mixed;
+
+	private long nodeCount;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
+
+	NodeCoordinateScanner(MapProcessor processor, boolean mixed) {
+		this(processor, mixed, INITIAL_BUFFER_SIZE);
+	}
+
+	NodeCoordinateScanner(MapProcessor processor, boolean mixed, int bufferSize) {
+		super(bufferSize);
+		this.processor = processor;
+		this.mixed = mixed;
+	}
+
+	@Override
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public long getWayCount() {
+		return 0;
+	}
+
+	@Override
+	public long getRelationCount() {
+		return 0;
+	}
+
+	@Override
+	public long getMinNodeId() {
+		return minNodeId;
+	}
+
+	@Override
+	public long getMaxNodeId() {
+		return maxNodeId;
+	}
+
+	@Override
+	protected int scanStartTag(int p) throws IOException {
+		p = scanName(p);
+		if (p >= limit)
+			return -1;
+		if (isElement(NODE)) {
+			p = scanAttributes(p);
+			if (p >= 0)
+				processNode();
+		} else if (isElement(BOUNDS) || isElement(BOUND)) {
+			p = scanAttributes(p);
+			if (p >= 0)
+				processBounds();
+		} else if (!mixed && (isElement(WAY) || isElement(RELATION))) {
+			done = true;
+		}
+		// Anything else, including the tags of the nodes, is of no interest. Its
+		// attributes can't contain a '<' so scanning can carry on from here
+		return p;
+	}
+
+	@Override
+	protected int scanEndTag(int p) {
+		return p;
+	}
+
+	private void processNode() throws IOException {
+		int action = findAttr(ACTION_ATTR);
+		if (action >= 0 && valueEquals(action, DELETE))
+			return;
+		int idAttr = findAttr(ID_ATTR);
+		int latAttr = findAttr(LAT_ATTR);
+		int lonAttr = findAttr(LON_ATTR);
+		if (idAttr < 0 || latAttr < 0 || lonAttr < 0) {
+			// This should never happen - bad/corrupt .osm file?
+			System.err.println("Node encountered with missing data. Bad/corrupt osm file? id=" + getAttr(ID_ATTR) + ", lat=" + getAttr(LAT_ATTR) +
+							", lon=" + getAttr(LON_ATTR) + ". Ignoring this node");
+			return;
+		}
+
+		long id = getLongAttr(ID_ATTR);
+		int lat = getFixedPointAttr(latAttr);
+		int lon = getFixedPointAttr(lonAttr);
+		if (id < minNodeId) {
+			minNodeId = id;
+		}
+		if (id > maxNodeId) {
+			maxNodeId = id;
+		}
+		processor.startNode(id, lat, lon);
+
+		nodeCount++;
+		if (nodeCount % NODE_STATUS_UPDATE_THRESHOLD == 0) {
+			System.out.println(Utils.format(nodeCount) + " nodes processed...");
+		}
+	}
+
+	private void processBounds() throws IOException {
+		Area bounds = getBoundsAttrs();
+		if (bounds != null) {
+			processor.boundTag(bounds);
+			System.out.println("A <bounds/> tag was found. Area covered is " + bounds.toString());
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A parser that reads OSM XML straight from a stream of UTF-8 (or ASCII)
+ * bytes, passing what it finds on to a {@link MapProcessor}.
+ */
+interface OSMByteParser extends MapReader {
+
+	/**
+	 * Reads a single OSM file, passing its contents to the processor.
+	 * Note that {@link MapProcessor#endMap()} is not called.
+	 */
+	void parse(InputStream in) throws IOException;
+
+	/**
+	 * @return {@code true} if the last call to {@link #parse(InputStream)} stopped
+	 * before the end of its input because the rest of the file wasn't needed.
+	 */
+	boolean isStopped();
+}
@@ -39,8 +39,10 @@ class OSMParser extends AbstractXppParser implements MapReader {
 	private long nodeCount;
 	private long wayCount;
 	private long relationCount;
-	private int minNodeId = Integer.MAX_VALUE;
-	private int maxNodeId = Integer.MIN_VALUE;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
+
+	private final TagDictionary dictionary = TagDictionary.getInstance();
 
 	OSMParser(MapProcessor processor, boolean mixed) throws XmlPullParserException {
 		this.processor = processor;
@@ -64,19 +66,15 @@ class OSMParser extends AbstractXppParser implements MapReader {
 	}
 
 	@Override
-	public int getMinNodeId() {
+	public long getMinNodeId() {
 		return minNodeId;
 	}
 
 	@Override
-	public int getMaxNodeId() {
+	public long getMaxNodeId() {
 		return maxNodeId;
 	}
 
-	public void endMap() {
-		processor.endMap();
-	}
-
 	/**
 	 * Receive notification of the start of an element.
 	 */
@@ -128,9 +126,9 @@ class OSMParser extends AbstractXppParser implements MapReader {
 			return;
 		}
 
-		int id = Integer.parseInt(idStr);
-		double lat = Convert.parseDouble(latStr);
-		double lon = Convert.parseDouble(lonStr);
+		long id = Long.parseLong(idStr);
+		int lat = Convert.parseFixedPoint(latStr);
+		int lon = Convert.parseFixedPoint(lonStr);
 
 		if (id < minNodeId) {
 			minNodeId = id;
@@ -144,36 +142,36 @@ class OSMParser extends AbstractXppParser implements MapReader {
 	}
 
 	private void startWay() {
-		processor.startWay(getIntAttr("id"));
+		processor.startWay(getLongAttr("id"));
 		state = State.Way;
 	}
 
 	private void startRelation() {
-		processor.startRelation(getIntAttr("id"));
+		processor.startRelation(getLongAttr("id"));
 		state = State.Relation;
 	}
 
 	private void processNode(CharSequence name) {
 		if (name.equals("tag")) {
-			processor.nodeTag(getAttr("k"), getAttr("v"));
+			processor.nodeTag(dictionary.internKey(getAttr("k")), dictionary.internValue(getAttr("v")));
 		}
 	}
 
 	private void processWay(CharSequence name) {
 		if (name.equals("nd")) {
-			processor.wayNode(getIntAttr("ref"));
+			processor.wayNode(getLongAttr("ref"));
 		} else if (name.equals("tag")) {
-			processor.wayTag(getAttr("k"), getAttr("v"));
+			processor.wayTag(dictionary.internKey(getAttr("k")), dictionary.internValue(getAttr("v")));
 		}
 	}
 
 	private void processRelation(CharSequence name) {
 		if (name.equals("tag")) {
-			processor.relationTag(getAttr("k"), getAttr("v"));
+			processor.relationTag(dictionary.internKey(getAttr("k")), dictionary.internValue(getAttr("v")));
 		} else if (name.equals("member")) {
 			String type = getAttr("type");
-			int id = getIntAttr("ref");
-			String role = getAttr("role");
+			long id = getLongAttr("ref");
+			String role = dictionary.internValue(getAttr("role"));
 			if ("node".equals(type)) {
 				processor.relationNode(id, role);
 			} else if ("way".equals(type)) {
@@ -182,26 +180,47 @@ class OSMParser extends AbstractXppParser implements MapReader {
 		}
 	}
 
-	private static final String[] BOUND_ATTRS = {"minlat", "minlon", "maxlat", "maxlon"};
+	static final String[] BOUND_ATTRS = {"minlat", "minlon", "maxlat", "maxlon"};
 
 	private void processBounds() {
 		String[] split;
 		String boxStr = getAttr("box");
 		if (boxStr == null) {
 			split = new String[4];
-			for (int i = 0; i < BOUND_ATTRS.length; i++) {
+			for (int i = 0; i < BOUND_ATTRS.length; i++)
 				split[i] = getAttr(BOUND_ATTRS[i]);
-				if (split[i] == null) {
-					System.err.println("A <bounds/> tag was found but it has no 'box' attribute and no '" + BOUND_ATTRS[i] + "' attribute. Ignoring bounds");
-					return;
-				}
-			}
 		} else {
 			split = boxStr.split(",");
+		}
+		Area bounds = parseBounds(split, boxStr != null);
+		if (bounds != null) {
+			processor.boundTag(bounds);
+			System.out.println("A <bounds/> tag was found. Area covered is " + bounds.toString());
+		}
+	}
+
+	/**
+	 * Converts the coordinates found in a {@code <bounds/>} tag into an area.
+	 *
+	 * @param split the minlat, minlon, maxlat and maxlon values, either from the
+	 * separate attributes or from splitting up the 'box' attribute.
+	 * @param fromBox {@code true} if the values came from the 'box' attribute.
+	 * @return the area covered by the bounds, or {@code null} if the bounds are
+	 * invalid and should be ignored. The reason is displayed to the user.
+	 */
+	static Area parseBounds(String[] split, boolean fromBox) {
+		if (fromBox) {
 			if (split.length != 4) {
 				System.err.println(
 								"A <bounds/> tag was found but its 'box' attribute contains an unexpected number of coordinates (expected 4, found " + split.length + "). Ignoring bounds");
-				return;
+				return null;
+			}
+		} else {
+			for (int i = 0; i < BOUND_ATTRS.length; i++) {
+				if (split[i] == null) {
+					System.err.println("A <bounds/> tag was found but it has no 'box' attribute and no '" + BOUND_ATTRS[i] + "' attribute. Ignoring bounds");
+					return null;
+				}
 			}
 		}
 		double[] coords = new double[4];
@@ -211,7 +230,7 @@ class OSMParser extends AbstractXppParser implements MapReader {
 				coords[i] = Double.parseDouble(split[i].trim());
 			} catch (NumberFormatException e) {
 				System.err.println("A <bounds/> tag was found but it contains unexpected data. Unable to parse '" + split[i] + "' as a double. Ignoring bounds");
-				return;
+				return null;
 			}
 			mapUnits[i] = Utils.toMapUnit(coords[i]);
 		}
@@ -221,11 +240,9 @@ class OSMParser extends AbstractXppParser implements MapReader {
 			System.out.println("A <bounds/> tag was found but it crosses +/-180 the latitude line (western edge=" +
 							Utils.toDegrees(bounds.getMinLong()) + ", eastern=" + Utils.toDegrees(bounds.getMaxLong()) +
 							"). The splitter isn't currently able to deal with this, so the bounds are being ignored");
-			return;
+			return null;
 		}
-
-		processor.boundTag(bounds);
-		System.out.println("A <bounds/> tag was found. Area covered is " + bounds.toString());
+		return bounds;
 	}
 
 	/**
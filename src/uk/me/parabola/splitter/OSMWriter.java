@@ -12,47 +12,85 @@
  */
 
 package uk.me.parabola.splitter;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.Formatter;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.GZIPOutputStream;
 
-public class OSMWriter {
-	private final Area bounds;
-	private Writer writer;
-	private Area extendedBounds;
+/**
+ * Writes a tile out as gzipped OSM XML.
+ * <p/>
+ * The XML is encoded as UTF-8 straight into a byte buffer. All the fixed
+ * markup is held ready encoded, and numbers are written as ASCII digits
+ * without creating any Strings.
+ */
+public class OSMWriter extends AbstractTileWriter {
+	private static final byte[] NODE_START = toBytes("<node id='");
+	private static final byte[] LAT = toBytes("' lat='");
+	private static final byte[] LON = toBytes("' lon='");
+	private static final byte[] NODE_END = toBytes("</node>\n");
+	private static final byte[] EMPTY_END = toBytes("'/>\n");
+	private static final byte[] WAY_START = toBytes("<way id='");
+	private static final byte[] START_END = toBytes("'>\n");
+	private static final byte[] ND = toBytes("<nd ref='");
+	private static final byte[] WAY_END = toBytes("</way>\n");
+	private static final byte[] RELATION_START = toBytes("<relation id='");
+	private static final byte[] MEMBER = toBytes("<member type='");
+	private static final byte[] REF = toBytes("' ref='");
+	private static final byte[] ROLE = toBytes("' role='");
+	private static final byte[] RELATION_END = toBytes("</relation>\n");
+	private static final byte[] TAG = toBytes("<tag k='");
+	private static final byte[] VALUE = toBytes("' v='");
+	private static final byte[] APOS = toBytes("&apos;");
+	private static final byte[] AMP = toBytes("&amp;");
+	private static final byte[] LT = toBytes("&lt;");
+
+	private OutputStream out;
+	// Compresses the output on several threads if set
+	private final ExecutorService compressor;
+
+	private final TagDictionary dictionary = TagDictionary.getInstance();
+	// The escaped and encoded form of each tag key, indexed by the key's TagDictionary ID
+	private byte[][] escapedKeys = new byte[256][];
 
 	public OSMWriter(Area bounds) {
-		this.bounds = bounds;
+		this(bounds, null);
 	}
 
-	public void initForWrite(int mapId, int extra) {
-		extendedBounds = new Area(bounds.getMinLat() - extra,
-						bounds.getMinLong() - extra,
-						bounds.getMaxLat() + extra,
-						bounds.getMaxLong() + extra);
+	/**
+	 * @param compressor a pool of threads to do the gzip compression on, which may be
+	 * shared with other writers. If {@code null} the compression is done by the
+	 * thread that writes the elements.
+	 */
+	public OSMWriter(Area bounds, ExecutorService compressor) {
+		super(bounds);
+		this.compressor = compressor;
+	}
 
-		String filename = new Formatter().format(Locale.ROOT, "%08d.osm.gz", mapId).toString();
-		try {
-			FileOutputStream fos = new FileOutputStream(filename);
-			OutputStream zos = new GZIPOutputStream(fos);
-			writer = new OutputStreamWriter(zos, "utf-8");
-			writeHeader();
-		} catch (IOException e) {
-			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
-			throw new RuntimeException(e);
-		}
+	@Override
+	protected String getFileExtension() {
+		return ".osm.gz";
+	}
+
+	@Override
+	protected void open(OutputStream stream) throws IOException {
+		out = compress(stream);
+		writeHeader();
+	}
+
+	/**
+	 * Wraps the file in a stream that compresses the XML.
+	 */
+	protected OutputStream compress(OutputStream stream) throws IOException {
+		if (compressor == null)
+			return new GZIPOutputStream(stream);
+		else
+			return new ParallelGzipOutputStream(stream, compressor);
 	}
 
-	private void writeHeader() throws IOException {
+	private void writeHeader() {
 		writeString("<?xml version='1.0' encoding='UTF-8'?>\n");
 		writeString("<osm version='0.5' generator='splitter'>\n");
 
@@ -67,147 +105,254 @@ public class OSMWriter {
 		writeString("'/>\n");
 	}
 
+	@Override
 	public void finishWrite() {
 		try {
 			writeString("</osm>\n");
 			flush();
-			writer.close();
+			out.close();
 		} catch (IOException e) {
 			System.out.println("Could not write end of file: " + e);
 		}
 	}
 
-	public boolean nodeBelongsToThisArea(Node node) {
-		return (extendedBounds.contains(node.getMapLat(), node.getMapLon()));
-	}
-	
+	@Override
 	public void write(Node node) throws IOException {
-		writeString("<node id='");
-		writeInt(node.getId());
-		writeString("' lat='");
-		writeDouble(node.getLat());
-		writeString("' lon='");
-		writeDouble(node.getLon());
+		if (writeFragment(node))
+			return;
+		int start = index;
+		writeBytes(NODE_START);
+		writeLong(node.getId());
+		writeBytes(LAT);
+		writeFixedPoint(node.getLat());
+		writeBytes(LON);
+		writeFixedPoint(node.getLon());
 		if (node.hasTags()) {
-			writeString("'>\n");
+			writeBytes(START_END);
 			writeTags(node);
-			writeString("</node>\n");
+			writeBytes(NODE_END);
 		} else {
-			writeString("'/>\n");
+			writeBytes(EMPTY_END);
 		}
+		endElement(node, start);
 	}
 
+	@Override
 	public void write(Way way) throws IOException {
-		writeString("<way id='");
-		writeInt(way.getId());
-		writeString("'>\n");
-		IntList refs = way.getRefs();
+		if (writeFragment(way))
+			return;
+		int start = index;
+		writeBytes(WAY_START);
+		writeLong(way.getId());
+		writeBytes(START_END);
+		LongList refs = way.getRefs();
 		for (int i = 0; i < refs.size(); i++) {
-			writeString("<nd ref='");
-			writeInt(refs.get(i));
-			writeString("'/>\n");
+			writeBytes(ND);
+			writeLong(refs.get(i));
+			writeBytes(EMPTY_END);
 		}
 		if (way.hasTags())
 			writeTags(way);
-		writeString("</way>\n");
+		writeBytes(WAY_END);
+		endElement(way, start);
 	}
 
+	@Override
 	public void write(Relation rel) throws IOException {
-		writeString("<relation id='");
-		writeInt(rel.getId());
-		writeString("'>\n");
+		if (writeFragment(rel))
+			return;
+		int start = index;
+		writeBytes(RELATION_START);
+		writeLong(rel.getId());
+		writeBytes(START_END);
 		List<Relation.Member> memlist = rel.getMembers();
 		for (Relation.Member m : memlist) {
 			if (m.getType() == null || m.getRef() == 0) {
 				System.err.println("Invalid relation member found in relation " + rel.getId() + ": member type=" + m.getType() + ", ref=" + m.getRef() + ", role=" + m.getRole() + ". Ignoring this member");
 				continue;
 			}
-			writeString("<member type='");
+			writeBytes(MEMBER);
 			writeAttribute(m.getType());
-			writeString("' ref='");
-			writeInt(m.getRef());
-			writeString("' role='");
+			writeBytes(REF);
+			writeLong(m.getRef());
+			writeBytes(ROLE);
 			if (m.getRole() != null) {
 				writeAttribute(m.getRole());
 			}
-			writeString("'/>\n");
+			writeBytes(EMPTY_END);
 		}
 		if (rel.hasTags())
 			writeTags(rel);
-		writeString("</relation>\n");
-	}
-
-	private void writeTags(Element element) throws IOException {
-		Iterator<Map.Entry<String, String>> it = element.tagsIterator();
-		while (it.hasNext()) {
-			Map.Entry<String, String> entry = it.next();
-			writeString("<tag k='");
-			writeAttribute(entry.getKey());
-			writeString("' v='");
-			writeAttribute(entry.getValue());
-			writeString("'/>\n");
+		writeBytes(RELATION_END);
+		endElement(rel, start);
+	}
+
+	/**
+	 * Writes out an element that has already been formatted for another tile.
+	 * @return {@code false} if the element hasn't been formatted yet.
+	 */
+	private boolean writeFragment(Element element) throws IOException {
+		byte[] fragment = element.getFragment();
+		if (fragment == null)
+			return false;
+		writeBytes(fragment);
+		flushIfFull();
+		return true;
+	}
+
+	/**
+	 * Called once an element has been formatted into the buffer, starting at the given
+	 * position. If the element is going to other tiles too, a copy of it is kept for them.
+	 */
+	private void endElement(Element element, int start) throws IOException {
+		if (element.isMultiTile())
+			element.setFragment(Arrays.copyOfRange(buf, start, index));
+		flushIfFull();
+	}
+
+	private void writeTags(Element element) {
+		for (int i = 0; i < element.getTagCount(); i++) {
+			writeBytes(TAG);
+			writeKey(element.getTagKey(i));
+			writeBytes(VALUE);
+			writeAttribute(element.getTagValue(i));
+			writeBytes(EMPTY_END);
 		}
 	}
 
-	private void writeAttribute(String value) throws IOException {
-		for (int i = 0; i < value.length(); i++) {
+	/**
+	 * Writes a tag key. The escaped and encoded form of each key is only worked out once.
+	 */
+	private void writeKey(String key) {
+		int id = dictionary.getKeyId(key);
+		if (id < 0) {
+			writeAttribute(key);
+			return;
+		}
+		if (id >= escapedKeys.length) {
+			byte[][] temp = new byte[Math.max(id + 1, escapedKeys.length * 2)][];
+			System.arraycopy(escapedKeys, 0, temp, 0, escapedKeys.length);
+			escapedKeys = temp;
+		}
+		byte[] escaped = escapedKeys[id];
+		if (escaped == null) {
+			int start = index;
+			writeAttribute(key);
+			escaped = Arrays.copyOfRange(buf, start, index);
+			escapedKeys[id] = escaped;
+		} else {
+			writeBytes(escaped);
+		}
+	}
+
+	/**
+	 * Escapes an attribute value and encodes it as UTF-8.
+	 */
+	private void writeAttribute(String value) {
+		int length = value.length();
+		// Each char takes at most 6 bytes, when it is escaped
+		ensureCapacity(length * 6);
+		for (int i = 0; i < length; i++) {
 			char c = value.charAt(i);
-			switch (c) {
-				case '\'':
-					writeString("&apos;");
-					break;
-				case '&':
-					writeString("&amp;");
-					break;
-				case '<':
-					writeString("&lt;");
-					break;
-				default:
-					writeChar(c);
+			if (c < 0x80) {
+				switch (c) {
+					case '\'':
+						copy(APOS);
+						break;
+					case '&':
+						copy(AMP);
+						break;
+					case '<':
+						copy(LT);
+						break;
+					default:
+						buf[index++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buf[index++] = (byte) (0xc0 | c >> 6);
+				buf[index++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buf[index++] = (byte) (0xf0 | cp >> 18);
+				buf[index++] = (byte) (0x80 | cp >> 12 & 0x3f);
+				buf[index++] = (byte) (0x80 | cp >> 6 & 0x3f);
+				buf[index++] = (byte) (0x80 | cp & 0x3f);
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// An unpaired surrogate can't be encoded
+				buf[index++] = '?';
+			} else {
+				buf[index++] = (byte) (0xe0 | c >> 12);
+				buf[index++] = (byte) (0x80 | c >> 6 & 0x3f);
+				buf[index++] = (byte) (0x80 | c & 0x3f);
 			}
 		}
 	}
 
+	private static byte[] toBytes(String s) {
+		byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (byte) s.charAt(i);
+		return result;
+	}
+
+	// The buffer only gets flushed in between elements, so that each element is
+	// held in one piece. It grows if an element doesn't fit.
+	private static final int FLUSH_SIZE = 8192;
 	private int index;
-	private final char[] charBuf = new char[4096];
+	private byte[] buf = new byte[FLUSH_SIZE * 2];
 
-	private void checkFlush(int i) throws IOException {
-		if (charBuf.length - index < i) {
+	private void ensureCapacity(int i) {
+		if (buf.length - index < i) {
+			byte[] temp = new byte[Math.max(index + i, buf.length * 2)];
+			System.arraycopy(buf, 0, temp, 0, index);
+			buf = temp;
+		}
+	}
+
+	private void flushIfFull() throws IOException {
+		if (index >= FLUSH_SIZE) {
 			flush();
 		}
 	}
 
 	private void flush() throws IOException {
-		writer.write(charBuf, 0, index);
+		out.write(buf, 0, index);
 		index = 0;
 	}
 
-	private void writeString(String value) throws IOException {
-		int start = 0;
-		int end = value.length();
-		int len;
-		while ((len = charBuf.length - index) < end - start) {
-			value.getChars(start, start + len, charBuf, index);
-			start += len;
-			index = charBuf.length;
-			flush();
-		}
-		value.getChars(start, end, charBuf, index);
-		index += end - start;
+	private void writeBytes(byte[] value) {
+		ensureCapacity(value.length);
+		copy(value);
+	}
+
+	/**
+	 * Copies bytes into the buffer, which must already have room for them.
+	 */
+	private void copy(byte[] value) {
+		System.arraycopy(value, 0, buf, index, value.length);
+		index += value.length;
+	}
+
+	/**
+	 * Writes a string that is known to only contain ASCII characters that don't need escaping.
+	 */
+	private void writeString(String value) {
+		ensureCapacity(value.length());
+		for (int i = 0; i < value.length(); i++)
+			buf[index++] = (byte) value.charAt(i);
 	}
 
-	private void writeDouble(double value) throws IOException {
-		checkFlush(22);
+	private void writeDouble(double value) {
 		writeString(Double.toString(value));
 	}
 
-	private void writeInt(int value) throws IOException {
-		checkFlush(11);
-		index += Convert.intToString(value, charBuf, index);
+	private void writeFixedPoint(int value) {
+		ensureCapacity(12);
+		index += Convert.fixedPointToBytes(value, buf, index);
 	}
 
-	private void writeChar(char value) throws IOException {
-		checkFlush(1);
-		charBuf[index++] = value;
+	private void writeLong(long value) {
+		ensureCapacity(20);
+		index += Convert.longToBytes(value, buf, index);
 	}
 }
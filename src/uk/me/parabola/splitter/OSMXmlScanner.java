@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses a UTF-8 encoded OSM file, calling the appropriate methods on a
+ * {@code MapProcessor} as it progresses.
+ * <p/>
+ * This is a much faster alternative to {@link OSMParser}. Rather than being a
+ * general purpose XML parser it works directly on the raw bytes of the file and
+ * only understands the handful of elements that make up an OSM file. Element
+ * and attribute names are never turned into Strings and ids and coordinates are
+ * parsed straight from the buffer, so the only objects created are the tag keys,
+ * values and roles that are handed on to the processor.
+ * <p/>
+ * Files that declare an encoding other than UTF-8 should be handed to the
+ * {@link OSMParser} instead, see {@link #getDeclaredEncoding(InputStream)}.
+ */
+class OSMXmlScanner extends AbstractXmlScanner {
+
+	// How many elements to process before displaying a status update
+	private static final int NODE_STATUS_UPDATE_THRESHOLD = 2500000;
+	private static final int WAY_STATUS_UPDATE_THRESHOLD = 500000;
+	private static final int RELATION_STATUS_UPDATE_THRESHOLD = 50000;
+
+	private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+	private enum State {
+		Node, Way, Relation, None
+	}
+
+	// The elements that we're interested in
+	private static final int OTHER = 0;
+	private static final int NODE = 1;
+	private static final int WAY = 2;
+	private static final int RELATION = 3;
+	private static final int ND = 4;
+	private static final int TAG = 5;
+	private static final int MEMBER = 6;
+	private static final int BOUNDS = 7;
+
+	private static final byte[] NODE_NAME = toBytes("node");
+	private static final byte[] WAY_NAME = toBytes("way");
+	private static final byte[] RELATION_NAME = toBytes("relation");
+	private static final byte[] ND_NAME = toBytes("nd");
+	private static final byte[] TAG_NAME = toBytes("tag");
+	private static final byte[] MEMBER_NAME = toBytes("member");
+	private static final byte[] BOUNDS_NAME = toBytes("bounds");
+	private static final byte[] BOUND_NAME = toBytes("bound");
+
+	private static final byte[] ID_ATTR = toBytes("id");
+	private static final byte[] LAT_ATTR = toBytes("lat");
+	private static final byte[] LON_ATTR = toBytes("lon");
+	private static final byte[] K_ATTR = toBytes("k");
+	private static final byte[] V_ATTR = toBytes("v");
+	private static final byte[] REF_ATTR = toBytes("ref");
+	private static final byte[] TYPE_ATTR = toBytes("type");
+	private static final byte[] ROLE_ATTR = toBytes("role");
+	private static final byte[] ACTION_ATTR = toBytes("action");
+	private static final byte[] DELETE_VALUE = toBytes("delete");
+
+	private final MapProcessor processor;
+
+	// There are mixed nodes and ways in the file
+	private final boolean mixed;
+	private final boolean startNodeOnly;
+
+	private State state = State.None;
+	private long nodeCount;
+	private long wayCount;
+	private long relationCount;
+	private long minNodeId = Long.MAX_VALUE;
+	private long maxNodeId = Long.MIN_VALUE;
+
+	// The most recently seen tag keys and values, so that the common ones can be
+	// found straight from the bytes without creating a new String
+	private static final int RECENT_SIZE = 4096;
+	private static final int MAX_RECENT_LENGTH = 32;
+	private final String[] recentKeys = new String[RECENT_SIZE];
+	private final String[] recentValues = new String[RECENT_SIZE];
+	private final TagDictionary dictionary = TagDictionary.getInstance();
+
+	OSMXmlScanner(MapProcessor processor, boolean mixed) {
+		this(processor, mixed, INITIAL_BUFFER_SIZE);
+	}
+
+	OSMXmlScanner(MapProcessor processor, boolean mixed, int bufferSize) {
+		super(bufferSize);
+		this.processor = processor;
+		this.startNodeOnly = processor.isStartNodeOnly();
+		this.mixed = mixed;
+	}
+
+	@Override
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public long getWayCount() {
+		return wayCount;
+	}
+
+	@Override
+	public long getRelationCount() {
+		return relationCount;
+	}
+
+	@Override
+	public long getMinNodeId() {
+		return minNodeId;
+	}
+
+	@Override
+	public long getMaxNodeId() {
+		return maxNodeId;
+	}
+
+	/**
+	 * Creates a parser for the given processor. If the processor is only
+	 * interested in the node coordinates a {@link NodeCoordinateScanner} is
+	 * used, otherwise a full {@code OSMXmlScanner}.
+	 */
+	static OSMByteParser createParser(MapProcessor processor, boolean mixed) {
+		if (processor.isStartNodeOnly())
+			return new NodeCoordinateScanner(processor, mixed);
+		return new OSMXmlScanner(processor, mixed);
+	}
+
+	/**
+	 * Looks for an encoding in the XML declaration at the start of the stream.
+	 * The stream is reset back to where it was before this method was called.
+	 *
+	 * @param in a stream that supports {@link InputStream#mark(int)}.
+	 * @return the declared encoding, or {@code null} if the file doesn't declare
+	 * one, meaning it is UTF-8.
+	 */
+	static String getDeclaredEncoding(InputStream in) throws IOException {
+		byte[] head = new byte[256];
+		in.mark(head.length);
+		int length = 0;
+		try {
+			int n;
+			while (length < head.length && (n = in.read(head, length, head.length - length)) > 0)
+				length += n;
+		} finally {
+			in.reset();
+		}
+		if (length >= 2 && ((head[0] == (byte) 0xfe && head[1] == (byte) 0xff) || (head[0] == (byte) 0xff && head[1] == (byte) 0xfe)))
+			return "UTF-16";
+
+		String text = new String(head, 0, length, "ISO-8859-1");
+		int start = text.indexOf("<?xml");
+		if (start < 0)
+			return null;
+		int end = text.indexOf("?>", start);
+		if (end < 0)
+			return null;
+		Matcher matcher = ENCODING_PATTERN.matcher(text.substring(start, end));
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * @return {@code true} if a file with the given declared encoding can be read
+	 * by this scanner.
+	 */
+	static boolean isSupportedEncoding(String encoding) {
+		return encoding == null
+						|| encoding.equalsIgnoreCase("UTF-8")
+						|| encoding.equalsIgnoreCase("UTF8")
+						|| encoding.equalsIgnoreCase("US-ASCII")
+						|| encoding.equalsIgnoreCase("ASCII");
+	}
+
+	@Override
+	public void parse(InputStream in) throws IOException {
+		state = State.None;
+		super.parse(in);
+	}
+
+	@Override
+	protected int scanEndTag(int p) throws IOException {
+		p = scanName(p);
+		while (p < limit && buf[p] != '>')
+			p++;
+		if (p >= limit)
+			return -1;
+		endElement(getElement());
+		return p + 1;
+	}
+
+	@Override
+	protected int scanStartTag(int p) throws IOException {
+		p = scanAttributes(scanName(p));
+		if (p < 0)
+			return -1;
+		int element = getElement();
+		startElement(element);
+		if (emptyElement && !done)
+			endElement(element);
+		return p;
+	}
+
+	private int getElement() {
+		switch (nameEnd - nameStart) {
+		case 2:
+			return matches(ND_NAME, nameStart, nameEnd) ? ND : OTHER;
+		case 3:
+			if (matches(TAG_NAME, nameStart, nameEnd))
+				return TAG;
+			return matches(WAY_NAME, nameStart, nameEnd) ? WAY : OTHER;
+		case 4:
+			return matches(NODE_NAME, nameStart, nameEnd) ? NODE : OTHER;
+		case 5:
+			return matches(BOUND_NAME, nameStart, nameEnd) ? BOUNDS : OTHER;
+		case 6:
+			if (matches(MEMBER_NAME, nameStart, nameEnd))
+				return MEMBER;
+			return matches(BOUNDS_NAME, nameStart, nameEnd) ? BOUNDS : OTHER;
+		case 8:
+			return matches(RELATION_NAME, nameStart, nameEnd) ? RELATION : OTHER;
+		default:
+			return OTHER;
+		}
+	}
+
+	private void startElement(int element) throws IOException {
+		switch (state) {
+		case None:
+			int action = findAttr(ACTION_ATTR);
+			if (action >= 0 && valueEquals(action, DELETE_VALUE))
+				return;
+			if (element == NODE) {
+				startNode();
+			} else if (element == WAY) {
+				if (!startNodeOnly)
+					startWay();
+				else if (!mixed)
+					done = true;
+			} else if (element == RELATION) {
+				if (!startNodeOnly)
+					startRelation();
+			} else if (element == BOUNDS) {
+				processBounds();
+			}
+			break;
+		case Node:
+			if (!startNodeOnly && element == TAG)
+				processor.nodeTag(getKeyAttr(), getValueAttr(V_ATTR));
+			break;
+		case Way:
+			if (!startNodeOnly) {
+				if (element == ND) {
+					processor.wayNode(getLongAttr(REF_ATTR));
+				} else if (element == TAG) {
+					processor.wayTag(getKeyAttr(), getValueAttr(V_ATTR));
+				}
+			}
+			break;
+		case Relation:
+			if (!startNodeOnly) {
+				if (element == TAG) {
+					processor.relationTag(getKeyAttr(), getValueAttr(V_ATTR));
+				} else if (element == MEMBER) {
+					processMember();
+				}
+			}
+			break;
+		}
+	}
+
+	private void startNode() throws IOException {
+		int idAttr = findAttr(ID_ATTR);
+		int latAttr = findAttr(LAT_ATTR);
+		int lonAttr = findAttr(LON_ATTR);
+
+		if (idAttr < 0 || latAttr < 0 || lonAttr < 0) {
+			// This should never happen - bad/corrupt .osm file?
+			System.err.println("Node encountered with missing data. Bad/corrupt osm file? id=" + getAttr(ID_ATTR) + ", lat=" + getAttr(LAT_ATTR) +
+							", lon=" + getAttr(LON_ATTR) + ". Ignoring this node");
+			return;
+		}
+
+		long id = getLongAttr(ID_ATTR);
+		int lat = getFixedPointAttr(latAttr);
+		int lon = getFixedPointAttr(lonAttr);
+
+		if (id < minNodeId) {
+			minNodeId = id;
+		}
+		if (id > maxNodeId) {
+			maxNodeId = id;
+		}
+
+		processor.startNode(id, lat, lon);
+		state = State.Node;
+	}
+
+	private void startWay() throws IOException {
+		processor.startWay(getLongAttr(ID_ATTR));
+		state = State.Way;
+	}
+
+	private void startRelation() throws IOException {
+		processor.startRelation(getLongAttr(ID_ATTR));
+		state = State.Relation;
+	}
+
+	private void processMember() throws IOException {
+		int type = findAttr(TYPE_ATTR);
+		long id = getLongAttr(REF_ATTR);
+		if (type < 0)
+			return;
+		if (valueEquals(type, NODE_NAME)) {
+			processor.relationNode(id, getValueAttr(ROLE_ATTR));
+		} else if (valueEquals(type, WAY_NAME)) {
+			processor.relationWay(id, getValueAttr(ROLE_ATTR));
+		}
+	}
+
+	private void processBounds() throws IOException {
+		Area bounds = getBoundsAttrs();
+		if (bounds != null) {
+			processor.boundTag(bounds);
+			System.out.println("A <bounds/> tag was found. Area covered is " + bounds.toString());
+		}
+	}
+
+	private void endElement(int element) {
+		if (state == State.Node) {
+			if (element == NODE) {
+				if (!startNodeOnly)
+					processor.endNode();
+				state = State.None;
+				nodeCount++;
+				if (nodeCount % NODE_STATUS_UPDATE_THRESHOLD == 0) {
+					System.out.println(Utils.format(nodeCount) + " nodes processed...");
+				}
+			}
+		} else if (state == State.Way) {
+			if (element == WAY) {
+				if (!startNodeOnly)
+					processor.endWay();
+				state = State.None;
+				wayCount++;
+				if (wayCount % WAY_STATUS_UPDATE_THRESHOLD == 0) {
+					System.out.println(Utils.format(wayCount) + " ways processed...");
+				}
+			}
+		} else if (state == State.Relation) {
+			if (element == RELATION) {
+				if (!startNodeOnly)
+					processor.endRelation();
+				state = State.None;
+				relationCount++;
+				if (relationCount % RELATION_STATUS_UPDATE_THRESHOLD == 0) {
+					System.out.println(Utils.format(relationCount) + " relations processed...");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the tag key, shared with the {@link TagDictionary}.
+	 */
+	private String getKeyAttr() throws IOException {
+		int i = findAttr(K_ATTR);
+		if (i < 0)
+			return null;
+		int slot = findRecent(recentKeys, i);
+		if (slot < 0)
+			return dictionary.internKey(decode(i));
+		String key = recentKeys[slot];
+		if (key == null || !matches(key, i)) {
+			key = dictionary.internKey(decode(i));
+			recentKeys[slot] = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return a tag value or role, shared with the {@link TagDictionary} if it is a common one.
+	 */
+	private String getValueAttr(byte[] name) throws IOException {
+		int i = findAttr(name);
+		if (i < 0)
+			return null;
+		int slot = findRecent(recentValues, i);
+		if (slot < 0)
+			return dictionary.internValue(decode(i));
+		String value = recentValues[slot];
+		if (value == null || !matches(value, i)) {
+			value = dictionary.internValue(decode(i));
+			recentValues[slot] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the slot in the recent strings where the value of the given
+	 * attribute would be found, or -1 if the value can't be looked up directly.
+	 */
+	private int findRecent(String[] recent, int attr) {
+		int start = attrValueStart[attr];
+		int end = attrValueEnd[attr];
+		if (!attrValueSimple[attr] || end - start > MAX_RECENT_LENGTH)
+			return -1;
+		int hash = 0;
+		for (int p = start; p < end; p++)
+			hash = 31 * hash + buf[p];
+		return (hash ^ (hash >>> 12)) & (recent.length - 1);
+	}
+
+	/**
+	 * @return {@code true} if the given string is the same as the (simple) value of the attribute.
+	 */
+	private boolean matches(String s, int attr) {
+		int start = attrValueStart[attr];
+		int length = attrValueEnd[attr] - start;
+		if (s.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != buf[start + i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.nio.IntBuffer;
+
+/**
+ * An int/int map for keys that are close to dense, such as OSM node ids.
+ * <p/>
+ * The values are held in fixed size pages that are indexed directly by the
+ * key, so a lookup is just a couple of array accesses and each entry only
+ * takes up the four bytes of its value. The keys are longs, but the page
+ * number, ie all but the low 12 bits of the key, must fit into an int. A page is only allocated when the first
+ * value in its range of keys is stored, so gaps in the keys cost very little.
+ * The pages come from a {@link MapStorage}, so they can be held outside of
+ * the Java heap if required.
+ * <p/>
+ * As with {@link SplitIntMap}, 0 is returned for keys that have no value.
+ */
+public class PagedIntMap {
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final MapStorage storage;
+
+	// The pages for keys >= 0, and the pages for negative keys indexed by
+	// the complement of the page number.
+	private IntBuffer[] pages = new IntBuffer[1024];
+	private IntBuffer[] negativePages = new IntBuffer[1];
+
+	private int size;
+	private int pageCount;
+
+	public PagedIntMap() {
+		this(MapStorage.HEAP);
+	}
+
+	/**
+	 * @param storage Where to hold the pages.
+	 */
+	public PagedIntMap(MapStorage storage) {
+		this.storage = storage;
+	}
+
+	public void put(long key, int value) {
+		IntBuffer page = getPage(key, true);
+		int offset = (int) key & PAGE_MASK;
+		int old = page.get(offset);
+		if (old == 0 && value != 0)
+			size++;
+		else if (old != 0 && value == 0)
+			size--;
+		page.put(offset, value);
+	}
+
+	public int get(long key) {
+		IntBuffer page = getPage(key, false);
+		return page == null ? 0 : page.get((int) key & PAGE_MASK);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes taken up by the values, whether on or off the heap.
+	 */
+	public long getMemoryUsed() {
+		return (long) pageCount * PAGE_SIZE * 4;
+	}
+
+	private IntBuffer getPage(long key, boolean create) {
+		long longPageNumber = key >> PAGE_BITS;
+		if (longPageNumber != (int) longPageNumber)
+			throw new IllegalArgumentException("The key " + key + " is too large for a PagedIntMap");
+		int pageNumber = (int) longPageNumber;
+		if (pageNumber >= 0) {
+			if (pageNumber >= pages.length) {
+				if (!create)
+					return null;
+				pages = grow(pages, pageNumber);
+			}
+			IntBuffer page = pages[pageNumber];
+			if (page == null && create) {
+				page = newPage();
+				pages[pageNumber] = page;
+			}
+			return page;
+		} else {
+			int index = ~pageNumber;
+			if (index >= negativePages.length) {
+				if (!create)
+					return null;
+				negativePages = grow(negativePages, index);
+			}
+			IntBuffer page = negativePages[index];
+			if (page == null && create) {
+				page = newPage();
+				negativePages[index] = page;
+			}
+			return page;
+		}
+	}
+
+	private static IntBuffer[] grow(IntBuffer[] array, int index) {
+		IntBuffer[] result = new IntBuffer[Math.max(index + 1, array.length * 2)];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private IntBuffer newPage() {
+		pageCount++;
+		return storage.allocate(PAGE_SIZE);
+	}
+}
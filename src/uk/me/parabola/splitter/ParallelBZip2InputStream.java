@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+/**
+ * Decompresses a bzip2 stream using several threads.
+ * <p/>
+ * The blocks in a bzip2 file are compressed independently of each other, but
+ * they aren't byte aligned and there is no index of where they start. A
+ * background thread scans the compressed data for the 48 bit magic number that
+ * starts each block. Each block is then wrapped up as a standalone, single block
+ * bzip2 stream and handed to a pool of threads that decompress them with
+ * {@link CBZip2InputStream}. The decompressed blocks are returned from this
+ * stream in their original order.
+ * <p/>
+ * The magic number can also occur by chance in the middle of a block. When that
+ * happens the two halves fail to decompress (or fail their CRC check), so the
+ * piece is joined up with the following one and decompressed again.
+ * <p/>
+ * Unlike {@link CBZip2InputStream}, this class expects to read the complete
+ * stream header, including the initial "BZ". Files made up of several
+ * concatenated bzip2 streams, such as those produced by pbzip2, are also
+ * supported, even if the streams were compressed with different block sizes.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = 0xffffffffffffL;
+	private static final int MAGIC_BITS = 48;
+	private static final int READ_SIZE = 256 * 1024;
+
+	private static final Block END_MARKER = new Block(new byte[0], 0, 0, true, 0);
+
+	private final InputStream source;
+	// The block size given in the header of the first stream
+	private final int firstBlockSize100k;
+	private final ExecutorService decoders;
+	private final BlockingQueue<Future<Block>> queue;
+	private final Thread scannerThread;
+	private volatile boolean closed;
+
+	// These variables are only accessed from the reading thread
+	private byte[] current;
+	private int currentIndex;
+	private int currentLength;
+	private boolean eof;
+
+	/**
+	 * @param source the compressed data, starting with the "BZh" header.
+	 * @param threads the number of threads to use for decompression.
+	 * @throws IOException if the stream doesn't start with a valid bzip2 header.
+	 */
+	public ParallelBZip2InputStream(InputStream source, int threads) throws IOException {
+		this.source = source;
+		if (source.read() != 'B' || source.read() != 'Z' || source.read() != 'h')
+			throw new IOException("Stream is not BZip2 formatted: the 'BZh' signature is missing");
+		int blockSize = source.read();
+		if (blockSize < '1' || blockSize > '9')
+			throw new IOException("Stream is not BZip2 formatted: illegal blocksize " + (char) blockSize);
+		firstBlockSize100k = blockSize - '0';
+
+		decoders = Executors.newFixedThreadPool(threads, new NamedThreadFactory("bzip2-decoder-"));
+		// Enough blocks in flight to keep all the threads busy, while
+		// still putting a limit on the memory that's used
+		queue = new ArrayBlockingQueue<Future<Block>>(threads * 2);
+		scannerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				scan();
+			}
+		}, "bzip2-scanner");
+		scannerThread.setDaemon(true);
+		scannerThread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureBlock())
+			return -1;
+		return current[currentIndex++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!ensureBlock())
+			return -1;
+		int count = Math.min(len, currentLength - currentIndex);
+		System.arraycopy(current, currentIndex, b, off, count);
+		currentIndex += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current == null ? 0 : currentLength - currentIndex;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		scannerThread.interrupt();
+		decoders.shutdownNow();
+		source.close();
+	}
+
+	/**
+	 * Makes sure there is some decompressed data available in {@code current}.
+	 * @return {@code false} if the end of the stream has been reached.
+	 */
+	private boolean ensureBlock() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		while (current == null || currentIndex == currentLength) {
+			if (eof)
+				return false;
+			Block block = take();
+			if (block == END_MARKER) {
+				eof = true;
+				return false;
+			}
+			while (block.error != null) {
+				// Probably a false match on the block magic, so try again with the next piece added on
+				Block next = take();
+				if (next == END_MARKER)
+					throw new IOException("Unable to decompress bzip2 data", block.error);
+				block = block.append(next);
+				block.call();
+			}
+			current = block.output;
+			currentIndex = 0;
+			currentLength = block.outputLength;
+		}
+		return true;
+	}
+
+	private Block take() throws IOException {
+		try {
+			return queue.take().get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for a bzip2 block to be decompressed", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to decompress bzip2 data", e.getCause());
+		}
+	}
+
+	/**
+	 * Runs on the scanner thread. Reads the compressed data, splits it up into
+	 * blocks and passes them on to the decoders.
+	 */
+	private void scan() {
+		try {
+			byte[] buf = new byte[READ_SIZE * 2];
+			int length = 0;
+			int scanned = 0;
+			// The bit index of the start of the current piece of data, or -1 before the first block
+			int pieceStart = -1;
+			boolean pieceIsGap = false;
+			// The block size of the stream that is currently being scanned
+			int blockSize100k = firstBlockSize100k;
+			long bits = 0;
+
+			while (true) {
+				if (buf.length - length < READ_SIZE) {
+					// Throw away what has been passed on to the decoders, but keep
+					// enough to be able to find a magic number that spans two reads
+					int discard = length - MAGIC_BITS / 8;
+					if (pieceStart >= 0)
+						discard = Math.min(discard, pieceStart >>> 3);
+					if (discard > 0) {
+						System.arraycopy(buf, discard, buf, 0, length - discard);
+						length -= discard;
+						scanned -= discard;
+						if (pieceStart >= 0)
+							pieceStart -= discard * 8;
+					}
+					if (buf.length - length < READ_SIZE) {
+						byte[] temp = new byte[buf.length * 2];
+						System.arraycopy(buf, 0, temp, 0, length);
+						buf = temp;
+					}
+				}
+				int n = source.read(buf, length, READ_SIZE);
+				if (n < 0)
+					break;
+				length += n;
+
+				for (; scanned < length; scanned++) {
+					bits = (bits << 8) | (buf[scanned] & 0xff);
+					for (int shift = 7; shift >= 0; shift--) {
+						long candidate = (bits >>> shift) & MAGIC_MASK;
+						if (candidate != BLOCK_MAGIC && candidate != EOS_MAGIC)
+							continue;
+						int magicStart = (scanned + 1) * 8 - shift - MAGIC_BITS;
+						if (magicStart < 0)
+							continue;
+						if (pieceStart >= 0)
+							submit(buf, pieceStart, magicStart, pieceIsGap, blockSize100k);
+						if (pieceIsGap && candidate == BLOCK_MAGIC) {
+							// The first block of the next stream, which may have a different block size
+							blockSize100k = getStreamBlockSize(buf, magicStart, blockSize100k);
+						}
+						pieceStart = magicStart;
+						// Anything after an end of stream marker is just padding and the
+						// header of the next stream, but it is kept in case the marker
+						// turns out to be a false match
+						pieceIsGap = candidate == EOS_MAGIC;
+					}
+				}
+			}
+			if (pieceStart >= 0 && !pieceIsGap) {
+				// The file is truncated. This will fail to decode, giving a suitable error
+				submit(buf, pieceStart, length * 8, false, blockSize100k);
+			}
+			queue.put(completed(END_MARKER));
+		} catch (final IOException e) {
+			// Pass the exception on to the reading thread
+			FutureTask<Block> failed = new FutureTask<Block>(new Callable<Block>() {
+				@Override
+				public Block call() throws IOException {
+					throw e;
+				}
+			});
+			failed.run();
+			try {
+				queue.put(failed);
+			} catch (InterruptedException e1) {
+				// The stream has been closed
+			}
+		} catch (InterruptedException e) {
+			// The stream has been closed
+		}
+	}
+
+	/**
+	 * Looks for a stream header in the four bytes before the given block magic.
+	 *
+	 * @return the block size from the header, or {@code current} if there isn't
+	 * a header there, such as when the end of stream marker was a false match.
+	 */
+	private static int getStreamBlockSize(byte[] buf, int magicStart, int current) {
+		// The header is byte aligned and the first block follows straight on from it
+		int p = magicStart >>> 3;
+		if ((magicStart & 7) != 0 || p < 4)
+			return current;
+		if (buf[p - 4] != 'B' || buf[p - 3] != 'Z' || buf[p - 2] != 'h' || buf[p - 1] < '1' || buf[p - 1] > '9')
+			return current;
+		return buf[p - 1] - '0';
+	}
+
+	private void submit(byte[] buf, int startBit, int endBit, boolean gap, int blockSize100k) throws InterruptedException {
+		int first = startBit >>> 3;
+		int last = (endBit + 7) >>> 3;
+		byte[] data = new byte[last - first];
+		System.arraycopy(buf, first, data, 0, data.length);
+		Block block = new Block(data, startBit & 7, endBit - startBit, gap, blockSize100k);
+		if (gap) {
+			queue.put(completed(block));
+		} else {
+			try {
+				queue.put(decoders.submit(block));
+			} catch (IllegalStateException e) {
+				// The executor has been shut down because the stream was closed
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	private static Future<Block> completed(Block block) {
+		FutureTask<Block> task = new FutureTask<Block>(block);
+		task.run();
+		return task;
+	}
+
+	/**
+	 * A piece of compressed data, starting with a block or end of stream
+	 * magic number, and the result of decompressing it.
+	 */
+	private static class Block implements Callable<Block> {
+		private final byte[] data;
+		private final int bitOffset;
+		private final int bitLength;
+		// True if this piece starts with an end of stream marker
+		private final boolean gap;
+		private final int blockSize100k;
+
+		private byte[] output;
+		private int outputLength;
+		private IOException error;
+
+		Block(byte[] data, int bitOffset, int bitLength, boolean gap, int blockSize100k) {
+			this.data = data;
+			this.bitOffset = bitOffset;
+			this.bitLength = bitLength;
+			this.gap = gap;
+			this.blockSize100k = blockSize100k;
+		}
+
+		/**
+		 * Joins the following piece of data on to the end of this one.
+		 */
+		Block append(Block next) {
+			int keep = (bitOffset + bitLength) >>> 3;
+			byte[] joined = new byte[keep + next.data.length];
+			System.arraycopy(data, 0, joined, 0, keep);
+			System.arraycopy(next.data, 0, joined, keep, next.data.length);
+			return new Block(joined, bitOffset, bitLength + next.bitLength, gap, blockSize100k);
+		}
+
+		@Override
+		public Block call() {
+			output = new byte[0];
+			outputLength = 0;
+			error = null;
+			if (gap)
+				return this;
+			try {
+				decode();
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				// Corrupt data can cause all sorts of problems in the decoder
+				error = new IOException("Corrupt bzip2 block", e);
+			}
+			return this;
+		}
+
+		/**
+		 * Turns the block into a complete bzip2 stream and decompresses it.
+		 */
+		private void decode() throws IOException {
+			// The header (minus the "BZ" that CBZip2InputStream doesn't want), the
+			// block, and then the end of stream marker with the CRC of the whole
+			// stream. As there's only one block the stream CRC is the same as the
+			// block CRC, which comes straight after the block magic.
+			int streamBits = 16 + bitLength + MAGIC_BITS + 32;
+			byte[] stream = new byte[(streamBits + 7) >>> 3];
+			stream[0] = 'h';
+			stream[1] = (byte) ('0' + blockSize100k);
+			copyBits(data, bitOffset, stream, 16, bitLength);
+			writeBits(stream, 16 + bitLength, EOS_MAGIC, MAGIC_BITS);
+			writeBits(stream, 16 + bitLength + MAGIC_BITS, readBits(data, bitOffset + MAGIC_BITS, 32), 32);
+
+			CBZip2InputStream in = new CBZip2InputStream(new ByteArrayInputStream(stream), true);
+			output = new byte[Math.max(bitLength >>> 1, 4096)];
+			int n;
+			while ((n = in.read(output, outputLength, output.length - outputLength)) > 0) {
+				outputLength += n;
+				if (outputLength == output.length) {
+					byte[] temp = new byte[output.length * 2];
+					System.arraycopy(output, 0, temp, 0, outputLength);
+					output = temp;
+				}
+			}
+		}
+
+		/**
+		 * Copies bits from one array to another. The destination must start on a byte boundary.
+		 */
+		private static void copyBits(byte[] src, int srcBit, byte[] dest, int destBit, int count) {
+			int shift = srcBit & 7;
+			int s = srcBit >>> 3;
+			int d = destBit >>> 3;
+			int bytes = count >>> 3;
+			if (shift == 0) {
+				System.arraycopy(src, s, dest, d, bytes);
+			} else {
+				for (int i = 0; i < bytes; i++)
+					dest[d + i] = (byte) ((src[s + i] << shift) | ((src[s + i + 1] & 0xff) >>> (8 - shift)));
+			}
+			int done = bytes * 8;
+			if (done < count)
+				writeBits(dest, destBit + done, readBits(src, srcBit + done, count - done), count - done);
+		}
+
+		private static long readBits(byte[] buf, int bit, int count) {
+			long value = 0;
+			for (int i = 0; i < count; i++, bit++)
+				value = (value << 1) | ((buf[bit >>> 3] >>> (7 - (bit & 7))) & 1);
+			return value;
+		}
+
+		private static void writeBits(byte[] buf, int bit, long value, int count) {
+			for (int i = count - 1; i >= 0; i--, bit++) {
+				if (((value >>> i) & 1) != 0)
+					buf[bit >>> 3] |= 0x80 >>> (bit & 7);
+			}
+		}
+	}
+}
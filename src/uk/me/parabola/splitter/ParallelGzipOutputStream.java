@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses data using a pool of threads, in the style of pigz.
+ * <p/>
+ * The data is cut up into fixed size blocks, and each block is compressed
+ * into a complete gzip member on the pool. The members are written out in
+ * order, giving a standard multi-member gzip file that can be read with
+ * {@link java.util.zip.GZIPInputStream} or any other gzip tool.
+ * <p/>
+ * The pool can be shared between many streams, so that the compression of
+ * all the files being written at once is spread across all the threads.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+	private static final int BLOCK_SIZE = 128 * 1024;
+	// The number of blocks each stream can have waiting to be compressed or written,
+	// which puts a limit on the memory used by each stream.
+	private static final int MAX_PENDING = 4;
+
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int count;
+	private boolean closed;
+
+	ParallelGzipOutputStream(OutputStream out, ExecutorService pool) {
+		this.out = out;
+		this.pool = pool;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == block.length)
+			submitBlock();
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == block.length)
+				submitBlock();
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compresses and writes out everything that has been written so far.
+	 */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		while (!pending.isEmpty())
+			writeMember(pending.removeFirst());
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		if (count == 0)
+			return;
+		final byte[] data = block;
+		final int length = count;
+		pending.add(pool.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return compress(data, length);
+			}
+		}));
+		block = new byte[BLOCK_SIZE];
+		count = 0;
+		while (pending.size() > MAX_PENDING)
+			writeMember(pending.removeFirst());
+	}
+
+	/**
+	 * Compresses a block into a complete gzip member, with its own header and trailer.
+	 */
+	private static byte[] compress(byte[] data, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 3 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes, 8192);
+		gzip.write(data, 0, length);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+	private void writeMember(Future<byte[]> future) throws IOException {
+		try {
+			out.write(future.get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for a block to be compressed", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Failed to compress a block", e.getCause());
+		}
+	}
+}
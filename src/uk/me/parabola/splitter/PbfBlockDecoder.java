@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes a single blob from an OSM PBF file, recording the elements that it
+ * contains in a {@link MapEventBuffer}. Each blob is self contained so several
+ * of these can run at once on different threads.
+ */
+class PbfBlockDecoder implements Callable<MapEventBuffer> {
+
+	private static final String[] SUPPORTED_FEATURES = {"OsmSchema-V0.6", "DenseNodes"};
+	private static final double NANO = 1000000000d;
+
+	private final String type;
+	private final byte[] blob;
+	private final boolean startNodeOnly;
+	private boolean waysOrRelations;
+
+	// Per-block state, set while decoding an OSMData block
+	private String[] strings;
+	// The strings from the table shared with the TagDictionary, filled in as they are used
+	private String[] sharedKeys;
+	private String[] sharedValues;
+	private int granularity = 100;
+	private long latOffset;
+	private long lonOffset;
+
+	private final LongList ids = new LongList(8000);
+	private final LongList lats = new LongList(8000);
+	private final LongList lons = new LongList(8000);
+	private final IntList keys = new IntList(100);
+	private final IntList vals = new IntList(100);
+	private final IntList roles = new IntList(100);
+	private final IntList types = new IntList(100);
+
+	PbfBlockDecoder(String type, byte[] blob, boolean startNodeOnly) {
+		this.type = type;
+		this.blob = blob;
+		this.startNodeOnly = startNodeOnly;
+	}
+
+	@Override
+	public MapEventBuffer call() throws IOException {
+		MapEventBuffer buffer = new MapEventBuffer(startNodeOnly);
+		if ("OSMData".equals(type)) {
+			decodePrimitiveBlock(unpackBlob(), buffer);
+		} else if ("OSMHeader".equals(type)) {
+			decodeHeaderBlock(unpackBlob(), buffer);
+		}
+		// Any other blob types are unknown to us and must be skipped
+		return buffer;
+	}
+
+	/**
+	 * @return {@code true} if the blob that has been decoded contains any ways
+	 * or relations, even if they weren't passed on because only the nodes are
+	 * wanted.
+	 */
+	public boolean hasWaysOrRelations() {
+		return waysOrRelations;
+	}
+
+	private byte[] unpackBlob() throws IOException {
+		ProtobufInput in = new ProtobufInput(blob, 0, blob.length);
+		int rawSize = -1;
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				return readBytes(in);
+			case 2:
+				rawSize = in.readRawVarint32();
+				break;
+			case 3:
+				if (rawSize < 0)
+					throw new IOException("Found zlib compressed data in a PBF blob that has no raw_size");
+				return inflate(in, rawSize);
+			case 4:
+				throw new IOException("LZMA compressed PBF blobs are not supported");
+			default:
+				in.skipField(tag);
+			}
+		}
+		throw new IOException("The PBF blob does not contain any data");
+	}
+
+	private static byte[] readBytes(ProtobufInput in) throws IOException {
+		int length = in.readLength();
+		byte[] result = new byte[length];
+		System.arraycopy(in.getBuffer(), in.getPosition(), result, 0, length);
+		in.skip(length);
+		return result;
+	}
+
+	private static byte[] inflate(ProtobufInput in, int rawSize) throws IOException {
+		int length = in.readLength();
+		byte[] result = new byte[rawSize];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in.getBuffer(), in.getPosition(), length);
+			int size = inflater.inflate(result);
+			if (size != rawSize || !inflater.finished())
+				throw new IOException("Unable to inflate PBF blob, expected " + rawSize + " bytes but found " + size);
+		} catch (DataFormatException e) {
+			throw new IOException("Unable to inflate PBF blob", e);
+		} finally {
+			inflater.end();
+		}
+		in.skip(length);
+		return result;
+	}
+
+	private void decodeHeaderBlock(byte[] data, MapProcessor processor) throws IOException {
+		ProtobufInput in = new ProtobufInput(data, 0, data.length);
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				int old = in.pushLimit(in.readLength());
+				decodeBBox(in, processor);
+				in.popLimit(old);
+				break;
+			case 4:
+				String feature = in.readString();
+				if (!isSupported(feature))
+					throw new IOException("The PBF file requires the feature '" + feature + "' which is not supported");
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+	}
+
+	private static boolean isSupported(String feature) {
+		for (String supported : SUPPORTED_FEATURES) {
+			if (supported.equals(feature))
+				return true;
+		}
+		return false;
+	}
+
+	private static void decodeBBox(ProtobufInput in, MapProcessor processor) throws IOException {
+		long left = 0, right = 0, top = 0, bottom = 0;
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				left = in.readSInt64();
+				break;
+			case 2:
+				right = in.readSInt64();
+				break;
+			case 3:
+				top = in.readSInt64();
+				break;
+			case 4:
+				bottom = in.readSInt64();
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		Area bounds = new Area(Utils.toMapUnit(bottom / NANO),
+						Utils.toMapUnit(left / NANO),
+						Utils.toMapUnit(top / NANO),
+						Utils.toMapUnit(right / NANO));
+		if (bounds.getMinLong() > bounds.getMaxLong()) {
+			System.out.println("A PBF bounding box was found but it crosses the +/-180 longitude line. The splitter isn't currently able to deal with this, so the bounds are being ignored");
+			return;
+		}
+		processor.boundTag(bounds);
+		System.out.println("A PBF bounding box was found. Area covered is " + bounds.toString());
+	}
+
+	private void decodePrimitiveBlock(byte[] data, MapProcessor processor) throws IOException {
+		// The granularity and offsets follow the primitive groups in the encoded
+		// block, so we have to find them all before decoding any of the groups.
+		IntList groups = new IntList();
+		ProtobufInput in = new ProtobufInput(data, 0, data.length);
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				if (startNodeOnly) {
+					// None of the strings are needed if we're only interested in the node coordinates
+					in.skipField(tag);
+				} else {
+					int old = in.pushLimit(in.readLength());
+					decodeStringTable(in);
+					in.popLimit(old);
+				}
+				break;
+			case 2:
+				int length = in.readLength();
+				groups.add(in.getPosition());
+				groups.add(length);
+				in.skip(length);
+				break;
+			case 17:
+				granularity = in.readRawVarint32();
+				break;
+			case 19:
+				latOffset = in.readRawVarint64();
+				break;
+			case 20:
+				lonOffset = in.readRawVarint64();
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		if (strings == null && !startNodeOnly)
+			throw new IOException("Found a PBF data block without a string table");
+
+		for (int i = 0; i < groups.size(); i += 2) {
+			decodePrimitiveGroup(new ProtobufInput(data, groups.get(i), groups.get(i + 1)), processor);
+		}
+	}
+
+	private void decodeStringTable(ProtobufInput in) throws IOException {
+		int count = 0;
+		String[] result = new String[256];
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			if (ProtobufInput.getFieldNumber(tag) == 1) {
+				if (count == result.length) {
+					String[] temp = new String[count * 2];
+					System.arraycopy(result, 0, temp, 0, count);
+					result = temp;
+				}
+				result[count++] = in.readString();
+			} else {
+				in.skipField(tag);
+			}
+		}
+		strings = result;
+		sharedKeys = new String[count];
+		sharedValues = new String[count];
+	}
+
+	private void decodePrimitiveGroup(ProtobufInput in, MapProcessor processor) throws IOException {
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			int field = ProtobufInput.getFieldNumber(tag);
+			if (field == 3 || field == 4)
+				waysOrRelations = true;
+			if (field == 1 || field == 2 || (!startNodeOnly && (field == 3 || field == 4))) {
+				int old = in.pushLimit(in.readLength());
+				switch (field) {
+				case 1:
+					decodeNode(in, processor);
+					break;
+				case 2:
+					decodeDenseNodes(in, processor);
+					break;
+				case 3:
+					decodeWay(in, processor);
+					break;
+				case 4:
+					decodeRelation(in, processor);
+					break;
+				}
+				in.popLimit(old);
+			} else {
+				in.skipField(tag);
+			}
+		}
+	}
+
+	/**
+	 * Converts a coordinate into units of 10^-7 degrees. With the default
+	 * granularity of 100 nanodegrees no rounding is needed.
+	 */
+	private int toFixedPoint(long value, long offset) {
+		long nano = offset + (long) granularity * value;
+		return (int) (nano >= 0 ? (nano + 50) / 100 : (nano - 50) / 100);
+	}
+
+	private void decodeNode(ProtobufInput in, MapProcessor processor) throws IOException {
+		long id = 0, lat = 0, lon = 0;
+		keys.clear();
+		vals.clear();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				id = in.readSInt64();
+				break;
+			case 2:
+				in.readInts(tag, keys);
+				break;
+			case 3:
+				in.readInts(tag, vals);
+				break;
+			case 8:
+				lat = in.readSInt64();
+				break;
+			case 9:
+				lon = in.readSInt64();
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		processor.startNode(id, toFixedPoint(lat, latOffset), toFixedPoint(lon, lonOffset));
+		if (!startNodeOnly) {
+			for (int i = 0; i < keys.size(); i++) {
+				processor.nodeTag(getKey(keys.get(i)), getValue(vals.get(i)));
+			}
+			processor.endNode();
+		}
+	}
+
+	private void decodeDenseNodes(ProtobufInput in, MapProcessor processor) throws IOException {
+		ids.clear();
+		lats.clear();
+		lons.clear();
+		keys.clear();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				in.readDeltaSInt64s(tag, ids);
+				break;
+			case 8:
+				in.readDeltaSInt64s(tag, lats);
+				break;
+			case 9:
+				in.readDeltaSInt64s(tag, lons);
+				break;
+			case 10:
+				if (startNodeOnly)
+					in.skipField(tag);
+				else
+					in.readInts(tag, keys);
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		if (lats.size() != ids.size() || lons.size() != ids.size())
+			throw new IOException("Found dense nodes with " + ids.size() + " ids but " + lats.size() + " latitudes and " + lons.size() + " longitudes");
+
+		int kv = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			processor.startNode(ids.get(i), toFixedPoint(lats.get(i), latOffset), toFixedPoint(lons.get(i), lonOffset));
+			if (!startNodeOnly) {
+				// The keys and values are interleaved, with a 0 marking the end of each node's tags
+				int key;
+				while (kv < keys.size() && (key = keys.get(kv++)) != 0) {
+					processor.nodeTag(getKey(key), getValue(keys.get(kv++)));
+				}
+				processor.endNode();
+			}
+		}
+	}
+
+	private void decodeWay(ProtobufInput in, MapProcessor processor) throws IOException {
+		long id = 0;
+		keys.clear();
+		vals.clear();
+		ids.clear();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				id = in.readRawVarint64();
+				break;
+			case 2:
+				in.readInts(tag, keys);
+				break;
+			case 3:
+				in.readInts(tag, vals);
+				break;
+			case 8:
+				in.readDeltaSInt64s(tag, ids);
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		processor.startWay(id);
+		for (int i = 0; i < ids.size(); i++) {
+			processor.wayNode(ids.get(i));
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			processor.wayTag(getKey(keys.get(i)), getValue(vals.get(i)));
+		}
+		processor.endWay();
+	}
+
+	private void decodeRelation(ProtobufInput in, MapProcessor processor) throws IOException {
+		long id = 0;
+		keys.clear();
+		vals.clear();
+		roles.clear();
+		ids.clear();
+		types.clear();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				id = in.readRawVarint64();
+				break;
+			case 2:
+				in.readInts(tag, keys);
+				break;
+			case 3:
+				in.readInts(tag, vals);
+				break;
+			case 8:
+				in.readInts(tag, roles);
+				break;
+			case 9:
+				in.readDeltaSInt64s(tag, ids);
+				break;
+			case 10:
+				in.readInts(tag, types);
+				break;
+			default:
+				in.skipField(tag);
+			}
+		}
+		processor.startRelation(id);
+		for (int i = 0; i < ids.size(); i++) {
+			// 0 = node, 1 = way, 2 = relation. Relation members are not supported.
+			switch (types.get(i)) {
+			case 0:
+				processor.relationNode(ids.get(i), getValue(roles.get(i)));
+				break;
+			case 1:
+				processor.relationWay(ids.get(i), getValue(roles.get(i)));
+				break;
+			}
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			processor.relationTag(getKey(keys.get(i)), getValue(vals.get(i)));
+		}
+		processor.endRelation();
+	}
+
+	private String getKey(int index) throws IOException {
+		String key = getString(index);
+		if (sharedKeys[index] == null)
+			sharedKeys[index] = TagDictionary.getInstance().internKey(key);
+		return sharedKeys[index];
+	}
+
+	private String getValue(int index) throws IOException {
+		String value = getString(index);
+		if (sharedValues[index] == null)
+			sharedValues[index] = TagDictionary.getInstance().internValue(value);
+		return sharedValues[index];
+	}
+
+	private String getString(int index) throws IOException {
+		if (index < 0 || index >= strings.length || strings[index] == null)
+			throw new IOException("String table index " + index + " is out of range");
+		return strings[index];
+	}
+}
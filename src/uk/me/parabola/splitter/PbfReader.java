@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads OSM PBF files, calling the appropriate methods on a
+ * {@code MapProcessor} as it progresses.
+ * <p/>
+ * The blobs in the file are decoded on a pool of worker threads, but the
+ * decoded elements are always passed on to the processor in file order
+ * and from the calling thread.
+ * <p/>
+ * If only the nodes are wanted and the file isn't mixed, reading stops after
+ * the first blob that contains any ways or relations.
+ */
+class PbfReader extends AbstractMapReader {
+
+	// Limits taken from the PBF format specification
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	private final MapProcessor processor;
+	private final boolean startNodeOnly;
+	// There are mixed nodes and ways in the file
+	private final boolean mixed;
+	private final int maxThreads;
+	// Set once all the nodes in the current file have been passed on
+	private boolean done;
+
+	PbfReader(MapProcessor processor, boolean mixed, int maxThreads) {
+		this.processor = processor;
+		this.startNodeOnly = processor.isStartNodeOnly();
+		this.mixed = mixed;
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Reads a single PBF file, passing all of its contents to the processor.
+	 * Note that {@link MapProcessor#endMap()} is not called.
+	 */
+	public void process(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 65536));
+		ExecutorService executor = null;
+		done = false;
+		try {
+			if (maxThreads > 1) {
+				executor = Executors.newFixedThreadPool(maxThreads, new NamedThreadFactory("pbf-decoder-"));
+				// Keep enough blobs in flight to keep all the threads busy, while
+				// still putting a limit on the memory that's used
+				LinkedList<PbfBlockDecoder> decoders = new LinkedList<PbfBlockDecoder>();
+				LinkedList<Future<MapEventBuffer>> pending = new LinkedList<Future<MapEventBuffer>>();
+				PbfBlockDecoder decoder;
+				while (!done && (decoder = readBlob(in)) != null) {
+					decoders.add(decoder);
+					pending.add(executor.submit(decoder));
+					if (pending.size() >= maxThreads * 2) {
+						replay(decoders.removeFirst(), pending.removeFirst());
+					}
+				}
+				while (!done && !pending.isEmpty()) {
+					replay(decoders.removeFirst(), pending.removeFirst());
+				}
+			} else {
+				PbfBlockDecoder decoder;
+				while (!done && (decoder = readBlob(in)) != null) {
+					replay(decoder, decoder.call());
+				}
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the next blob from the file.
+	 * @return a decoder for the blob, or {@code null} if the end of the file was reached.
+	 */
+	private PbfBlockDecoder readBlob(DataInputStream in) throws IOException {
+		int headerSize;
+		try {
+			headerSize = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+			throw new IOException("Invalid PBF blob header size " + headerSize + ". Is this really a PBF file?");
+		byte[] header = new byte[headerSize];
+		in.readFully(header);
+
+		String type = null;
+		int dataSize = -1;
+		ProtobufInput pin = new ProtobufInput(header, 0, headerSize);
+		int tag;
+		while ((tag = pin.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+			case 1:
+				type = pin.readString();
+				break;
+			case 3:
+				dataSize = pin.readRawVarint32();
+				break;
+			default:
+				pin.skipField(tag);
+			}
+		}
+		if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+			throw new IOException("Invalid PBF blob header, type=" + type + ", datasize=" + dataSize);
+
+		byte[] blob = new byte[dataSize];
+		in.readFully(blob);
+		return new PbfBlockDecoder(type, blob, startNodeOnly);
+	}
+
+	private void replay(PbfBlockDecoder decoder, Future<MapEventBuffer> future) throws IOException {
+		try {
+			replay(decoder, future.get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for a PBF blob to be decoded", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Failed to decode PBF blob", e.getCause());
+		}
+	}
+
+	private void replay(PbfBlockDecoder decoder, MapEventBuffer buffer) {
+		buffer.replay(processor);
+		addCounts(buffer);
+		if (startNodeOnly && !mixed && decoder.hasWaysOrRelations())
+			done = true;
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a tile out in the OSM PBF format.
+ * <p/>
+ * Elements are encoded as soon as they are written, into a block that holds
+ * up to {@link #MAX_BLOCK_ENTITIES} elements of a single type. Nodes are
+ * written as dense nodes, and all ids, coordinates and way/member references
+ * are delta coded. Each block has its own string table and is zlib compressed
+ * when it is full.
+ */
+public class PbfWriter extends AbstractTileWriter {
+
+	private static final int MAX_BLOCK_ENTITIES = 8000;
+	// Guards against blocks that are full of very large ways or relations
+	private static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+
+	// The PrimitiveGroup fields for each element type
+	private static final int DENSE_NODES = 2;
+	private static final int WAYS = 3;
+	private static final int RELATIONS = 4;
+
+	private static final double NANO = 1000000000d;
+
+	private DataOutputStream out;
+	private final Deflater deflater = new Deflater();
+	private byte[] compressed = new byte[64 * 1024];
+
+	// The string table for the current block
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private final ProtobufOutput strings = new ProtobufOutput(16 * 1024);
+
+	// The type of elements in the current block, and how many there are
+	private int groupType;
+	private int entityCount;
+
+	// The columns of the dense nodes in the current block
+	private final ProtobufOutput denseIds = new ProtobufOutput(16 * 1024);
+	private final ProtobufOutput denseLats = new ProtobufOutput(32 * 1024);
+	private final ProtobufOutput denseLons = new ProtobufOutput(32 * 1024);
+	private final ProtobufOutput denseKeysVals = new ProtobufOutput(16 * 1024);
+	private boolean denseHasTags;
+	private long lastId;
+	private long lastLat;
+	private long lastLon;
+
+	// The encoded ways or relations in the current block
+	private final ProtobufOutput group = new ProtobufOutput(64 * 1024);
+
+	// Scratch buffers for building up a single message or packed field
+	private final ProtobufOutput element = new ProtobufOutput();
+	private final ProtobufOutput packed = new ProtobufOutput();
+	private final ProtobufOutput block = new ProtobufOutput(256 * 1024);
+	private final ProtobufOutput blob = new ProtobufOutput(64 * 1024);
+	private final ProtobufOutput header = new ProtobufOutput(64);
+
+	public PbfWriter(Area bounds) {
+		super(bounds);
+	}
+
+	@Override
+	protected String getFileExtension() {
+		return ".osm.pbf";
+	}
+
+	@Override
+	protected void open(OutputStream stream) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+		startBlock(0);
+		writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+		element.reset();
+		element.writeSInt64(1, toNano(bounds.getMinLong()));
+		element.writeSInt64(2, toNano(bounds.getMaxLong()));
+		element.writeSInt64(3, toNano(bounds.getMaxLat()));
+		element.writeSInt64(4, toNano(bounds.getMinLat()));
+
+		block.reset();
+		block.writeBytes(1, element);
+		block.writeString(4, "OsmSchema-V0.6");
+		block.writeString(4, "DenseNodes");
+		block.writeString(16, "splitter");
+		writeBlob("OSMHeader", block);
+	}
+
+	private static long toNano(int mapUnits) {
+		return Math.round(Utils.toDegrees(mapUnits) * NANO);
+	}
+
+	@Override
+	public void finishWrite() {
+		try {
+			writeBlock();
+			out.close();
+		} catch (IOException e) {
+			System.out.println("Could not write end of file: " + e);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public void write(Node node) throws IOException {
+		startElement(DENSE_NODES);
+
+		long id = node.getId();
+		denseIds.writeRawSInt64(id - lastId);
+		lastId = id;
+		// The default granularity of 100 nanodegrees is the same as our fixed point units
+		long lat = node.getLat();
+		denseLats.writeRawSInt64(lat - lastLat);
+		lastLat = lat;
+		long lon = node.getLon();
+		denseLons.writeRawSInt64(lon - lastLon);
+		lastLon = lon;
+
+		// The keys and values are interleaved, with a 0 marking the end of each node's tags
+		if (node.hasTags()) {
+			for (int i = 0; i < node.getTagCount(); i++) {
+				denseKeysVals.writeRawVarint32(getStringId(node.getTagKey(i)));
+				denseKeysVals.writeRawVarint32(getStringId(node.getTagValue(i)));
+			}
+			denseHasTags = true;
+		}
+		denseKeysVals.writeRawVarint32(0);
+		endElement();
+	}
+
+	@Override
+	public void write(Way way) throws IOException {
+		startElement(WAYS);
+
+		element.reset();
+		element.writeInt64(1, way.getId());
+		writeTags(way);
+		packed.reset();
+		LongList refs = way.getRefs();
+		long last = 0;
+		for (int i = 0; i < refs.size(); i++) {
+			long ref = refs.get(i);
+			packed.writeRawSInt64(ref - last);
+			last = ref;
+		}
+		element.writeBytes(8, packed);
+		group.writeBytes(WAYS, element);
+		endElement();
+	}
+
+	@Override
+	public void write(Relation rel) throws IOException {
+		startElement(RELATIONS);
+
+		element.reset();
+		element.writeInt64(1, rel.getId());
+		writeTags(rel);
+
+		List<Relation.Member> members = rel.getMembers();
+		packed.reset();
+		for (Relation.Member m : members) {
+			if (isValid(m)) {
+				packed.writeRawVarint32(getStringId(m.getRole() == null ? "" : m.getRole()));
+			} else {
+				System.err.println("Invalid relation member found in relation " + rel.getId() + ": member type=" + m.getType() + ", ref=" + m.getRef() + ", role=" + m.getRole() + ". Ignoring this member");
+			}
+		}
+		element.writeBytes(8, packed);
+		packed.reset();
+		long last = 0;
+		for (Relation.Member m : members) {
+			if (isValid(m)) {
+				long ref = m.getRef();
+				packed.writeRawSInt64(ref - last);
+				last = ref;
+			}
+		}
+		element.writeBytes(9, packed);
+		packed.reset();
+		for (Relation.Member m : members) {
+			if (isValid(m))
+				packed.writeRawVarint32(getMemberType(m.getType()));
+		}
+		element.writeBytes(10, packed);
+		group.writeBytes(RELATIONS, element);
+		endElement();
+	}
+
+	private static boolean isValid(Relation.Member m) {
+		return m.getRef() != 0 && getMemberType(m.getType()) >= 0;
+	}
+
+	private static int getMemberType(String type) {
+		if ("node".equals(type))
+			return 0;
+		if ("way".equals(type))
+			return 1;
+		if ("relation".equals(type))
+			return 2;
+		return -1;
+	}
+
+	/**
+	 * Adds the keys and values of a way or relation to the current element.
+	 */
+	private void writeTags(Element el) {
+		if (!el.hasTags())
+			return;
+		packed.reset();
+		for (int i = 0; i < el.getTagCount(); i++)
+			packed.writeRawVarint32(getStringId(el.getTagKey(i)));
+		element.writeBytes(2, packed);
+		packed.reset();
+		for (int i = 0; i < el.getTagCount(); i++)
+			packed.writeRawVarint32(getStringId(el.getTagValue(i)));
+		element.writeBytes(3, packed);
+	}
+
+	private int getStringId(String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = stringIds.size() + 1;
+			stringIds.put(s, id);
+			strings.writeString(1, s);
+		}
+		return id;
+	}
+
+	/**
+	 * Makes sure the current block can take another element of the given type.
+	 */
+	private void startElement(int type) throws IOException {
+		if (type != groupType) {
+			writeBlock();
+			startBlock(type);
+		}
+	}
+
+	private void endElement() throws IOException {
+		entityCount++;
+		if (entityCount >= MAX_BLOCK_ENTITIES || group.size() >= MAX_BLOCK_SIZE) {
+			writeBlock();
+			startBlock(groupType);
+		}
+	}
+
+	private void startBlock(int type) {
+		groupType = type;
+		entityCount = 0;
+		stringIds.clear();
+		strings.reset();
+		// The first string is never used, because 0 marks the end of the tags in dense nodes
+		strings.writeString(1, "");
+		denseIds.reset();
+		denseLats.reset();
+		denseLons.reset();
+		denseKeysVals.reset();
+		denseHasTags = false;
+		lastId = 0;
+		lastLat = 0;
+		lastLon = 0;
+		group.reset();
+	}
+
+	private void writeBlock() throws IOException {
+		if (entityCount == 0)
+			return;
+		if (groupType == DENSE_NODES) {
+			element.reset();
+			element.writeBytes(1, denseIds);
+			element.writeBytes(8, denseLats);
+			element.writeBytes(9, denseLons);
+			if (denseHasTags)
+				element.writeBytes(10, denseKeysVals);
+			group.reset();
+			group.writeBytes(DENSE_NODES, element);
+		}
+		block.reset();
+		block.writeBytes(1, strings);
+		block.writeBytes(2, group);
+		writeBlob("OSMData", block);
+	}
+
+	/**
+	 * Compresses a block and writes it out, preceded by its blob header.
+	 */
+	private void writeBlob(String type, ProtobufOutput data) throws IOException {
+		deflater.reset();
+		deflater.setInput(data.getBuffer(), 0, data.size());
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				byte[] temp = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, temp, 0, length);
+				compressed = temp;
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+
+		blob.reset();
+		blob.writeInt32(2, data.size());
+		blob.writeBytes(3, compressed, 0, length);
+
+		header.reset();
+		header.writeString(1, type);
+		header.writeInt32(3, blob.size());
+
+		out.writeInt(header.size());
+		header.writeTo(out);
+		blob.writeTo(out);
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Passes the map on to another processor on a separate thread, so that the
+ * reading of the map and the processing of it can overlap.
+ * <p/>
+ * The events are recorded into batches of a few thousand elements, which are
+ * passed over to the processing thread through a small bounded queue. Once a
+ * batch has been processed it is cleared and reused. Some statistics about
+ * the queue are kept, and displayed at the end, to show whether the reading
+ * or the processing is holding things up.
+ */
+class PipelinedMapProcessor implements MapProcessor {
+	// The number of elements in each batch
+	private static final int BATCH_SIZE = 4096;
+	// The number of batches that can be waiting to be processed
+	private static final int QUEUE_SIZE = 8;
+
+	// Marks the end of the map in the queue
+	private static final MapEventBuffer END_MARKER = new MapEventBuffer(false);
+
+	private final MapProcessor processor;
+	private final boolean startNodeOnly;
+	private final BlockingQueue<MapEventBuffer> queue = new ArrayBlockingQueue<MapEventBuffer>(QUEUE_SIZE);
+	// Batches that are ready to be filled again
+	private final BlockingQueue<MapEventBuffer> spare = new ArrayBlockingQueue<MapEventBuffer>(QUEUE_SIZE + 2);
+	private final Thread thread;
+	private volatile Throwable error;
+
+	private MapEventBuffer batch;
+	private int batchSize;
+
+	// Statistics about the queue. The first three are only touched by the
+	// reading thread, the last one by the processing thread until it finishes.
+	private long batchCount;
+	private long totalQueueDepth;
+	private long readerWaits;
+	private long processorWaits;
+
+	PipelinedMapProcessor(MapProcessor processor) {
+		this.processor = processor;
+		startNodeOnly = processor.isStartNodeOnly();
+		for (int i = 0; i < QUEUE_SIZE + 1; i++)
+			spare.add(new MapEventBuffer(startNodeOnly));
+		batch = new MapEventBuffer(startNodeOnly);
+
+		thread = new NamedThreadFactory("map-processor-").newThread(new Runnable() {
+			@Override
+			public void run() {
+				processBatches();
+			}
+		});
+		thread.start();
+	}
+
+	/**
+	 * @return the number of batches that have been passed to the processing thread.
+	 */
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * @return the average number of batches that were already waiting in the
+	 * queue each time a new batch was added.
+	 */
+	public double getAverageQueueDepth() {
+		return batchCount == 0 ? 0 : (double) totalQueueDepth / batchCount;
+	}
+
+	/**
+	 * @return the number of times the reader had to wait because the queue was
+	 * full, ie the processing couldn't keep up.
+	 */
+	public long getReaderWaits() {
+		return readerWaits;
+	}
+
+	/**
+	 * @return the number of times the processing thread had to wait because the
+	 * queue was empty, ie the reading couldn't keep up. This is only accurate
+	 * once the map has ended.
+	 */
+	public long getProcessorWaits() {
+		return processorWaits;
+	}
+
+	private void processBatches() {
+		try {
+			while (true) {
+				MapEventBuffer next = queue.poll();
+				if (next == null) {
+					processorWaits++;
+					next = queue.take();
+				}
+				if (next == END_MARKER)
+					break;
+				// Once something has gone wrong just keep the queue moving
+				if (error == null) {
+					try {
+						next.replay(processor);
+					} catch (Throwable t) {
+						error = t;
+					}
+				}
+				next.clear();
+				spare.put(next);
+			}
+		} catch (InterruptedException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Passes the current batch on to the processing thread, if it is big
+	 * enough or if {@code force} is set.
+	 */
+	private void handOver(boolean force) {
+		if (batchSize < BATCH_SIZE && !(force && !batch.isEmpty()))
+			return;
+		checkError();
+		try {
+			int depth = queue.size();
+			if (depth == QUEUE_SIZE)
+				readerWaits++;
+			totalQueueDepth += depth;
+			batchCount++;
+			queue.put(batch);
+			batch = spare.take();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while passing the map on for processing", e);
+		}
+		batchSize = 0;
+	}
+
+	private void checkError() {
+		if (error != null)
+			throw new RuntimeException("Failed to process the map", error);
+	}
+
+	@Override
+	public boolean isStartNodeOnly() {
+		return startNodeOnly;
+	}
+
+	@Override
+	public void boundTag(Area bounds) {
+		batch.boundTag(bounds);
+	}
+
+	@Override
+	public void startNode(long id, int lat, int lon) {
+		handOver(false);
+		batchSize++;
+		batch.startNode(id, lat, lon);
+	}
+
+	@Override
+	public void startWay(long id) {
+		handOver(false);
+		batchSize++;
+		batch.startWay(id);
+	}
+
+	@Override
+	public void startRelation(long id) {
+		handOver(false);
+		batchSize++;
+		batch.startRelation(id);
+	}
+
+	@Override
+	public void nodeTag(String key, String value) {
+		batch.nodeTag(key, value);
+	}
+
+	@Override
+	public void wayTag(String key, String value) {
+		batch.wayTag(key, value);
+	}
+
+	@Override
+	public void relationTag(String key, String value) {
+		batch.relationTag(key, value);
+	}
+
+	@Override
+	public void wayNode(long nodeId) {
+		batch.wayNode(nodeId);
+	}
+
+	@Override
+	public void relationNode(long nodeId, String role) {
+		batch.relationNode(nodeId, role);
+	}
+
+	@Override
+	public void relationWay(long wayId, String role) {
+		batch.relationWay(wayId, role);
+	}
+
+	@Override
+	public void endNode() {
+		batch.endNode();
+	}
+
+	@Override
+	public void endWay() {
+		batch.endWay();
+	}
+
+	@Override
+	public void endRelation() {
+		batch.endRelation();
+	}
+
+	/**
+	 * Waits for all of the batches to be processed, and then ends the map on
+	 * the calling thread.
+	 */
+	@Override
+	public void endMap() {
+		handOver(true);
+		try {
+			queue.put(END_MARKER);
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for the map to be processed", e);
+		}
+		checkError();
+		System.out.println("Processed " + Utils.format(batchCount) + " batches on a separate thread. Average queue length " +
+						String.format("%.1f", getAverageQueueDepth()) + " of " + QUEUE_SIZE + ", the reader waited " +
+						Utils.format(readerWaits) + " times and the processor waited " + Utils.format(processorWaits) + " times");
+		processor.endMap();
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A minimal reader for the protocol buffer wire format, working directly on
+ * a byte[]. Only the features needed to decode the OSM PBF format are supported.
+ * <p/>
+ * Embedded messages and packed fields are handled by narrowing the limit of the
+ * reader with {@link #pushLimit(int)} and restoring it with {@link #popLimit(int)}
+ * once the embedded data has been consumed.
+ */
+class ProtobufInput {
+	static final int WIRETYPE_VARINT = 0;
+	static final int WIRETYPE_FIXED64 = 1;
+	static final int WIRETYPE_LENGTH_DELIMITED = 2;
+	static final int WIRETYPE_FIXED32 = 5;
+
+	private final byte[] buf;
+	private int pos;
+	private int limit;
+
+	ProtobufInput(byte[] buf, int offset, int length) {
+		this.buf = buf;
+		pos = offset;
+		limit = offset + length;
+	}
+
+	/**
+	 * @return the next field tag (field number << 3 | wire type), or 0 if the
+	 * end of the current message has been reached.
+	 */
+	public int readTag() throws IOException {
+		if (pos >= limit)
+			return 0;
+		return readRawVarint32();
+	}
+
+	public static int getFieldNumber(int tag) {
+		return tag >>> 3;
+	}
+
+	public static int getWireType(int tag) {
+		return tag & 7;
+	}
+
+	public boolean isAtEnd() {
+		return pos >= limit;
+	}
+
+	public int getPosition() {
+		return pos;
+	}
+
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int readRawVarint32() throws IOException {
+		return (int) readRawVarint64();
+	}
+
+	public long readRawVarint64() throws IOException {
+		int shift = 0;
+		long result = 0;
+		while (shift < 64) {
+			if (pos >= limit)
+				throw new IOException("Truncated protocol buffer message while reading a varint");
+			byte b = buf[pos++];
+			result |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+			shift += 7;
+		}
+		throw new IOException("Malformed varint found in protocol buffer message");
+	}
+
+	public long readSInt64() throws IOException {
+		long n = readRawVarint64();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * Reads the length of a length-delimited field and checks that it fits
+	 * within the current message.
+	 */
+	public int readLength() throws IOException {
+		int length = readRawVarint32();
+		if (length < 0 || pos + length > limit)
+			throw new IOException("Truncated protocol buffer message, field length " + length + " exceeds the remaining " + (limit - pos) + " bytes");
+		return length;
+	}
+
+	public String readString() throws IOException {
+		int length = readLength();
+		String result = decodeUtf8(buf, pos, length);
+		pos += length;
+		return result;
+	}
+
+	/**
+	 * Restricts reading to the next {@code length} bytes.
+	 * @return the previous limit, to be passed to {@link #popLimit(int)}.
+	 */
+	public int pushLimit(int length) {
+		int old = limit;
+		limit = pos + length;
+		return old;
+	}
+
+	/**
+	 * Skips any unread data inside the current limit and then restores the
+	 * previous limit.
+	 */
+	public void popLimit(int oldLimit) {
+		pos = limit;
+		limit = oldLimit;
+	}
+
+	public void skip(int length) throws IOException {
+		if (pos + length > limit)
+			throw new IOException("Truncated protocol buffer message, unable to skip " + length + " bytes when only " + (limit - pos) + " remain");
+		pos += length;
+	}
+
+	public void skipField(int tag) throws IOException {
+		switch (getWireType(tag)) {
+		case WIRETYPE_VARINT:
+			readRawVarint64();
+			break;
+		case WIRETYPE_FIXED64:
+			skip(8);
+			break;
+		case WIRETYPE_LENGTH_DELIMITED:
+			skip(readLength());
+			break;
+		case WIRETYPE_FIXED32:
+			skip(4);
+			break;
+		default:
+			throw new IOException("Unsupported protocol buffer wire type " + getWireType(tag));
+		}
+	}
+
+	/**
+	 * Reads a repeated uint32/int32 field, which may or may not be packed, and
+	 * appends the values to the given list.
+	 */
+	public void readInts(int tag, IntList list) throws IOException {
+		if (getWireType(tag) == WIRETYPE_LENGTH_DELIMITED) {
+			int old = pushLimit(readLength());
+			while (!isAtEnd())
+				list.add(readRawVarint32());
+			popLimit(old);
+		} else {
+			list.add(readRawVarint32());
+		}
+	}
+
+	/**
+	 * Reads a repeated sint64 field, which may or may not be packed, and delta
+	 * decodes the values into the given list.
+	 */
+	public void readDeltaSInt64s(int tag, LongList list) throws IOException {
+		long last = list.size() == 0 ? 0 : list.get(list.size() - 1);
+		if (getWireType(tag) == WIRETYPE_LENGTH_DELIMITED) {
+			int old = pushLimit(readLength());
+			while (!isAtEnd()) {
+				last += readSInt64();
+				list.add(last);
+			}
+			popLimit(old);
+		} else {
+			list.add(last + readSInt64());
+		}
+	}
+
+	static String decodeUtf8(byte[] buf, int offset, int length) {
+		try {
+			return new String(buf, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
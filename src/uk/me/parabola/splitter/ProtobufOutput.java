@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A minimal writer for the protocol buffer wire format, the counterpart of
+ * {@link ProtobufInput}. The message is built up in a growable byte[].
+ * <p/>
+ * Embedded messages and packed fields are built in a separate
+ * {@code ProtobufOutput} and then added with {@link #writeBytes(int, ProtobufOutput)},
+ * so that their length is known before they are written.
+ */
+class ProtobufOutput {
+	private byte[] buf;
+	private int size;
+
+	ProtobufOutput() {
+		this(1024);
+	}
+
+	ProtobufOutput(int capacity) {
+		buf = new byte[capacity];
+	}
+
+	public void reset() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, size);
+	}
+
+	public void writeTag(int field, int wireType) {
+		writeRawVarint32(field << 3 | wireType);
+	}
+
+	public void writeRawVarint32(int value) {
+		if (value < 0) {
+			// Negative numbers are always sign extended to ten bytes
+			writeRawVarint64(value);
+			return;
+		}
+		ensureCapacity(5);
+		while ((value & ~0x7f) != 0) {
+			buf[size++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		buf[size++] = (byte) value;
+	}
+
+	public void writeRawVarint64(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7fL) != 0) {
+			buf[size++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		buf[size++] = (byte) value;
+	}
+
+	public void writeRawSInt64(long value) {
+		writeRawVarint64(value << 1 ^ value >> 63);
+	}
+
+	public void writeInt32(int field, int value) {
+		writeTag(field, ProtobufInput.WIRETYPE_VARINT);
+		writeRawVarint32(value);
+	}
+
+	public void writeInt64(int field, long value) {
+		writeTag(field, ProtobufInput.WIRETYPE_VARINT);
+		writeRawVarint64(value);
+	}
+
+	public void writeSInt64(int field, long value) {
+		writeTag(field, ProtobufInput.WIRETYPE_VARINT);
+		writeRawSInt64(value);
+	}
+
+	public void writeString(int field, String value) {
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		writeBytes(field, bytes, 0, bytes.length);
+	}
+
+	public void writeBytes(int field, byte[] bytes, int offset, int length) {
+		writeTag(field, ProtobufInput.WIRETYPE_LENGTH_DELIMITED);
+		writeRawVarint32(length);
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buf, size, length);
+		size += length;
+	}
+
+	/**
+	 * Writes the contents of another message as an embedded message or packed field.
+	 */
+	public void writeBytes(int field, ProtobufOutput message) {
+		writeBytes(field, message.buf, 0, message.size);
+	}
+
+	private void ensureCapacity(int extra) {
+		if (size + extra > buf.length) {
+			byte[] temp = new byte[Math.max(size + extra, buf.length * 2)];
+			System.arraycopy(buf, 0, temp, 0, size);
+			buf = temp;
+		}
+	}
+}
@@ -23,6 +23,11 @@ import java.util.Iterator;
  *
  * It is all a balance though, there is an overhead in each map because of the load factor.
  * Also it is going to be slower overall.  So splitting into 4 seems about right.
+ *
+ * The keys are longs. They are grouped into blocks by their upper 32 bits, and
+ * each block has its own sub-maps that only hold the lower 32 bits of the keys,
+ * so an entry takes no more space than it would with int keys. There are only
+ * a handful of blocks in practice.
  * 
  * @author Steve Ratcliffe
  */
@@ -31,26 +36,96 @@ public class SplitIntMap {
 	private static final int MASK = NMAPS-1;
 
 	private static final int INIT_CAP = 1<<16;
+	private static final int MAX_CAP = 1<<28;
 	private static final float LOAD = 0.7f;
 
 	private int size;
 
-	private final IntIntMap[] maps = new IntIntMap[NMAPS];
+	private final MapStorage storage;
+	// The capacity to give the sub-maps of the first block
+	private final int firstCap;
+
+	// The upper 32 bits of the keys in each block, and the sub-maps of each block
+	private long[] blockIds = new long[0];
+	private IntIntMap[][] blocks = new IntIntMap[0][];
+	// The block that was used last, as the keys tend to come in order
+	private int lastBlock = -1;
 
 	public SplitIntMap() {
-		for (int i = 0; i < NMAPS; i++) {
-			maps[i] = new IntIntMap(INIT_CAP, LOAD);
-			//maps[i].growthFactor(4);
-		}
+		this(0, MapStorage.HEAP);
+	}
+
+	/**
+	 * Create a map that is big enough to hold the expected number of entries
+	 * without having to grow.  Growing is expensive when the map isn't on the heap,
+	 * as the old buffers can't be reused.
+	 *
+	 * @param expectedSize The number of entries that the map is expected to hold,
+	 * or zero if this is not known.
+	 * @param storage Where to hold the keys and values.
+	 */
+	public SplitIntMap(long expectedSize, MapStorage storage) {
+		this.storage = storage;
+		int cap = INIT_CAP;
+		long needed = (long) (expectedSize / NMAPS / LOAD) + 1;
+		while (cap < needed && cap < MAX_CAP)
+			cap <<= 1;
+		firstCap = cap;
+	}
+
+	public void put(long key, int value) {
+		int sub = (int) key & MASK;
+		getMaps(key >> 32, true)[sub].put(toSubKey(key), value);
 	}
 
+	public int get(long key) {
+		IntIntMap[] maps = getMaps(key >> 32, false);
+		if (maps == null)
+			return 0;
+		return maps[(int) key & MASK].get(toSubKey(key));
+	}
 
-	public void put(int key, int value) {
-		maps[key & MASK].put(key, value);
+	/**
+	 * The low bits of all the keys in a sub-map are the same, so they can be set
+	 * to make sure that the key is never 0, which IntIntMap can't hold.
+	 */
+	private static int toSubKey(long key) {
+		return (int) key | MASK;
 	}
 
-	public int get(int key) {
-		return maps[key & MASK].get(key);
+	private static long fromSubKey(long blockId, int sub, int subKey) {
+		return (blockId << 32) | (subKey & 0xffffffffL & ~MASK) | sub;
+	}
+
+	private IntIntMap[] getMaps(long blockId, boolean create) {
+		if (lastBlock >= 0 && blockIds[lastBlock] == blockId)
+			return blocks[lastBlock];
+		for (int i = 0; i < blockIds.length; i++) {
+			if (blockIds[i] == blockId) {
+				lastBlock = i;
+				return blocks[i];
+			}
+		}
+		if (!create)
+			return null;
+
+		int n = blockIds.length;
+		long[] newIds = new long[n + 1];
+		System.arraycopy(blockIds, 0, newIds, 0, n);
+		IntIntMap[][] newBlocks = new IntIntMap[n + 1][];
+		System.arraycopy(blocks, 0, newBlocks, 0, n);
+
+		IntIntMap[] maps = new IntIntMap[NMAPS];
+		for (int i = 0; i < NMAPS; i++) {
+			maps[i] = new IntIntMap(n == 0 ? firstCap : INIT_CAP, LOAD, storage);
+			//maps[i].growthFactor(4);
+		}
+		newIds[n] = blockId;
+		newBlocks[n] = maps;
+		blockIds = newIds;
+		blocks = newBlocks;
+		lastBlock = n;
+		return maps;
 	}
 
 	public int size() {
@@ -58,8 +133,11 @@ public class SplitIntMap {
 			return size;
 
 		int size = 0;
-		for (int i = 0; i < NMAPS; i++) {
-			size += maps[i].size();
+		for (IntIntMap[] maps : blocks) {
+			for (int i = 0; i < NMAPS; i++) {
+				if (maps[i] != null)
+					size += maps[i].size();
+			}
 		}
 		return size;
 	}
@@ -74,7 +152,7 @@ public class SplitIntMap {
 	 * @return An iterator that uses the same object each time it returns, with different
 	 * values filled in.
 	 */
-	public Iterator<IntIntMap.Entry> fastIterator() {
+	public Iterator<Entry> fastIterator() {
 		return new NormalObjectIterator();
 	}
 
@@ -84,7 +162,7 @@ public class SplitIntMap {
 	 * can be freed.  This avoids avoids using double the memory when splitting the areas.
 	 * @return An iterator over the entry set.  The same Entry is returned each time.
 	 */
-	public Iterator<IntIntMap.Entry> fastDeletingIterator() {
+	public Iterator<Entry> fastDeletingIterator() {
 		return new NormalObjectIterator(true);
 	}
 
@@ -99,24 +177,24 @@ public class SplitIntMap {
 	}
 
 	/**
-	 * Iterates over all the sub-maps.
+	 * Iterates over all the sub-maps of all the blocks.
 	 */
-	private class NormalObjectIterator implements Iterator<IntIntMap.Entry> {
+	private class NormalObjectIterator implements Iterator<Entry> {
 
 		private final boolean deleteAfter;
+		private final Entry entry = new Entry();
 
-		private final Iterator[] iterators = new Iterator[NMAPS];
-
+		private int currentBlock;
 		private int currentMap;
+		private Iterator<IntIntMap.Entry> iterator;
 
 		private NormalObjectIterator(boolean deleteAfter) {
 			if (deleteAfter)
 				fixSize();
-			
+
 			this.deleteAfter = deleteAfter;
-			for (int i = 0; i < NMAPS; i++) {
-				iterators[i] = maps[i].entryIterator();
-			}
+			if (blocks.length > 0)
+				iterator = blocks[0][0].entryIterator();
 		}
 
 		private NormalObjectIterator() {
@@ -130,28 +208,49 @@ public class SplitIntMap {
 		 */
 		public boolean hasNext() {
 			// All done
-			if (currentMap >= NMAPS)
+			if (iterator == null)
 				return false;
 
 			// easy case:
-			if (iterators[currentMap].hasNext())
+			if (iterator.hasNext())
 				return true;
 
 			// Else step to the next one and try it
-			if (deleteAfter) {
-				iterators[currentMap] = null;
-				maps[currentMap] = null;
+			if (deleteAfter)
+				blocks[currentBlock][currentMap] = null;
+			if (++currentMap == NMAPS) {
+				currentMap = 0;
+				currentBlock++;
 			}
-			currentMap++;
+			iterator = currentBlock < blocks.length ? blocks[currentBlock][currentMap].entryIterator() : null;
 			return hasNext();
 		}
 
-		public IntIntMap.Entry next() {
-			return (IntIntMap.Entry) iterators[currentMap].next();
+		public Entry next() {
+			IntIntMap.Entry e = iterator.next();
+			entry.key = fromSubKey(blockIds[currentBlock], currentMap, e.getKey());
+			entry.value = e.getValue();
+			return entry;
 		}
 
 		public void remove() {
 			throw new UnsupportedOperationException();
 		}
 	}
+
+	/**
+	 * A map entry with a long key and int value.
+	 */
+	public static class Entry {
+		private long key;
+		private int value;
+
+		public long getKey() {
+			return key;
+		}
+
+		public int getValue() {
+			return value;
+		}
+	}
 }
@@ -13,58 +13,80 @@
 package uk.me.parabola.splitter;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Date;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
 /**
  * Splits a map into multiple areas.
  */
 class SplitProcessor implements MapProcessor {
 
-	private final SplitIntMap coords = new SplitIntMap();
-	private final SplitIntMap ways = new SplitIntMap();
-	private final IntObjMap<long[]> bigWays = new IntObjMap<long[]>();
+	// The areas that each node is in, indexed directly by node id
+	private final PagedIntMap coords;
+	private final SplitIntMap ways;
+	private final MapStorage storage;
+	// Encodes the sets of areas that are held in coords and ways
+	private final AreaSetTable areaSets = new AreaSetTable();
 
-	private final OSMWriter[] writers;
-	private final BlockingQueue<Element>[] writerInputQueues;
-	private final BlockingQueue<InputQueueInfo> writerInputQueue;
-	private final ArrayList<Thread> workerThreads;
+	private final TileWriter[] writers;
+	// Writes the tiles out on other threads, null if everything is written on this one
+	private final WriterScheduler scheduler;
 
-	private Node currentNode = new Node();
+	// Once an element has been handed over to the writer threads, a new one is
+	// taken from these pools. The writers put it back when they're done with it.
+	private final ElementPool<Node> nodePool = new ElementPool<Node>() {
+		@Override
+		protected Node create() {
+			return new Node();
+		}
+	};
+	private final ElementPool<Way> wayPool = new ElementPool<Way>() {
+		@Override
+		protected Way create() {
+			return new Way();
+		}
+	};
+	private final ElementPool<Relation> relationPool = new ElementPool<Relation>() {
+		@Override
+		protected Relation create() {
+			return new Relation();
+		}
+	};
+
+	private Node currentNode = nodePool.get();
 	private int currentNodeAreaSet;
+	// The writers that the current node is going to
+	private final int[] currentNodeWriters;
+	// For finding the writers that a node might belong to
+	private final AreaGrid grid;
 
-	private Way currentWay = new Way();
+	private Way currentWay = wayPool.get();
 	private BitSet currentWayAreaSet;
 
-	private Relation currentRelation = new Relation();
+	private Relation currentRelation = relationPool.get();
 	private BitSet currentRelAreaSet;
-	
-	private final int maxThreads;
 
-	SplitProcessor(OSMWriter[] writers, int maxThreads) {
+	/**
+	 * @param storage Where to hold the node and way maps. It is closed when the map ends.
+	 * @param expectedWays The number of ways in the input, if known, so the map
+	 * of ways can be created at the right size. Zero if not known.
+	 * @param writerThreads The number of threads to write the tiles on, or zero
+	 * to write them on the thread that processes the map.
+	 */
+	SplitProcessor(TileWriter[] writers, int writerThreads, MapStorage storage, long expectedWays) {
 		this.writers = writers;
-		this.maxThreads = maxThreads;
-		this.writerInputQueue = new ArrayBlockingQueue<InputQueueInfo>(writers.length); 
-		this.writerInputQueues = new BlockingQueue[writers.length];
-		for (int i = 0; i < writerInputQueues.length;i++) {
-			writerInputQueues[i] = new ArrayBlockingQueue<Element>(NO_ELEMENTS);
-			writerInputQueue.add(new InputQueueInfo(this.writers[i], writerInputQueues[i]));
-		}
-
+		this.storage = storage;
+		this.coords = new PagedIntMap(storage);
+		this.ways = new SplitIntMap(expectedWays, storage);
+
+		currentNodeWriters = new int[writers.length];
+		Area[] bounds = new Area[writers.length];
+		for (int i = 0; i < writers.length; i++)
+			bounds[i] = writers[i].getExtendedBounds();
+		grid = new AreaGrid(bounds);
 		currentWayAreaSet = new BitSet(writers.length);
 		currentRelAreaSet = new BitSet(writers.length);
-		
-		int noOfWorkerThreads = this.maxThreads - 1;
-		workerThreads = new ArrayList<Thread>(noOfWorkerThreads);
-		for (int i = 0; i < noOfWorkerThreads; i++) {
-			Thread worker = new Thread(new OSMWriterWorker());
-			worker.setName("worker-" + i);
-			workerThreads.add(worker);
-			worker.start();
-		}
+		scheduler = writerThreads > 0 ? new WriterScheduler(writers, writerThreads) : null;
 	}
 
 	@Override
@@ -77,17 +99,17 @@ class SplitProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void startNode(int id, double lat, double lon) {
+	public void startNode(long id, int lat, int lon) {
 		currentNode.set(id, lat, lon);
 	}
 
 	@Override
-	public void startWay(int id) {
+	public void startWay(long id) {
 		currentWay.set(id);
 	}
 
 	@Override
-	public void startRelation(int id) {
+	public void startRelation(long id) {
 		currentRelation.set(id);
 	}
 
@@ -107,75 +129,37 @@ class SplitProcessor implements MapProcessor {
 	}
 
 	@Override
-	public void wayNode(int id) {
+	public void wayNode(long id) {
 		// Get the list of areas that the node is in.  A node may be in
 		// more than one area because of overlap.
 		int set = coords.get(id);
 
 		// add the list of areas to the currentWayAreaSet
-		if (set != 0) {
-			int mask = 0xff;
-			for (int slot = 0; slot < 4; slot++, mask <<= 8) {
-				int val = (set & mask) >>> (slot * 8);
-				if (val == 0)
-					break;
-				currentWayAreaSet.set(val - 1);
-			}
-		}
+		areaSets.addTo(set, currentWayAreaSet);
 		currentWay.addRef(id);
 	}
 
 	@Override
-	public void relationNode(int id, String role) {
+	public void relationNode(long id, String role) {
 		{
 			currentRelation.addMember("node", id, role);
-			int set = coords.get(id);
-			if (set != 0) {
-				int mask = 0xff;
-				for (int slot = 0; slot < 4; slot++, mask <<= 8) {
-					int val = (set & mask) >>> (slot * 8);
-					if (val == 0)
-						break;
-					// val - 1 because the areas held in 'ways' are in the range 1-255
-					currentRelAreaSet.set(val - 1);
-				}
-			}
+			areaSets.addTo(coords.get(id), currentRelAreaSet);
 		}
 	}
 
 	@Override
-	public void relationWay(int id, String role) {
+	public void relationWay(long id, String role) {
 		{
-			long[] bigSet;
 			currentRelation.addMember("way", id, role);
-			int set = ways.get(id);
-			if (set != 0) {
-				int mask = 0xff;
-				for (int slot = 0; slot < 4; slot++, mask <<= 8) {
-					int val = (set & mask) >>> (slot * 8);
-					if (val == 0)
-						break;
-					// val - 1 because the areas held in 'ways' are in the range 1-255
-					currentRelAreaSet.set(val - 1);
-				}
-			} else if ((bigSet = bigWays.get(id)) != null) {
-				// Copy bits from bigSet to currentRelAreaSet
-				for (int i = 0; i < bigSet.length; i++) {
-					for (int j = 0; j < 64; j++) {
-						if ((bigSet[i] & (1L << (j % 64))) != 0) {
-							currentRelAreaSet.set(i * 64 + j);
-						}
-					}
-				}
-			}
+			areaSets.addTo(ways.get(id), currentRelAreaSet);
 		}
 	}
 
 	@Override
 	public void endNode() {
 		try {
-			writeNode();
-			currentNode = new Node();
+			int users = writeNode();
+			currentNode = nextElement(currentNode, users, nodePool);
 			currentNodeAreaSet = 0;
 		} catch (IOException e) {
 			throw new RuntimeException("failed to write node " + currentNode.getId(), e);
@@ -185,8 +169,8 @@ class SplitProcessor implements MapProcessor {
 	@Override
 	public void endWay() {
 		try {
-			writeWay();
-			currentWay = new Way();
+			int users = writeWay();
+			currentWay = nextElement(currentWay, users, wayPool);
 			currentWayAreaSet.clear();
 		} catch (IOException e) {
 			throw new RuntimeException("failed to write way " + currentWay.getId(), e);
@@ -196,8 +180,8 @@ class SplitProcessor implements MapProcessor {
 	@Override
 	public void endRelation() {
 		try {
-			writeRelation();
-			currentRelation = new Relation();
+			int users = writeRelation();
+			currentRelation = nextElement(currentRelation, users, relationPool);
 			currentRelAreaSet.clear();
 		} catch (IOException e) {
 			throw new RuntimeException("failed to write relation " + currentRelation.getId(), e);
@@ -206,193 +190,98 @@ class SplitProcessor implements MapProcessor {
 
 	@Override
 	public void endMap() {
-		for (int i = 0; i < writerInputQueues.length; i++) {
-			try {
-				writerInputQueues[i].put(STOP_ELEMENT);
-			} catch (InterruptedException e) {
-				throw new RuntimeException("Failed to add the stop element for worker thread " + i, e);
-			}
-		}
-		for (Thread workerThread : workerThreads) {
-			try {
-				workerThread.join();
-			} catch (InterruptedException e) {
-				throw new RuntimeException("Failed to join for thread " + workerThread.getName(), e);
-			}
-		}
-		for (OSMWriter writer : writers) {
+		if (scheduler != null)
+			scheduler.finish();
+		for (TileWriter writer : writers) {
 			writer.finishWrite();
 		}
+		storage.close();
 	}
 
-	private void writeNode() throws IOException {
-		for (int n = 0; n < writers.length; n++) {
+	/**
+	 * @return the element to use for the next one that's read. The given element is
+	 * reused straight away unless it's been handed over to the writer threads.
+	 */
+	private <T extends Element> T nextElement(T element, int users, ElementPool<T> pool) {
+		if (scheduler == null || users == 0) {
+			element.reset();
+			return element;
+		}
+		return pool.get();
+	}
+
+	/**
+	 * @return the number of tiles that the node was written to.
+	 */
+	private int writeNode() throws IOException {
+		int count = 0;
+		for (int n : grid.getCandidates(currentNode.getMapLat(), currentNode.getMapLon())) {
 			boolean found = writers[n].nodeBelongsToThisArea(currentNode); 
 			if (found) {
-				if (maxThreads > 1) {
-					addToWorkingQueue(n, currentNode);
-				} else {
-					writers[n].write(currentNode);
-				}
-				if (currentNodeAreaSet == 0) {
-					currentNodeAreaSet = n + 1;
-				} else {
-					currentNodeAreaSet = addToSet(currentNodeAreaSet, n + 1, currentNode.getId());
-				}
+				currentNodeWriters[count++] = n;
+				currentNodeAreaSet = areaSets.add(currentNodeAreaSet, n);
 			}
 		}
-		// Only remember the node if it's in one or more of the areas we care about
+		// Only remember the node if it's in one or more of the areas we care about.
+		// This is done first, as the node can be reused as soon as it has been written.
 		if (currentNodeAreaSet != 0) {
 			coords.put(currentNode.getId(), currentNodeAreaSet);
 		}
+		// The writers can share the formatted node if it is going to more than one of them
+		currentNode.setMultiTile(count > 1);
+		currentNode.setUsers(count);
+		for (int i = 0; i < count; i++) {
+			int n = currentNodeWriters[i];
+			if (scheduler != null) {
+				scheduler.add(n, currentNode);
+			} else {
+				writers[n].write(currentNode);
+			}
+		}
+		return count;
 	}
 
 	private boolean seenWay;
 
-	private void writeWay() throws IOException {
+	private int writeWay() throws IOException {
 		if (!seenWay) {
 			seenWay = true;
 			System.out.println("Writing ways " + new Date());
 		}
-		if (!currentWayAreaSet.isEmpty()) {
-			if (currentWayAreaSet.cardinality() <= 4) {
-				// this way falls into 4 or less areas (the normal case). Store these areas in the ways map
-				int set = 0;
-				for (int n = currentWayAreaSet.nextSetBit(0); n >= 0; n = currentWayAreaSet.nextSetBit(n + 1)) {
-					if (maxThreads > 1) {
-						addToWorkingQueue(n, currentWay);
-					} else {
-						writers[n].write(currentWay);
-					}
-					// add one to the area so we're in the range 1-255. This is because we treat 0 as the
-					// equivalent of a null
-					set = set << 8 | (n + 1);
-				}
-				ways.put(currentWay.getId(), set);
-			} else {
-				// this way falls into 5 or more areas. Convert the currentWayAreaSet into a long[] and store
-				// these areas in the bigWays map
-				long[] set = new long[currentWayAreaSet.size() / 64];
-				for (int n = currentWayAreaSet.nextSetBit(0); n >= 0; n = currentWayAreaSet.nextSetBit(n + 1)) {
-					if (maxThreads > 1) {
-						addToWorkingQueue(n, currentWay);
-					} else {
-						writers[n].write(currentWay);
-					}
-					set[n / 64] |= 1L << (n % 64);
+		int count = currentWayAreaSet.cardinality();
+		if (count > 0) {
+			ways.put(currentWay.getId(), areaSets.getSet(currentWayAreaSet));
+			currentWay.setMultiTile(count > 1);
+			currentWay.setUsers(count);
+			for (int n = currentWayAreaSet.nextSetBit(0); n >= 0; n = currentWayAreaSet.nextSetBit(n + 1)) {
+				if (scheduler != null) {
+					scheduler.add(n, currentWay);
+				} else {
+					writers[n].write(currentWay);
 				}
-				bigWays.put(currentWay.getId(), set);
 			}
 		}
+		return count;
 	}
 
 	private boolean seenRel;
 
-	private void writeRelation() throws IOException {
+	private int writeRelation() throws IOException {
 		if (!seenRel) {
 			seenRel = true;
 			System.out.println("Writing relations " + new Date());
 		}
+		int count = currentRelAreaSet.cardinality();
+		currentRelation.setMultiTile(count > 1);
+		currentRelation.setUsers(count);
 		for (int n = currentRelAreaSet.nextSetBit(0); n >= 0; n = currentRelAreaSet.nextSetBit(n + 1)) {
 			// if n is out of bounds, then something has gone wrong
-			if (maxThreads > 1) {
-				addToWorkingQueue(n, currentRelation);
+			if (scheduler != null) {
+				scheduler.add(n, currentRelation);
 			} else {
 				writers[n].write(currentRelation);
 			}
 		}
+		return count;
 	}
-
-	private int addToSet(int set, int v, int id) {
-		int val = v;
-		for (int mask = 0xff; mask != 0; mask <<= 8) {
-			int setval = set & mask;
-			if (setval == 0) {
-				return set | val;
-			} else if (setval == val) {
-				return set;
-			}
-			val <<= 8;
-		}
-		// it was not added
-		System.err.println("Node " + id + " in too many areas. Already in areas 0x" + Integer.toHexString(set) + ", trying to add area 0x" + Integer.toHexString(v));
-		return set;
-	}
-
-	private void addToWorkingQueue(int writerNumber, Element element) {
-		try {
-			writerInputQueues[writerNumber].put(element);
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Failed to write node " + element.getId() + " to worker thread " + writerNumber, e);
-		}
-	}
-
-	private static class InputQueueInfo {
-		private final OSMWriter writer;
-		private final BlockingQueue<Element> inputQueue;
-
-		public InputQueueInfo(OSMWriter writer, BlockingQueue<Element> inputQueue) {
-      this.writer = writer;
-			this.inputQueue = inputQueue;
-		}
-	}
-
-	private static final Element STOP_ELEMENT = new Element();
-
-	public static final int NO_ELEMENTS = 1000;
-
-	private class OSMWriterWorker implements Runnable {
-
-		public void processElement(Element element, OSMWriter writer) throws IOException {
-			if (element instanceof Node) {
-				writer.write((Node) element);
-			} else if (element instanceof Way) {
-				writer.write((Way) element);
-			} else if (element instanceof Relation) {
-				writer.write((Relation) element);
-			}
-		}
-
-		@Override
-		public void run() {
-			boolean finished = false;
-			while (!finished) {
-				InputQueueInfo workPackage = writerInputQueue.poll();
-				if (workPackage==null) {
-					finished=true;
-				} else {
-					while (!workPackage.inputQueue.isEmpty()) {
-						Element element =null;
-						try {
-							element = workPackage.inputQueue.poll();
-							if (element == null) {
-								writerInputQueue.put(workPackage);
-								workPackage=null;
-								break;
-							} else if (element == STOP_ELEMENT) {
-								workPackage=null;
-								System.out.println("Thread " + Thread.currentThread().getName() + " has finished");
-								// this writer is finished
-								break;
-							} else {
-								processElement(element, workPackage.writer);
-							}
-							
-						} catch (InterruptedException e) {
-							throw new RuntimeException("Thread " + Thread.currentThread().getName() + " failed to get next element", e);
-						} catch (IOException e) {
-							throw new RuntimeException("Thread " + Thread.currentThread().getName() + " failed to write element " + element.getId() + '(' + element.getClass().getSimpleName() + ')', e);
-						}
-					}
-					if (workPackage != null) {
-						try {
-							writerInputQueue.put(workPackage);
-						} catch (InterruptedException e) {
-							throw new RuntimeException("Thread " + Thread.currentThread().getName() + " failed to return work package", e);
-						}
-					}
-				}
-			}
-		}
-	}
-}
\ No newline at end of file
+}
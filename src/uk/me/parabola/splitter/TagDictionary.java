@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread safe dictionary of tag keys and common tag values, shared by
+ * the readers, the disk cache and the writers.
+ * <p/>
+ * Each distinct key is given a small integer ID, which allows the cache and
+ * the writers to keep per-key information in arrays rather than maps. There
+ * are only a few thousand distinct keys in the whole planet, but the number
+ * of keys is capped anyway in case of a pathological input file.
+ * <p/>
+ * Values are only shared once they have been seen more than once, and only
+ * short values are considered. This picks up values such as
+ * {@code highway=residential} while avoiding filling the dictionary up with
+ * names and other one-off values. Both the candidate values and the shared
+ * values are bounded in number.
+ */
+public class TagDictionary {
+	private static final TagDictionary INSTANCE = new TagDictionary(Short.MAX_VALUE, 100000);
+
+	// Longer values than this are very unlikely to be repeated
+	private static final int MAX_VALUE_LENGTH = 32;
+
+	private final int maxKeys;
+	private final int maxValues;
+
+	private final ConcurrentMap<String, Integer> keyIds = new ConcurrentHashMap<String, Integer>(4096);
+	// The keys indexed by ID. Replaced by a larger copy when full, guarded by this
+	private volatile String[] keys = new String[1024];
+	private int keyCount;
+
+	private final ConcurrentMap<String, String> values = new ConcurrentHashMap<String, String>(4096);
+	// Values that have been seen once. Cleared out whenever it gets too large
+	private final ConcurrentMap<String, Boolean> candidates = new ConcurrentHashMap<String, Boolean>(4096);
+
+	TagDictionary(int maxKeys, int maxValues) {
+		this.maxKeys = maxKeys;
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * @return the dictionary that is shared by the whole splitter.
+	 */
+	public static TagDictionary getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the ID of a tag key, adding the key to the dictionary if necessary.
+	 *
+	 * @param key the key, which must not be {@code null}.
+	 *
+	 * @return the ID of the key, starting from 1, or -1 if the key isn't in
+	 * the dictionary and the dictionary is full.
+	 */
+	public int getKeyId(String key) {
+		Integer id = keyIds.get(key);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = keyIds.get(key);
+			if (id != null)
+				return id;
+			if (keyCount >= maxKeys)
+				return -1;
+			int newId = ++keyCount;
+			String[] current = keys;
+			if (newId >= current.length) {
+				String[] temp = new String[current.length * 2];
+				System.arraycopy(current, 0, temp, 0, current.length);
+				temp[newId] = key;
+				keys = temp;
+			} else {
+				current[newId] = key;
+			}
+			// The key has to be in the array before anyone else can find its ID
+			keyIds.put(key, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * @param id an ID previously returned by {@link #getKeyId(String)}.
+	 * @return the key with the given ID.
+	 */
+	public String getKey(int id) {
+		return keys[id];
+	}
+
+	/**
+	 * @return the number of keys in the dictionary. IDs run from 1 up to this value.
+	 */
+	public synchronized int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * @return the dictionary's copy of the given key, or the key itself if the
+	 * dictionary is full.
+	 */
+	public String internKey(String key) {
+		if (key == null)
+			return null;
+		int id = getKeyId(key);
+		return id < 0 ? key : getKey(id);
+	}
+
+	/**
+	 * @return a shared copy of the given value if it is common enough to be
+	 * worth sharing, otherwise the value itself.
+	 */
+	public String internValue(String value) {
+		if (value == null || value.length() > MAX_VALUE_LENGTH)
+			return value;
+		String shared = values.get(value);
+		if (shared != null)
+			return shared;
+		if (values.size() >= maxValues)
+			return value;
+		if (candidates.putIfAbsent(value, Boolean.TRUE) == null) {
+			// This is the first time the value has been seen
+			if (candidates.size() > maxValues)
+				candidates.clear();
+			return value;
+		}
+		candidates.remove(value);
+		shared = values.putIfAbsent(value, value);
+		return shared == null ? value : shared;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+
+/**
+ * Writes out the elements that belong to a single tile.
+ */
+public interface TileWriter {
+	/**
+	 * Opens the output file for the tile and writes its header.
+	 *
+	 * @param mapId the ID of the tile, which determines the file name.
+	 * @param extra the overlap in map units. Nodes this far outside the tile are still written.
+	 */
+	void initForWrite(int mapId, int extra);
+
+	/**
+	 * Writes anything that is still buffered and closes the output file.
+	 */
+	void finishWrite();
+
+	/**
+	 * @return the ID of the tile, as given to {@link #initForWrite(int, int)}.
+	 */
+	int getMapId();
+
+	/**
+	 * @return the bounds of the tile plus the overlap. Only valid once
+	 * {@link #initForWrite(int, int)} has been called.
+	 */
+	Area getExtendedBounds();
+
+	boolean nodeBelongsToThisArea(Node node);
+
+	void write(Node node) throws IOException;
+
+	void write(Way way) throws IOException;
+
+	void write(Relation rel) throws IOException;
+}
@@ -62,6 +62,21 @@ public class Utils {
 		else
 			return (int) ((l - DELTA) * (1 << 24)/360);
 	}
+
+	/**
+	 * Converts a coordinate in units of 10^-7 degrees (see
+	 * {@link Convert#parseFixedPoint(String)}) to map units. This gives the same
+	 * result as {@link #toMapUnit(double)}, but only uses integer arithmetic.
+	 *
+	 * @param value The lat or long in units of 10^-7 degrees.
+	 * @return An integer value in map units.
+	 */
+	public static int fixedPointToMapUnit(int value) {
+		// The DELTA used by toMapUnit(double) is 10 fixed point units, and
+		// 2^24 / (360 * 10^7) reduces to 2^14 / 3515625
+		long l = value > 0 ? value + 10L : value - 10L;
+		return (int) (l * (1 << 14) / 3515625);
+	}
 	
 	public static double toRadians(int latitude) {
 		return toDegrees(latitude) * Math.PI / 180;
@@ -83,6 +98,26 @@ public class Utils {
 	 * @throws IOException If the file cannot be opened for any reason.
 	 */
 	public static Reader openFile(String name, boolean backgroundReader) throws IOException {
+		return new InputStreamReader(openFileStream(name, backgroundReader, 1), Charset.forName("UTF-8"));
+	}
+
+	/**
+	 * Open a file and apply filters necessary to reading it such as decompression,
+	 * but leave the decoding of the raw bytes to the caller.
+	 *
+	 * @param name The file to open. gz, zip, bz2 are supported.
+	 * @param maxThreads The number of threads that can be used. If this is more than
+	 * one the file is read and decompressed in the background, with bz2 files being
+	 * decompressed by up to this many threads at once.
+	 * @return A stream that will read the (uncompressed) bytes of the file, positioned
+	 * at the beginning. The stream supports {@link InputStream#mark(int)}.
+	 * @throws IOException If the file cannot be opened for any reason.
+	 */
+	public static InputStream openFileStream(String name, int maxThreads) throws IOException {
+		return openFileStream(name, maxThreads > 1, maxThreads);
+	}
+
+	private static InputStream openFileStream(String name, boolean backgroundReader, int bzip2Threads) throws IOException {
 		InputStream is = new BufferedInputStream(new FileInputStream(name), 8192);
 		if (name.endsWith(".gz")) {
 			try {
@@ -92,8 +127,14 @@ public class Utils {
 			}
 		} else if (name.endsWith(".bz2")) {
 			try {
-				is.read(); is.read();
-				is = new CBZip2InputStream(is);
+				if (bzip2Threads > 1) {
+					// This does its own reading in the background
+					is = new ParallelBZip2InputStream(is, bzip2Threads);
+					backgroundReader = false;
+				} else {
+					is.read(); is.read();
+					is = new CBZip2InputStream(is);
+				}
 			} catch (IOException e) {
 				throw new IOException( "Could not read " + name + " as a bz2 compressed file", e);
 			}
@@ -115,6 +156,9 @@ public class Utils {
 		if (backgroundReader) {
 			is = new BackgroundInputStream(is);
 		}
-		return new InputStreamReader(is, Charset.forName("UTF-8"));
+		if (!is.markSupported()) {
+			is = new BufferedInputStream(is, 8192);
+		}
+		return is;
 	}
 }
\ No newline at end of file
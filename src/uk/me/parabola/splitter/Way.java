@@ -16,9 +16,9 @@ package uk.me.parabola.splitter;
  * @author Steve Ratcliffe
  */
 public class Way extends Element {
-	private final IntList refs = new IntList(10);
+	private final LongList refs = new LongList(10);
 
-	public void set(int id) {
+	public void set(long id) {
 		setId(id);
 	}
 
@@ -28,11 +28,11 @@ public class Way extends Element {
 		refs.clear();
 	}
 
-	public void addRef(int ref) {
+	public void addRef(long ref) {
 		refs.add(ref);
 	}
 
-	public IntList getRefs() {
+	public LongList getRefs() {
 		return refs;
 	}
 }
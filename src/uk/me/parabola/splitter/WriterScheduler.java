@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares the writing of the tiles out over a pool of threads.
+ * <p/>
+ * The elements for each writer are collected into small batches on the
+ * splitting thread, and each full batch is handed over to the writer's own
+ * queue. A writer is only passed to the pool when it has batches waiting, and
+ * only one thread works on a writer at a time, so the writers themselves don't
+ * need to be thread safe. The pool is a work-stealing one, so idle threads pick
+ * up whichever writers have work rather than being tied to particular tiles.
+ * <p/>
+ * There is a limit on the number of batches waiting across all of the writers
+ * rather than on each one, so a busy tile can build up a long backlog without
+ * holding up the others. Some statistics about the backlogs are kept, and
+ * displayed at the end.
+ */
+class WriterScheduler {
+	// The number of elements in each batch
+	private static final int BATCH_SIZE = 256;
+	// The number of batches that can be waiting for each thread in the pool
+	private static final int BATCHES_PER_THREAD = 32;
+	// The number of batches a thread writes for one tile before giving the others a turn
+	private static final int BATCHES_PER_TURN = 8;
+
+	private final TileWriter[] writers;
+	private final Queue[] queues;
+	private final ForkJoinPool pool;
+	private final int maxBatches;
+	// A permit for each batch that can be waiting to be written
+	private final Semaphore permits;
+	private volatile Throwable error;
+
+	// Only touched by the splitting thread
+	private long batchCount;
+	private long splitterWaits;
+
+	WriterScheduler(TileWriter[] writers, int threads) {
+		this.writers = writers;
+		queues = new Queue[writers.length];
+		for (int i = 0; i < writers.length; i++)
+			queues[i] = new Queue(writers[i]);
+		maxBatches = threads * BATCHES_PER_THREAD;
+		permits = new Semaphore(maxBatches);
+		pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("tile-writer-" + thread.getPoolIndex());
+				return thread;
+			}
+		}, null, true);
+	}
+
+	/**
+	 * Adds an element to be written out by one of the writers. This must only
+	 * be called from the splitting thread, and the element must not be changed
+	 * afterwards. {@link Element#release()} is called once it has been written.
+	 */
+	public void add(int writer, Element element) {
+		Queue queue = queues[writer];
+		queue.batch[queue.batchSize++] = element;
+		if (queue.batchSize == BATCH_SIZE)
+			handOver(queue);
+	}
+
+	private void handOver(Queue queue) {
+		checkError();
+		Element[] batch = queue.batch;
+		if (queue.batchSize < BATCH_SIZE)
+			batch = Arrays.copyOf(batch, queue.batchSize);
+		queue.batch = new Element[BATCH_SIZE];
+		queue.batchSize = 0;
+
+		if (!permits.tryAcquire()) {
+			splitterWaits++;
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while waiting for the tiles to be written", e);
+			}
+		}
+		batchCount++;
+		queue.elementCount += batch.length;
+		queue.pending.add(batch);
+		int backlog = queue.backlog.incrementAndGet();
+		if (backlog > queue.peakBacklog)
+			queue.peakBacklog = backlog;
+		if (queue.scheduled.compareAndSet(false, true))
+			pool.execute(queue);
+	}
+
+	/**
+	 * Writes out everything that is still waiting, and shuts down the pool.
+	 * The writers are not finished off.
+	 */
+	public void finish() {
+		for (Queue queue : queues) {
+			if (queue.batchSize > 0)
+				handOver(queue);
+		}
+		try {
+			// Once all the permits are back, every batch has been written
+			permits.acquire(maxBatches);
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for the tiles to be written", e);
+		}
+		checkError();
+
+		System.out.println("Wrote " + Utils.format(batchCount) + " batches on " + pool.getParallelism() + " threads, the splitter waited " +
+						Utils.format(splitterWaits) + " times for the writers to catch up");
+		Queue[] busiest = queues.clone();
+		Arrays.sort(busiest, new Comparator<Queue>() {
+			@Override
+			public int compare(Queue q1, Queue q2) {
+				return q1.peakBacklog > q2.peakBacklog ? -1 : q1.peakBacklog < q2.peakBacklog ? 1 : 0;
+			}
+		});
+		System.out.print("Largest backlogs:");
+		for (int i = 0; i < Math.min(5, busiest.length); i++) {
+			Queue queue = busiest[i];
+			System.out.print(' ' + String.valueOf(queue.writer.getMapId()) + " (" + queue.peakBacklog + " batches, " +
+							Utils.format(queue.elementCount) + " elements, " + queue.writeNanos / 1000000 + "ms)");
+		}
+		System.out.println();
+	}
+
+	/**
+	 * @return the highest number of batches that were waiting for the given writer at once.
+	 */
+	public int getPeakBacklog(int writer) {
+		return queues[writer].peakBacklog;
+	}
+
+	/**
+	 * @return the number of batches waiting for the given writer right now.
+	 */
+	public int getBacklog(int writer) {
+		return queues[writer].backlog.get();
+	}
+
+	private void checkError() {
+		if (error != null)
+			throw new RuntimeException("Failed to write the tiles", error);
+	}
+
+	private static void write(TileWriter writer, Element element) throws IOException {
+		if (element instanceof Node) {
+			writer.write((Node) element);
+		} else if (element instanceof Way) {
+			writer.write((Way) element);
+		} else if (element instanceof Relation) {
+			writer.write((Relation) element);
+		}
+	}
+
+	/**
+	 * The batches waiting for a single writer. When it is run, it writes some of
+	 * them out and then puts itself back in the pool if there are more.
+	 */
+	private class Queue implements Runnable {
+		private final TileWriter writer;
+		private final ConcurrentLinkedQueue<Element[]> pending = new ConcurrentLinkedQueue<Element[]>();
+		// Set while the queue is in the pool or being run
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicInteger backlog = new AtomicInteger();
+
+		// The batch being filled, only touched by the splitting thread
+		private Element[] batch = new Element[BATCH_SIZE];
+		private int batchSize;
+		private long elementCount;
+		private int peakBacklog;
+
+		// Only touched by the thread that is running the queue
+		private volatile long writeNanos;
+
+		Queue(TileWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			int count = 0;
+			Element[] next;
+			while (count < BATCHES_PER_TURN && (next = pending.poll()) != null) {
+				for (Element element : next) {
+					// Once something has gone wrong just keep the batches moving
+					if (error == null) {
+						try {
+							write(writer, element);
+						} catch (Throwable t) {
+							error = new RuntimeException("Failed to write " + element.getClass().getSimpleName().toLowerCase() + ' ' +
+											element.getId() + " to tile " + writer.getMapId(), t);
+						}
+					}
+					element.release();
+				}
+				backlog.decrementAndGet();
+				permits.release();
+				count++;
+			}
+			writeNanos += System.nanoTime() - start;
+
+			if (!pending.isEmpty()) {
+				// Let the other tiles have a turn
+				pool.execute(this);
+				return;
+			}
+			scheduled.set(false);
+			// A batch could have been added after the queue was found to be empty
+			// but before it was marked as not scheduled
+			if (!pending.isEmpty() && scheduled.compareAndSet(false, true))
+				pool.execute(this);
+		}
+	}
+}
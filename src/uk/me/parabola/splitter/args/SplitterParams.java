@@ -28,7 +28,7 @@ public interface SplitterParams {
 	@Option(description = "A default description to give to each area.")
 	String getDescription();
 
-	@Option(defaultValue = "255", description = "The maximum number of areas to process in a single pass. More areas require more memory. 1-255.")
+	@Option(defaultValue = "255", description = "The maximum number of areas to process in a single pass. More areas require more memory and more open files. 1-32767.")
 	int getMaxAreas();
 
 	@Option(defaultValue = "2000", description = "Nodes/ways/rels that fall outside an area will still be included if they are within this many map units.")
@@ -64,6 +64,12 @@ public interface SplitterParams {
 	@Option(description = "Don't trim empty space off the edges of tiles.")
 	boolean isNoTrim();
 
-	@Option(defaultValue = "auto", description = "The maximum number of threads used by splitter.")
+	@Option(defaultValue = "auto", description = "The maximum number of threads used by splitter. They are shared out between reading the input, processing it and writing and compressing the tiles.")
 	ThreadCount getMaxThreads();
+
+	@Option(defaultValue = "xml", description = "The format of the output files. Either xml for gzipped .osm.gz files, or pbf for .osm.pbf files.")
+	String getOutput();
+
+	@Option(defaultValue = "heap", description = "Where to hold the node and way maps while splitting. heap for the Java heap, direct for native memory outside of the heap (limited by -XX:MaxDirectMemorySize, falling back to mapped once that runs out), or mapped for a memory mapped temporary file.")
+	String getMapStorage();
 }
@@ -19,21 +19,28 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import uk.me.parabola.splitter.TagDictionary;
+
 /**
  * Abstract base class for reading in binary cache files
  */
 public abstract class AbstractStoreReader {
-	protected final LengthPrefixInputStream in;
+	protected final RecordInput in;
 	protected final KeyLookupReader keys;
-	protected int id;
+	protected long id;
 	protected Map<String, String> tags = new HashMap<String, String>(20);
+	private final TagDictionary dictionary = TagDictionary.getInstance();
 
 	public AbstractStoreReader(InputStream in, KeyLookupReader keys) throws IOException {
-		this.in = new LengthPrefixInputStream(new BufferedInputStream(in, 16384));
+		this((RecordInput) new LengthPrefixInputStream(new BufferedInputStream(in, 16384)), keys);
+	}
+
+	protected AbstractStoreReader(RecordInput in, KeyLookupReader keys) {
+		this.in = in;
 		this.keys = keys;
 	}
 
-	public int getId() {
+	public long getId() {
 		return id;
 	}
 
@@ -46,7 +53,7 @@ public abstract class AbstractStoreReader {
 			if (!in.next()) {
 				return false;
 			}
-			id = in.readInt();
+			id = in.readLong();
 			readHeader();
 			readTags();
 			return true;
@@ -55,17 +62,27 @@ public abstract class AbstractStoreReader {
 		}
 	}
 
-	protected LengthPrefixInputStream getIn() {
+	protected RecordInput getIn() {
 		return in;
 	}
 
 	protected abstract void readHeader() throws IOException;
 
-	private void readTags() throws IOException {
+	protected void readTags() throws IOException {
 		short keyId;
 		tags.clear();
 		while ((keyId = in.readShort()) != 0) {
-			tags.put(keys.get(keyId), in.readUTF());
+			tags.put(keys.get(keyId), dictionary.internValue(in.readUTF()));
+		}
+	}
+
+	/**
+	 * Moves past the tags without decoding them.
+	 */
+	protected void skipTags() throws IOException {
+		tags.clear();
+		while (in.readShort() != 0) {
+			in.skipBytes(in.readUnsignedShort());
 		}
 	}
 
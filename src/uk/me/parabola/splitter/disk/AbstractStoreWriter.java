@@ -15,6 +15,8 @@ package uk.me.parabola.splitter.disk;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import uk.me.parabola.splitter.TagDictionary;
+
 /**
  * Provides base functionality for writing elements out to disk in binary format
  */
@@ -22,6 +24,9 @@ public abstract class AbstractStoreWriter {
 
 	private final LengthPrefixOutputStream out;
 	private final KeyLookupWriter keys;
+	// The ID each key has been given in this file, indexed by its TagDictionary ID
+	private short[] keyIds = new short[256];
+	private final TagDictionary dictionary = TagDictionary.getInstance();
 
 	public AbstractStoreWriter(OutputStream out, KeyLookupWriter keys) {
 		this.out = new LengthPrefixOutputStream(out);
@@ -33,10 +38,24 @@ public abstract class AbstractStoreWriter {
 	}
 
 	public void writeTag(CharSequence key, CharSequence value) throws IOException {
-		out.writeShort(keys.set(key));
+		out.writeShort(getKeyId(key));
 		out.writeUTF(value);
 	}
 
+	private short getKeyId(CharSequence key) throws IOException {
+		int id = key instanceof String ? dictionary.getKeyId((String) key) : -1;
+		if (id < 0)
+			return keys.set(key);
+		if (id >= keyIds.length) {
+			short[] temp = new short[Math.max(id + 1, keyIds.length * 2)];
+			System.arraycopy(keyIds, 0, temp, 0, keyIds.length);
+			keyIds = temp;
+		}
+		if (keyIds[id] == 0)
+			keyIds[id] = keys.set(key);
+		return keyIds[id];
+	}
+
 	public void closeTags() throws IOException {
 		out.writeShort(0);
 	}
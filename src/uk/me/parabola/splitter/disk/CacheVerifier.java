@@ -34,6 +34,10 @@ import java.util.List;
  * @author Chris Miller
  */
 public class CacheVerifier {
+	// Written as the first line of the cache.entries file. This needs to be changed
+	// whenever the format of the cache files changes so that any old cache is rebuilt.
+	private static final String CACHE_VERSION = "version=4";
+
 	private final String cacheDirectory;	// the cache location
 	private final File entriesFile;			 // the file containing a list of the cache entries
 	private final List<String> filenames; // the .osm files we expect to have been cached
@@ -80,6 +84,8 @@ public class CacheVerifier {
 	public void saveEntries() throws IOException {
 		Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(entriesFile), 4096), "UTF-8");
 		try {
+			out.write(CACHE_VERSION);
+			out.write('\n');
 			for (String filename : filenames) {
 				File file = new File(filename);
 				if (file.exists()) {
@@ -107,6 +113,11 @@ public class CacheVerifier {
 		int count = 0;
 		String line;
 		try {
+			if (!CACHE_VERSION.equals(in.readLine())) {
+				System.out.println("The cache was created by a different version of the splitter. The cache will be rebuilt");
+				return null;
+			}
+			count++;
 			while ((line = in.readLine()) != null) {
 				count++;
 				String[] parts = line.split(",", 3);
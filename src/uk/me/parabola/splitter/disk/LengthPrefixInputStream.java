@@ -29,7 +29,7 @@ import uk.me.parabola.splitter.Utils;
  *
  * @author Chris Miller
  */
-public class LengthPrefixInputStream extends InputStream {
+public class LengthPrefixInputStream extends InputStream implements RecordInput {
 
 	private InputStream in;
 	private byte[] buf;
@@ -87,6 +87,31 @@ public class LengthPrefixInputStream extends InputStream {
 						buf[index++] & 0xff;
 	}
 
+	/**
+	 * Reads a value written by {@link LengthPrefixOutputStream#writeVarLong}.
+	 */
+	public long readVarLong() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return result;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Reads a value written by {@link LengthPrefixOutputStream#writeSignedVarLong}.
+	 */
+	public long readSignedVarLong() throws IOException {
+		return unZigZag(readVarLong());
+	}
+
+	static long unZigZag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
 	public double readDouble() throws IOException {
 		return Double.longBitsToDouble(readLong());
 	}
@@ -159,6 +184,11 @@ public class LengthPrefixInputStream extends InputStream {
 		return new String(chararr, 0, chararr_count);
 	}
 
+	public void skipBytes(int length) throws IOException {
+		ensureData(length);
+		index += length;
+	}
+
 	private byte[] lengthBuf = new byte[2];
 
 	public boolean next() throws IOException {
@@ -73,6 +73,31 @@ public class LengthPrefixOutputStream extends OutputStream {
 		buf[index++] = (byte) v;
 	}
 
+	/**
+	 * Writes an unsigned value as a varint: seven bits to a byte, with the top
+	 * bit set on every byte but the last. Small values take up a single byte.
+	 */
+	public final void writeVarLong(long v) throws IOException {
+		ensureCapacity(10);
+		while ((v & ~0x7FL) != 0) {
+			buf[index++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[index++] = (byte) v;
+	}
+
+	/**
+	 * Writes a signed value as a zig-zag encoded varint, so that small negative
+	 * values are as short as small positive ones.
+	 */
+	public final void writeSignedVarLong(long v) throws IOException {
+		writeVarLong(zigZag(v));
+	}
+
+	static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
 	public final void writeDouble(double v) throws IOException {
 		writeLong(Double.doubleToLongBits(v));
 	}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.disk;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import uk.me.parabola.splitter.Utils;
+
+/**
+ * Reads the records in a file written by a {@link LengthPrefixOutputStream}
+ * by memory mapping it, rather than reading it through a stream.
+ * <p/>
+ * The file is mapped a large window at a time, and the fields of each record
+ * are decoded straight from the mapped buffer. Nothing is copied, so once the
+ * file is in the operating system's cache, reading it again on the next pass
+ * is limited only by the decoding.
+ */
+public class MappedRecordReader implements RecordInput {
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+
+	private MappedByteBuffer window;
+	// The position in the file of the start of the window
+	private long windowStart;
+	// The position in the file of the end of the current record
+	private long recordEnd;
+	// The position in the window of the next field, and of the end of the current record
+	private int index;
+	private int limit;
+
+	private char[] chars = new char[256];
+
+	public MappedRecordReader(String filename) throws IOException {
+		this(filename, WINDOW_SIZE);
+	}
+
+	MappedRecordReader(String filename, int windowSize) throws IOException {
+		file = new RandomAccessFile(filename, "r");
+		channel = file.getChannel();
+		size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		long pos = recordEnd;
+		if (pos >= size)
+			return false;
+		if (size - pos < 2) {
+			System.out.println("Unexpected EOF reached while reading segment length. Only 1 of 2 bytes read. Total bytes read " + Utils.format(pos));
+			return false;
+		}
+		mapWindow(pos, (int) Math.min(6, size - pos));
+		int p = (int) (pos - windowStart);
+		int len = window.getShort(p) & 0xffff;
+		p += 2;
+		if (len == 0xFFFF) {
+			// The length is held in an int rather than a short
+			if (size - pos < 6) {
+				System.out.println("Unexpected EOF reached while reading segment length. Total bytes read " + Utils.format(pos));
+				return false;
+			}
+			len = window.getInt(p);
+			p += 4;
+		}
+		long start = windowStart + p;
+		if (start + len > size) {
+			System.out.println("Unexpected EOF reached while loading segment. Expected " + len + " bytes, only " + (size - start) +
+							" are left. Total bytes read " + Utils.format(start));
+			return false;
+		}
+		mapWindow(start, len);
+		index = (int) (start - windowStart);
+		limit = index + len;
+		recordEnd = start + len;
+		return true;
+	}
+
+	@Override
+	public int remaining() {
+		return limit - index;
+	}
+
+	/**
+	 * Makes sure that the given part of the file is in the current window.
+	 */
+	private void mapWindow(long pos, int length) throws IOException {
+		if (window != null && pos >= windowStart && pos + length <= windowStart + window.capacity())
+			return;
+		long mapSize = Math.min(Math.max(windowSize, length), size - pos);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapSize);
+		windowStart = pos;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		ensureData(1);
+		return window.get(index++);
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensureData(2);
+		short result = window.getShort(index);
+		index += 2;
+		return result;
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensureData(4);
+		int result = window.getInt(index);
+		index += 4;
+		return result;
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		ensureData(8);
+		long result = window.getLong(index);
+		index += 8;
+		return result;
+	}
+
+	@Override
+	public long readVarLong() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return result;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	@Override
+	public long readSignedVarLong() throws IOException {
+		return LengthPrefixInputStream.unZigZag(readVarLong());
+	}
+
+	/**
+	 * Decodes a string in the modified UTF-8 that {@link LengthPrefixOutputStream#writeUTF}
+	 * writes, straight from the mapped buffer.
+	 */
+	@Override
+	public String readUTF() throws IOException {
+		int utflen = readUnsignedShort();
+		ensureData(utflen);
+		if (chars.length < utflen)
+			chars = new char[Math.max(utflen, chars.length * 2)];
+
+		int end = index + utflen;
+		int count = 0;
+		while (index < end) {
+			int c = window.get(index) & 0xff;
+			if (c < 0x80) {
+				index++;
+				chars[count++] = (char) c;
+			} else if (c >> 5 == 0x06) {
+				if (index + 2 > end)
+					throw new UTFDataFormatException("malformed input: partial character at end");
+				int c2 = window.get(index + 1);
+				if ((c2 & 0xC0) != 0x80)
+					throw new UTFDataFormatException("malformed input around byte " + (index + utflen - end));
+				chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+				index += 2;
+			} else if (c >> 4 == 0x0E) {
+				if (index + 3 > end)
+					throw new UTFDataFormatException("malformed input: partial character at end");
+				int c2 = window.get(index + 1);
+				int c3 = window.get(index + 2);
+				if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80)
+					throw new UTFDataFormatException("malformed input around byte " + (index + utflen - end));
+				chars[count++] = (char) ((c & 0x0F) << 12 | (c2 & 0x3F) << 6 | (c3 & 0x3F));
+				index += 3;
+			} else {
+				throw new UTFDataFormatException("malformed input around byte " + (index + utflen - end));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	@Override
+	public void skipBytes(int length) throws IOException {
+		ensureData(length);
+		index += length;
+	}
+
+	private void ensureData(int len) throws IOException {
+		if (index + len > limit)
+			throw new IOException("Attempt was made to read " + len + " bytes when there are only " + (limit - index) + " remaining");
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+}
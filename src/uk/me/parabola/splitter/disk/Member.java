@@ -17,10 +17,10 @@ package uk.me.parabola.splitter.disk;
  */
 public class Member {
 	private MemberType type;
-	private int id;
+	private long id;
 	private String role;
 
-	public Member(MemberType type, int id, String role) {
+	public Member(MemberType type, long id, String role) {
 		this.type = type;
 		this.id = id;
 		this.role = role;
@@ -30,7 +30,7 @@ public class Member {
 		return type;
 	}
 
-	public int getId() {
+	public long getId() {
 		return id;
 	}
 
@@ -12,37 +12,78 @@
  */
 package uk.me.parabola.splitter.disk;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * Reads in nodes from a binary format
+ * Reads in nodes from the binary format written by a {@link NodeStoreWriter}
  */
 public class NodeStoreReader extends AbstractStoreReader {
-	private double lat;
-	private double lon;
+	// Set if only the IDs and coordinates are wanted
+	private final boolean skipTags;
+	private int lat;
+	private int lon;
 
 	public NodeStoreReader(String filename) throws IOException {
-		this(new FileInputStream(new File(filename)), new KeyLookupReader(filename + ".keys"));
+		this(filename, false);
+	}
+
+	/**
+	 * @param skipTags {@code true} if only the IDs and coordinates are wanted. The
+	 * tags are skipped over without being decoded, and {@link #getTags()} is always empty.
+	 */
+	public NodeStoreReader(String filename, boolean skipTags) throws IOException {
+		super(new MappedRecordReader(filename), new KeyLookupReader(filename + ".keys"));
+		this.skipTags = skipTags;
 	}
 
 	public NodeStoreReader(InputStream in, KeyLookupReader keys) throws IOException {
+		this(in, keys, false);
+	}
+
+	public NodeStoreReader(InputStream in, KeyLookupReader keys, boolean skipTags) throws IOException {
 		super(in, keys);
+		this.skipTags = skipTags;
 	}
 
-	public double getLat() {
+	public int getLat() {
 		return lat;
 	}
 
-	public double getLon() {
+	public int getLon() {
 		return lon;
 	}
 
+	@Override
+	public boolean next() throws IOException {
+		try {
+			while (getIn().remaining() == 0) {
+				if (!getIn().next())
+					return false;
+				// The first node in each record is relative to zero
+				id = 0;
+				lat = 0;
+				lon = 0;
+			}
+			id += getIn().readSignedVarLong();
+			readHeader();
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
 	@Override
 	protected void readHeader() throws IOException {
-		lat = getIn().readDouble();
-		lon = getIn().readDouble();
+		long latBits = getIn().readVarLong();
+		lat += (int) LengthPrefixInputStream.unZigZag(latBits >>> 1);
+		lon += (int) getIn().readSignedVarLong();
+		if ((latBits & 1) == 0)
+			tags.clear();
+		else if (skipTags)
+			skipTags();
+		else
+			readTags();
 	}
 }
\ No newline at end of file
@@ -18,8 +18,26 @@ import java.io.OutputStream;
 
 /**
  * Persists a collection of nodes to binary format on disk for later retrieval
+ * <p/>
+ * The nodes are written in records of up to {@link #NODES_PER_RECORD} nodes.
+ * Within a record, the ID and coordinates of each node are stored as varints
+ * holding the difference from the previous node. The bottom bit of the
+ * latitude is set if the node has tags; if it doesn't, nothing more is written.
  */
 public class NodeStoreWriter extends AbstractStoreWriter {
+	static final int NODES_PER_RECORD = 256;
+
+	// The node being written
+	private long id;
+	private int lat;
+	private int lon;
+	private boolean headerWritten;
+
+	// The previous node in the current record
+	private long lastId;
+	private int lastLat;
+	private int lastLon;
+	private int nodeCount;
 
 	public NodeStoreWriter(String filename) throws IOException {
 		this(new FileOutputStream(filename), new KeyLookupWriter(filename + ".keys"));
@@ -29,9 +47,64 @@ public class NodeStoreWriter extends AbstractStoreWriter {
 		super(out, keys);
 	}
 
-	public void write(int nodeId, double lat, double lon) throws IOException {
-		getOut().writeInt(nodeId);
-		getOut().writeDouble(lat);
-		getOut().writeDouble(lon);
+	/**
+	 * @param lat the latitude in units of 10^-7 degrees.
+	 * @param lon the longitude in units of 10^-7 degrees.
+	 */
+	public void write(long nodeId, int lat, int lon) throws IOException {
+		this.id = nodeId;
+		this.lat = lat;
+		this.lon = lon;
+		headerWritten = false;
+	}
+
+	@Override
+	public void writeTag(CharSequence key, CharSequence value) throws IOException {
+		if (!headerWritten)
+			writeHeader(true);
+		super.writeTag(key, value);
+	}
+
+	@Override
+	public void closeTags() throws IOException {
+		if (headerWritten)
+			super.closeTags();
+		else
+			writeHeader(false);
+	}
+
+	private void writeHeader(boolean hasTags) throws IOException {
+		getOut().writeSignedVarLong(id - lastId);
+		getOut().writeVarLong(LengthPrefixOutputStream.zigZag((long) lat - lastLat) << 1 | (hasTags ? 1 : 0));
+		getOut().writeSignedVarLong((long) lon - lastLon);
+		lastId = id;
+		lastLat = lat;
+		lastLon = lon;
+		headerWritten = true;
+	}
+
+	/**
+	 * Finishes the current node. The nodes are only written through to the
+	 * underlying stream once a whole record has been built up.
+	 */
+	@Override
+	public void next() throws IOException {
+		if (++nodeCount == NODES_PER_RECORD)
+			endRecord();
+	}
+
+	private void endRecord() throws IOException {
+		super.next();
+		nodeCount = 0;
+		lastId = 0;
+		lastLat = 0;
+		lastLon = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (nodeCount > 0)
+			endRecord();
+		super.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.disk;
+
+import java.io.IOException;
+
+/**
+ * Reads the length prefixed records that are written by a
+ * {@link LengthPrefixOutputStream}, one record at a time.
+ */
+public interface RecordInput {
+	/**
+	 * Moves on to the next record.
+	 * @return {@code false} if there are no more records.
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return the number of bytes of the current record that haven't been read yet.
+	 */
+	int remaining();
+
+	byte readByte() throws IOException;
+
+	short readShort() throws IOException;
+
+	int readUnsignedShort() throws IOException;
+
+	int readInt() throws IOException;
+
+	long readLong() throws IOException;
+
+	long readVarLong() throws IOException;
+
+	long readSignedVarLong() throws IOException;
+
+	String readUTF() throws IOException;
+
+	/**
+	 * Moves past the given number of bytes in the current record without reading them.
+	 */
+	void skipBytes(int length) throws IOException;
+
+	void close() throws IOException;
+}
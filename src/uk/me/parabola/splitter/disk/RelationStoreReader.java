@@ -12,8 +12,6 @@
  */
 package uk.me.parabola.splitter.disk;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -27,7 +25,7 @@ public class RelationStoreReader extends AbstractStoreReader {
 	private final KeyLookupReader roles;
 
 	public RelationStoreReader(String filename) throws IOException {
-		this(new FileInputStream(new File(filename)), new KeyLookupReader(filename + ".keys"), new KeyLookupReader(filename + ".roles"));
+		this(new MappedRecordReader(filename), new KeyLookupReader(filename + ".keys"), new KeyLookupReader(filename + ".roles"));
 	}
 
 	public RelationStoreReader(InputStream in, KeyLookupReader keys, KeyLookupReader roles) throws IOException {
@@ -35,6 +33,11 @@ public class RelationStoreReader extends AbstractStoreReader {
 		this.roles = roles;
 	}
 
+	private RelationStoreReader(RecordInput in, KeyLookupReader keys, KeyLookupReader roles) {
+		super(in, keys);
+		this.roles = roles;
+	}
+
 	public List<Member> getMembers() {
 		return members;
 	}
@@ -45,7 +48,7 @@ public class RelationStoreReader extends AbstractStoreReader {
 		byte typeByte;
 		while ((typeByte = getIn().readByte()) != 0) {
 			MemberType type = MemberType.values()[typeByte - 1];
-			int id = getIn().readInt();
+			long id = getIn().readLong();
 			short roleId = getIn().readShort();
 			String role = roles.get(roleId);
 			members.add(new Member(type, id, role));
@@ -31,13 +31,13 @@ public class RelationStoreWriter extends AbstractStoreWriter {
 		this.roles = roles;
 	}
 
-	public void write(int id) throws IOException {
-		getOut().writeInt(id);
+	public void write(long id) throws IOException {
+		getOut().writeLong(id);
 	}
 
-	public void writeMember(MemberType type, int id, CharSequence role) throws IOException {
+	public void writeMember(MemberType type, long id, CharSequence role) throws IOException {
 		getOut().writeByte(type.ordinal() + 1);
-		getOut().writeInt(id);
+		getOut().writeLong(id);
 		getOut().writeShort(roles.set(role));
 	}
 
@@ -12,8 +12,6 @@
  */
 package uk.me.parabola.splitter.disk;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -21,34 +19,54 @@ import java.io.InputStream;
  * Reads in ways from a binary file format
  */
 public class WayStoreReader extends AbstractStoreReader {
-	private int[] buf = new int[256];
-	private int[] nodeIds;
+	private long[] buf = new long[256];
+	private int nodeCount;
 
 	public WayStoreReader(String filename) throws IOException {
-		this(new FileInputStream(new File(filename)), new KeyLookupReader(filename + ".keys"));
+		this(new MappedRecordReader(filename), new KeyLookupReader(filename + ".keys"));
 	}
 
 	public WayStoreReader(InputStream in, KeyLookupReader keys) throws IOException {
 		super(in, keys);
 	}
 
-	public int[] getNodeIds() {
+	private WayStoreReader(RecordInput in, KeyLookupReader keys) {
+		super(in, keys);
+	}
+
+	/**
+	 * @return a copy of the IDs of the nodes in the way.
+	 */
+	public long[] getNodeIds() {
+		long[] nodeIds = new long[nodeCount];
+		System.arraycopy(buf, 0, nodeIds, 0, nodeCount);
 		return nodeIds;
 	}
 
+	/**
+	 * @return the IDs of the nodes in the way, without copying them. Only the first
+	 * {@link #getNodeCount()} entries are valid, and only until {@link #next()} is called.
+	 */
+	public long[] getNodeIdBuffer() {
+		return buf;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
 	@Override
 	protected void readHeader() throws IOException {
 		int i = 0;
-		int id;
-		while ((id = getIn().readInt()) != 0) {
+		long id;
+		while ((id = getIn().readLong()) != 0) {
 			if (buf.length <= i) {
-				int[] temp = new int[(buf.length * 3) / 2 + 1];
+				long[] temp = new long[(buf.length * 3) / 2 + 1];
 				System.arraycopy(buf, 0, temp, 0, buf.length);
 				buf = temp;
 			}
 			buf[i++] = id;
 		}
-		nodeIds = new int[i];
-		System.arraycopy(buf, 0, nodeIds, 0, i);
+		nodeCount = i;
 	}
 }
\ No newline at end of file
@@ -29,15 +29,15 @@ public class WayStoreWriter extends AbstractStoreWriter {
 		super(out, keys);
 	}
 
-	public void write(int id) throws IOException {
-		getOut().writeInt(id);
+	public void write(long id) throws IOException {
+		getOut().writeLong(id);
 	}
 
-	public void writeNodeRef(int id) throws IOException {
-		getOut().writeInt(id);
+	public void writeNodeRef(long id) throws IOException {
+		getOut().writeLong(id);
 	}
 
 	public void closeNodeRefs() throws IOException {
-		getOut().writeInt(0);
+		getOut().writeLong(0);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A processor for the tests that records each element it is given as a
+ * single line of text, so that the output of the readers can be compared.
+ */
+class EventRecorder implements MapProcessor {
+	final List<String> events = new ArrayList<String>();
+	Area bounds;
+	private final boolean startNodeOnly;
+	private final StringBuilder current = new StringBuilder();
+
+	EventRecorder() {
+		this(false);
+	}
+
+	EventRecorder(boolean startNodeOnly) {
+		this.startNodeOnly = startNodeOnly;
+	}
+
+	@Override
+	public boolean isStartNodeOnly() {
+		return startNodeOnly;
+	}
+
+	@Override
+	public void boundTag(Area bounds) {
+		this.bounds = bounds;
+	}
+
+	@Override
+	public void startNode(long id, int lat, int lon) {
+		current.append("node ").append(id).append(' ').append(lat).append(' ').append(lon);
+		// endNode() isn't called when only the start of the nodes is wanted
+		if (startNodeOnly)
+			end();
+	}
+
+	@Override
+	public void startWay(long id) {
+		current.append("way ").append(id);
+	}
+
+	@Override
+	public void startRelation(long id) {
+		current.append("relation ").append(id);
+	}
+
+	@Override
+	public void nodeTag(String key, String value) {
+		current.append(' ').append(key).append('=').append(value);
+	}
+
+	@Override
+	public void wayTag(String key, String value) {
+		current.append(' ').append(key).append('=').append(value);
+	}
+
+	@Override
+	public void relationTag(String key, String value) {
+		current.append(' ').append(key).append('=').append(value);
+	}
+
+	@Override
+	public void wayNode(long nodeId) {
+		current.append(' ').append(nodeId);
+	}
+
+	@Override
+	public void relationNode(long nodeId, String role) {
+		current.append(" node:").append(nodeId).append(':').append(role);
+	}
+
+	@Override
+	public void relationWay(long wayId, String role) {
+		current.append(" way:").append(wayId).append(':').append(role);
+	}
+
+	@Override
+	public void endNode() {
+		end();
+	}
+
+	@Override
+	public void endWay() {
+		end();
+	}
+
+	@Override
+	public void endRelation() {
+		end();
+	}
+
+	private void end() {
+		events.add(current.toString());
+		current.setLength(0);
+	}
+
+	@Override
+	public void endMap() {
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the grid that finds the areas a point belongs to.
+ */
+public class TestAreaGrid {
+	@Test
+	public void testOverlappingAreas() {
+		Area[] areas = {
+						new Area(0, 0, 1000, 1000),
+						new Area(900, 900, 3000, 2000),
+						new Area(-5000, 1000, 0, 200000),
+						new Area(500, 500, 500, 500),
+		};
+		AreaGrid grid = new AreaGrid(areas);
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			int lat = random.nextInt(12000) - 7000;
+			int lon = random.nextInt(210000) - 5000;
+			check(grid, areas, lat, lon);
+		}
+		for (Area area : areas) {
+			check(grid, areas, area.getMinLat(), area.getMinLong());
+			check(grid, areas, area.getMaxLat(), area.getMaxLong());
+			check(grid, areas, area.getMaxLat() + 1, area.getMaxLong());
+			check(grid, areas, area.getMinLat() - 1, area.getMinLong());
+		}
+		Assert.assertEquals(grid.getCandidates(-10000, 0).length, 0);
+		Assert.assertEquals(new AreaGrid(new Area[0]).getCandidates(0, 0).length, 0);
+	}
+
+	@Test
+	public void testTilesOfDifferentSizes() {
+		// Cut a large area up into tiles in the way the splitter does, so that
+		// they don't overlap, with some tiles much smaller than the others
+		List<Area> tiles = new ArrayList<Area>();
+		Random random = new Random(2);
+		cut(new Area(-0x20000, -0x40000, 0x20000, 0x40000), random, tiles);
+		Area[] areas = tiles.toArray(new Area[tiles.size()]);
+		Assert.assertTrue(areas.length > 100, "Only " + areas.length + " tiles");
+
+		AreaGrid grid = new AreaGrid(areas);
+		for (int i = 0; i < 200000; i++) {
+			int lat = random.nextInt(0x50000) - 0x28000;
+			int lon = random.nextInt(0xa0000) - 0x50000;
+			check(grid, areas, lat, lon);
+			// The cells are no bigger than the smallest tile, so they can't overlap more than four
+			Assert.assertTrue(grid.getCandidates(lat, lon).length <= 4, "Too many candidates for " + lat + ',' + lon);
+		}
+		for (Area area : areas) {
+			for (int lat = area.getMinLat() - 1; lat <= area.getMinLat() + 1; lat++) {
+				for (int lon = area.getMinLong() - 1; lon <= area.getMinLong() + 1; lon++)
+					check(grid, areas, lat, lon);
+			}
+			check(grid, areas, area.getMaxLat(), area.getMaxLong());
+			check(grid, areas, area.getMaxLat() + 1, area.getMaxLong() + 1);
+		}
+	}
+
+	@Test
+	public void testTinyAreaInLargeBounds() {
+		// Cells the size of the small area would be far too many, so they are bigger
+		Area[] areas = {
+						new Area(-0x400000, -0x800000, 0x400000, 0x800000),
+						new Area(10, 10, 12, 12),
+						new Area(11, 11, 2000, 2000),
+		};
+		AreaGrid grid = new AreaGrid(areas);
+		Random random = new Random(3);
+		for (int i = 0; i < 100000; i++)
+			check(grid, areas, random.nextInt(4000) - 1000, random.nextInt(4000) - 1000);
+		for (int lat = 8; lat < 15; lat++) {
+			for (int lon = 8; lon < 15; lon++)
+				check(grid, areas, lat, lon);
+		}
+	}
+
+	/**
+	 * Splits an area up into a random number of tiles that share their edges,
+	 * in the same way that the areas in the splitter are made.
+	 */
+	private static void cut(Area area, Random random, List<Area> tiles) {
+		int height = area.getHeight();
+		int width = area.getWidth();
+		if (Math.max(height, width) < 0x1000 || (tiles.size() > 20 && random.nextInt(4) == 0)) {
+			tiles.add(area);
+			return;
+		}
+		if (height > width) {
+			int lat = area.getMinLat() + height / 4 + random.nextInt(height / 2);
+			cut(new Area(area.getMinLat(), area.getMinLong(), lat, area.getMaxLong()), random, tiles);
+			cut(new Area(lat, area.getMinLong(), area.getMaxLat(), area.getMaxLong()), random, tiles);
+		} else {
+			int lon = area.getMinLong() + width / 4 + random.nextInt(width / 2);
+			cut(new Area(area.getMinLat(), area.getMinLong(), area.getMaxLat(), lon), random, tiles);
+			cut(new Area(area.getMinLat(), lon, area.getMaxLat(), area.getMaxLong()), random, tiles);
+		}
+	}
+
+	/**
+	 * Checks that the candidates include every area that contains the point, in order.
+	 */
+	private static void check(AreaGrid grid, Area[] areas, int lat, int lon) {
+		int[] candidates = grid.getCandidates(lat, lon);
+		int next = 0;
+		for (int i = 0; i < areas.length; i++) {
+			if (next < candidates.length && candidates[next] == i) {
+				next++;
+			} else {
+				Assert.assertFalse(areas[i].contains(lat, lon), "Area " + i + " is missing for " + lat + ',' + lon);
+			}
+		}
+		Assert.assertEquals(next, candidates.length, "Candidates are not in order for " + lat + ',' + lon);
+	}
+}
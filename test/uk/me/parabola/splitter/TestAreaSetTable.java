@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+
+package uk.me.parabola.splitter;
+
+import java.util.BitSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the encoding of sets of areas.
+ */
+public class TestAreaSetTable {
+	@Test
+	public void testSmallSets() {
+		AreaSetTable table = new AreaSetTable();
+		int set = table.add(0, 0);
+		Assert.assertEquals(toBitSet(table, set), bits(0));
+		Assert.assertEquals(table.add(set, 0), set);
+		set = table.add(set, AreaSetTable.MAX_AREAS - 1);
+		Assert.assertTrue(set > 0);
+		Assert.assertEquals(toBitSet(table, set), bits(0, AreaSetTable.MAX_AREAS - 1));
+		Assert.assertEquals(table.getOverflowCount(), 0);
+		Assert.assertEquals(toBitSet(table, 0), bits());
+	}
+
+	@Test
+	public void testLargeSets() {
+		AreaSetTable table = new AreaSetTable();
+		int set = table.add(table.add(table.add(0, 3000), 5), 9);
+		Assert.assertTrue(set < 0);
+		Assert.assertEquals(toBitSet(table, set), bits(3000, 5, 9));
+		Assert.assertEquals(table.add(set, 5), set);
+
+		// The same set built up in a different order is shared
+		int other = table.add(table.add(table.add(0, 9), 3000), 5);
+		Assert.assertEquals(other, set);
+		Assert.assertEquals(table.getOverflowCount(), 1);
+
+		int bigger = set;
+		for (int i = 100; i < 200; i++)
+			bigger = table.add(bigger, i);
+		BitSet expected = bits(3000, 5, 9);
+		expected.set(100, 200);
+		Assert.assertEquals(toBitSet(table, bigger), expected);
+		// The first set hasn't changed
+		Assert.assertEquals(toBitSet(table, set), bits(3000, 5, 9));
+	}
+
+	@Test
+	public void testGetSet() {
+		AreaSetTable table = new AreaSetTable();
+		Assert.assertEquals(table.getSet(bits()), 0);
+		BitSet areas = bits(7);
+		Assert.assertEquals(table.getSet(areas), table.add(0, 7));
+		areas.set(200);
+		int set = table.getSet(areas);
+		Assert.assertTrue(set > 0);
+		Assert.assertEquals(toBitSet(table, set), areas);
+
+		areas = bits(1, 2, 3, 250);
+		set = table.getSet(areas);
+		Assert.assertTrue(set < 0);
+		Assert.assertEquals(toBitSet(table, set), bits(1, 2, 3, 250));
+		// The caller can reuse its BitSet without changing the stored set
+		areas.clear();
+		Assert.assertEquals(toBitSet(table, set), bits(1, 2, 3, 250));
+		Assert.assertEquals(table.getSet(bits(250, 3, 2, 1)), set);
+		Assert.assertEquals(table.getOverflowCount(), 1);
+		Assert.assertEquals(table.add(table.add(table.add(table.add(0, 250), 1), 2), 3), set);
+
+		// Adding to a target merges in the areas without losing what's there
+		BitSet target = bits(0, 2);
+		table.addTo(set, target);
+		Assert.assertEquals(target, bits(0, 1, 2, 3, 250));
+	}
+
+	private static BitSet toBitSet(AreaSetTable table, int set) {
+		BitSet result = new BitSet();
+		table.addTo(set, result);
+		return result;
+	}
+
+	private static BitSet bits(int... areas) {
+		BitSet result = new BitSet();
+		for (int area : areas)
+			result.set(area);
+		return result;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import uk.me.parabola.splitter.disk.CacheVerifier;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for writing the map to the disk cache and loading it back.
+ */
+public class TestCachingMapProcessor {
+
+	@Test
+	public void testPassedOn() throws IOException {
+		EventRecorder expected = new EventRecorder();
+		send(expected);
+
+		File dir = createCacheDir();
+		try {
+			EventRecorder recorder = new EventRecorder();
+			send(new CachingMapProcessor(dir.getPath(), createVerifier(dir), recorder));
+			Assert.assertEquals(recorder.events, expected.events);
+			Assert.assertEquals(recorder.bounds.toHexString(), expected.bounds.toHexString());
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		EventRecorder expected = new EventRecorder();
+		send(expected);
+
+		File dir = createCacheDir();
+		try {
+			send(new CachingMapProcessor(dir.getPath(), createVerifier(dir), new EventRecorder()));
+			EventRecorder recorder = new EventRecorder();
+			BinaryMapLoader loader = new BinaryMapLoader(dir.getPath(), recorder);
+			loader.load();
+			Assert.assertEquals(sortTags(recorder.events), sortTags(expected.events));
+			Assert.assertEquals(loader.getNodeCount(), 2);
+			Assert.assertEquals(loader.getWayCount(), 2);
+			Assert.assertEquals(loader.getRelationCount(), 2);
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testStartNodeOnly() throws IOException {
+		File dir = createCacheDir();
+		try {
+			EventRecorder written = new EventRecorder(true);
+			send(new CachingMapProcessor(dir.getPath(), createVerifier(dir), written));
+			// Everything is cached, but only the start of the nodes is passed on
+			Assert.assertEquals(written.events, Arrays.asList(
+							"node 1 515000000 -1000000",
+							"node 2 -10 20"));
+
+			EventRecorder read = new EventRecorder(true);
+			new BinaryMapLoader(dir.getPath(), read).load();
+			Assert.assertEquals(read.events, written.events);
+			EventRecorder all = new EventRecorder();
+			new BinaryMapLoader(dir.getPath(), all).load();
+			Assert.assertEquals(all.events.size(), 6);
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private static void send(MapProcessor processor) {
+		processor.boundTag(new Area(1, 2, 3, 4));
+
+		processor.startNode(1, 515000000, -1000000);
+		processor.nodeTag("name", "first");
+		processor.nodeTag("amenity", "pub");
+		processor.endNode();
+		processor.startNode(2, -10, 20);
+		processor.endNode();
+
+		processor.startWay(10);
+		processor.wayNode(1);
+		processor.wayNode(2);
+		processor.wayNode(1);
+		processor.wayTag("highway", "residential");
+		processor.endWay();
+		processor.startWay(11);
+		processor.wayNode(2);
+		processor.wayNode(1);
+		processor.endWay();
+
+		processor.startRelation(20);
+		processor.relationNode(1, "stop");
+		processor.relationWay(10, "");
+		processor.relationTag("type", "route");
+		processor.endRelation();
+		processor.startRelation(21);
+		processor.endRelation();
+
+		processor.endMap();
+	}
+
+	/**
+	 * The cache doesn't keep the order of the tags, so put them in order
+	 * before the events are compared.
+	 */
+	private static List<String> sortTags(List<String> events) {
+		List<String> result = new ArrayList<String>();
+		for (String event : events) {
+			StringBuilder sb = new StringBuilder();
+			List<String> tags = new ArrayList<String>();
+			for (String s : event.split(" ")) {
+				if (s.indexOf('=') >= 0)
+					tags.add(s);
+				else
+					sb.append(s).append(' ');
+			}
+			Collections.sort(tags);
+			for (String tag : tags)
+				sb.append(tag).append(' ');
+			result.add(sb.toString());
+		}
+		return result;
+	}
+
+	private static File createCacheDir() throws IOException {
+		File dir = File.createTempFile("splitter", "cache");
+		Assert.assertTrue(dir.delete() && dir.mkdir());
+		return dir;
+	}
+
+	private static CacheVerifier createVerifier(File dir) {
+		return new CacheVerifier(dir.getPath(), Collections.<String>emptyList());
+	}
+
+	private static void delete(File dir) {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the reader that parses a file in chunks on several threads.
+ */
+public class TestChunkedOSMReader {
+	private static final String DOCUMENT = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+					"<osm version=\"0.6\">\n" +
+					"<bounds minlat=\"51\" minlon=\"-1\" maxlat=\"52\" maxlon=\"1\"/>\n" +
+					"<node id=\"1\" lat=\"51.5\" lon=\"-0.25\"/>\n" +
+					"<node id=\"2\" lat=\"51.6\" lon=\"-0.5\">\n" +
+					"  <tag k=\"name\" v=\"Caf\u00e9 \u4e2d\uD83D\uDE00 &lt;node id=&quot;9&quot;&gt;\"/>\n" +
+					"  <tag k=\"amenity\" v=\"cafe\"/>\n" +
+					"</node>\n" +
+					"<node id=\"3\" lat=\"51.7\" lon=\"0.5\"><tag k=\"\u00e9\u00e9\" v=\"\u4e2d\u4e2d\u4e2d\"/></node>\n" +
+					"<way id=\"10\">\n" +
+					"  <nd ref=\"1\"/>\n" +
+					"  <nd ref=\"2\"/>\n" +
+					"  <tag k=\"highway\" v=\"primary\"/>\n" +
+					"</way>\n" +
+					"<way id=\"11\"><nd ref=\"2\"/><nd ref=\"3\"/></way>\n" +
+					"<relation id=\"20\">\n" +
+					"  <member type=\"way\" ref=\"10\" role=\"outer\"/>\n" +
+					"  <member type=\"node\" ref=\"3\" role=\"\"/>\n" +
+					"  <tag k=\"type\" v=\"multipolygon\"/>\n" +
+					"</relation>\n" +
+					"</osm>\n";
+
+	private File file;
+	private byte[] bytes;
+
+	@BeforeClass
+	public void writeFile() throws IOException {
+		bytes = DOCUMENT.getBytes("UTF-8");
+		file = File.createTempFile("splitter", ".osm");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bytes);
+		out.close();
+	}
+
+	@AfterClass
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void testSplitInsideNode() throws IOException {
+		check(DOCUMENT.indexOf("<node id=\"2\"") + 7, false);
+	}
+
+	@Test
+	public void testSplitInsideTag() throws IOException {
+		check(DOCUMENT.indexOf("<tag k=\"amenity\"") + 9, false);
+	}
+
+	@Test
+	public void testSplitInsideUtf8() throws IOException {
+		// The second byte of the two byte sequence, which needs the offset in bytes rather than chars
+		int offset = DOCUMENT.substring(0, DOCUMENT.indexOf("Caf\u00e9") + 3).getBytes("UTF-8").length + 1;
+		Assert.assertEquals(bytes[offset - 1], (byte) 0xc3);
+		check(offset, false);
+		// The middle of the four byte sequence
+		offset = DOCUMENT.substring(0, DOCUMENT.indexOf("\uD83D")).getBytes("UTF-8").length + 2;
+		Assert.assertEquals(bytes[offset - 2], (byte) 0xf0);
+		check(offset, false);
+	}
+
+	@Test
+	public void testEverySplit() throws IOException {
+		for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+			check(chunkSize, false);
+			check(chunkSize, true);
+		}
+	}
+
+	/**
+	 * A mergeable processor is given the coordinates from every chunk on the
+	 * calling thread, rather than a copy of it being made for each thread.
+	 */
+	@Test
+	public void testMergeableNotCopied() throws IOException {
+		EventRecorder expected = new EventRecorder(true);
+		new OSMXmlScanner(expected, false).parse(new ByteArrayInputStream(bytes));
+
+		NoCopyRecorder recorder = new NoCopyRecorder();
+		new ChunkedOSMReader(recorder, false, 3, 1).process(file.getPath());
+		Assert.assertEquals(recorder.events, expected.events);
+		Assert.assertEquals(recorder.threads.size(), 1);
+		Assert.assertTrue(recorder.threads.contains(Thread.currentThread()));
+	}
+
+	/**
+	 * Checks that reading the file in chunks of the given size gives the same
+	 * results as scanning it in one go.
+	 */
+	private void check(int chunkSize, boolean startNodeOnly) throws IOException {
+		EventRecorder expected = new EventRecorder(startNodeOnly);
+		new OSMXmlScanner(expected, false).parse(new ByteArrayInputStream(bytes));
+		Assert.assertEquals(expected.events.size(), startNodeOnly ? 3 : 6);
+
+		EventRecorder recorder = new EventRecorder(startNodeOnly);
+		ChunkedOSMReader reader = new ChunkedOSMReader(recorder, false, 3, chunkSize);
+		reader.process(file.getPath());
+		List<String> events = recorder.events;
+		Assert.assertEquals(events, expected.events, "chunk size " + chunkSize);
+		Assert.assertEquals(reader.getNodeCount(), 3, "chunk size " + chunkSize);
+		Assert.assertNotNull(recorder.bounds, "chunk size " + chunkSize);
+		if (!startNodeOnly) {
+			Assert.assertEquals(reader.getWayCount(), 2, "chunk size " + chunkSize);
+			Assert.assertEquals(reader.getRelationCount(), 1, "chunk size " + chunkSize);
+		}
+	}
+
+	private static class NoCopyRecorder extends EventRecorder implements MergeableMapProcessor {
+		private final Set<Thread> threads = new HashSet<Thread>();
+
+		NoCopyRecorder() {
+			super(true);
+		}
+
+		@Override
+		public MergeableMapProcessor createEmptyCopy() {
+			throw new AssertionError("The processor shouldn't be copied");
+		}
+
+		@Override
+		public void merge(MergeableMapProcessor other) {
+			throw new AssertionError("The processor shouldn't be merged");
+		}
+
+		@Override
+		public void startNode(long id, int lat, int lon) {
+			threads.add(Thread.currentThread());
+			super.startNode(id, lat, lon);
+		}
+	}
+}
@@ -13,6 +13,8 @@
 
 package uk.me.parabola.splitter;
 
+import java.util.Random;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -50,6 +52,94 @@ public class TestConvert {
 		parse("120.1234567890123456789012345678");
 	}
 
+	@Test
+	public void testParseDoubleSigned() {
+		parse("-0.5");
+		parse("-179.9999999");
+		parse("+51.1234567");
+		parse("1e-3");
+	}
+
+	@Test
+	public void testParseFixedPoint() {
+		parseFixedPoint("0", 0);
+		parseFixedPoint("1", 10000000);
+		parseFixedPoint("-0.0000001", -1);
+		parseFixedPoint("51.5", 515000000);
+		parseFixedPoint("+51.1234567", 511234567);
+		parseFixedPoint("-179.9999999", -1799999999);
+		parseFixedPoint(".5", 5000000);
+		parseFixedPoint("12.", 120000000);
+		// Anything beyond the seventh decimal place is rounded
+		parseFixedPoint("1.12345674999", 11234567);
+		parseFixedPoint("1.12345675", 11234568);
+		parseFixedPoint("-1.12345675", -11234568);
+		parseFixedPoint("1e-3", 10000);
+	}
+
+	@Test
+	public void testParseFixedPointInvalid() {
+		for (String value : new String[] {"", "-", ".", "1,5", "215", "-215.1", "1000000000000"}) {
+			try {
+				Convert.parseFixedPoint(value);
+				Assert.fail("No exception was thrown when parsing '" + value + '\'');
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testFixedPointToString() {
+		Assert.assertEquals(fixedPointToString(0), "0.0");
+		Assert.assertEquals(fixedPointToString(10000000), "1.0");
+		Assert.assertEquals(fixedPointToString(-1), "-0.0000001");
+		Assert.assertEquals(fixedPointToString(515000000), "51.5");
+		Assert.assertEquals(fixedPointToString(-1799999999), "-179.9999999");
+		Assert.assertEquals(fixedPointToString(Integer.MIN_VALUE), "-214.7483648");
+		for (String value : new String[] {"51.1234567", "-0.1", "179.0000001", "-12.0304"})
+			Assert.assertEquals(fixedPointToString(Convert.parseFixedPoint(value)), value);
+	}
+
+	@Test
+	public void testToBytes() {
+		byte[] buf = new byte[20];
+		int[] ints = {0, 1, -1, 9, 10, -10, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		for (int value : ints)
+			Assert.assertEquals(new String(buf, 0, Convert.longToBytes(value, buf, 0)), Integer.toString(value));
+		long[] longs = {2147483648L, -2147483649L, 12345678901L, Long.MAX_VALUE, Long.MIN_VALUE};
+		for (long value : longs)
+			Assert.assertEquals(new String(buf, 0, Convert.longToBytes(value, buf, 0)), Long.toString(value));
+		Random random = new Random(2);
+		for (int i = 0; i < 10000; i++) {
+			int value = random.nextInt();
+			Assert.assertEquals(Convert.parseFixedPoint(fixedPointToString(value)), value);
+		}
+	}
+
+	@Test
+	public void testFixedPointToMapUnit() {
+		int[] values = {0, 1, -1, 9, 10, 11, -10, -11, 515000000, -1799999999, 1800000000, -1800000000, 850000000};
+		for (int value : values)
+			Assert.assertEquals(Utils.fixedPointToMapUnit(value), Utils.toMapUnit(value / 1e7), "Map unit conversion failed for " + value);
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			int value = random.nextInt(1800000000) * (random.nextBoolean() ? 1 : -1);
+			Assert.assertEquals(Utils.fixedPointToMapUnit(value), Utils.toMapUnit(value / 1e7), "Map unit conversion failed for " + value);
+		}
+	}
+
+	private void parseFixedPoint(String value, int expected) {
+		Assert.assertEquals(Convert.parseFixedPoint(value), expected, "Fixed point parsing failed when parsing " + value);
+		byte[] buf = ("\"" + value + "\"").getBytes();
+		Assert.assertEquals(Convert.parseFixedPoint(buf, 1, buf.length - 1), expected, "Fixed point parsing failed when parsing bytes " + value);
+	}
+
+	private static String fixedPointToString(int value) {
+		byte[] buf = new byte[12];
+		return new String(buf, 0, Convert.fixedPointToBytes(value, buf, 0));
+	}
+
 	private void parse(String dbl) {
 		Assert.assertEquals(Convert.parseDouble(dbl), Double.parseDouble(dbl), "Double parsing failed when parsing " + dbl);
 	}
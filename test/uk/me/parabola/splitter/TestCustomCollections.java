@@ -13,6 +13,8 @@
 
 package uk.me.parabola.splitter;
 
+import java.util.Iterator;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -56,6 +58,8 @@ public class TestCustomCollections {
 		testMap(new IntIntMap());
 		testMap(new IntIntMap(64, 0.7f));
 		testMap(new IntIntMap(1024, 0.7f));
+		testMap(new IntIntMap(64, 0.7f, MapStorage.create("direct")));
+		testMap(new IntIntMap(64, 0.7f, MapStorage.create("mapped")));
 	}
 
 	private void testMap(IntIntMap map) {
@@ -84,6 +88,81 @@ public class TestCustomCollections {
 		Assert.assertEquals(map.get(123456), 888);
 	}
 
+	@Test
+	public void testSplitIntMap() {
+		testMap(new SplitIntMap());
+		testMap(new SplitIntMap(1000000, MapStorage.create("direct")));
+		testMap(new SplitIntMap(1000, MapStorage.create("mapped")));
+	}
+
+	private void testMap(SplitIntMap map) {
+		// Keys on both sides of 2^32 and 0, so several blocks are used
+		long base = (1L << 32) - 350003;
+		for (int i = 1; i < 100000; i++)
+			map.put(base + i * 7, i);
+		map.put(-5, 100000);
+		map.put(1L << 32, 100001);
+		Assert.assertEquals(map.size(), 100001);
+		for (int i = 1; i < 100000; i++) {
+			Assert.assertEquals(map.get(base + i * 7), i);
+			Assert.assertEquals(map.get(base + i * 7 + 1), 0);
+		}
+		Assert.assertEquals(map.get(-5), 100000);
+		Assert.assertEquals(map.get(1L << 32), 100001);
+		Assert.assertEquals(map.get(0), 0);
+		Assert.assertEquals(map.get(1L << 33), 0);
+
+		int count = 0;
+		Iterator<SplitIntMap.Entry> it = map.fastIterator();
+		while (it.hasNext()) {
+			SplitIntMap.Entry entry = it.next();
+			if (entry.getValue() == 100000)
+				Assert.assertEquals(entry.getKey(), -5);
+			else if (entry.getValue() == 100001)
+				Assert.assertEquals(entry.getKey(), 1L << 32);
+			else
+				Assert.assertEquals(entry.getKey(), base + entry.getValue() * 7);
+			count++;
+		}
+		Assert.assertEquals(count, 100001);
+	}
+
+	@Test
+	public void testPagedIntMap() {
+		testMap(new PagedIntMap());
+		testMap(new PagedIntMap(MapStorage.create("direct")));
+		testMap(new PagedIntMap(MapStorage.create("mapped")));
+	}
+
+	private void testMap(PagedIntMap map) {
+		long[] keys = {0, 1, 4095, 4096, 1000000, Integer.MAX_VALUE, -1, -4096, -4097, Integer.MIN_VALUE, 1L << 32, 12345678901L};
+		for (int i = 0; i < keys.length; i++) {
+			Assert.assertEquals(map.get(keys[i]), 0);
+			map.put(keys[i], i + 1);
+			Assert.assertEquals(map.size(), i + 1);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			Assert.assertEquals(map.get(keys[i]), i + 1);
+		}
+		Assert.assertEquals(map.get(2), 0);
+		Assert.assertEquals(map.get(-2), 0);
+		Assert.assertEquals(map.get(999999999), 0);
+
+		map.put(1, 888);
+		Assert.assertEquals(map.get(1), 888);
+		Assert.assertEquals(map.size(), keys.length);
+		map.put(1, 0);
+		Assert.assertEquals(map.size(), keys.length - 1);
+
+		int base = 10000000;
+		for (int i = 0; i < 100000; i++)
+			map.put(base + i * 3, i);
+		for (int i = 1; i < 100000; i++) {
+			Assert.assertEquals(map.get(base + i * 3), i);
+			Assert.assertEquals(map.get(base + i * 3 + 1), 0);
+		}
+	}
+
 	@Test
 	public void testIntObjMap() {
 		testMap(new IntObjMap<String>());
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the density map.
+ */
+public class TestDensityMap {
+	private static final Area AREA = new Area(0x10000, -0x20000, 0x30000, 0x20000);
+
+	@Test
+	public void testMerge() {
+		DensityMap first = new DensityMap(AREA, false, 16);
+		DensityMap second = new DensityMap(AREA, false, 16);
+		DensityMap all = new DensityMap(AREA, false, 16);
+		int[][] nodes = {{0x10000, -0x20000}, {0x10100, -0x1ff00}, {0x2ffff, 0x1ffff}, {0x20000, 0}, {0x10000, -0x20000}};
+		for (int i = 0; i < nodes.length; i++) {
+			(i % 2 == 0 ? first : second).addNode(nodes[i][0], nodes[i][1]);
+			all.addNode(nodes[i][0], nodes[i][1]);
+		}
+		// A node outside the area isn't counted
+		second.addNode(0, 0);
+
+		first.merge(second);
+		Assert.assertEquals(first.getNodeCount(), nodes.length);
+		for (int x = 0; x < all.getWidth(); x++) {
+			for (int y = 0; y < all.getHeight(); y++)
+				Assert.assertEquals(first.getNodeCount(x, y), all.getNodeCount(x, y), x + "," + y);
+		}
+		// The merged map isn't changed by adding to the one that was merged in
+		second.addNode(0x20000, 0);
+		Assert.assertEquals(first.getNodeCount(all.getWidth() / 2, all.getHeight() / 2), all.getNodeCount(all.getWidth() / 2, all.getHeight() / 2));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testMergeDifferentResolution() {
+		new DensityMap(AREA, false, 16).merge(new DensityMap(AREA, false, 15));
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the storage of tags in elements.
+ */
+public class TestElement {
+	@Test
+	public void testTags() {
+		Way way = new Way();
+		Assert.assertFalse(way.hasTags());
+		for (int i = 0; i < 20; i++)
+			way.addTag("key" + i, "value" + i);
+		way.addTag("created_by", "editor");
+		way.addTag("key3", "changed");
+
+		Assert.assertTrue(way.hasTags());
+		Assert.assertEquals(way.getTagCount(), 20);
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(way.getTagKey(i), "key" + i);
+			Assert.assertEquals(way.getTagValue(i), i == 3 ? "changed" : "value" + i);
+		}
+
+		way.reset();
+		Assert.assertFalse(way.hasTags());
+		Assert.assertEquals(way.getTagCount(), 0);
+		way.addTag("highway", "primary");
+		Assert.assertEquals(way.getTagCount(), 1);
+		Assert.assertEquals(way.getTagKey(0), "highway");
+		Assert.assertEquals(way.getTagValue(0), "primary");
+	}
+}
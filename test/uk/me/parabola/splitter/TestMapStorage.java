@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.nio.IntBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the storage behind the node and way maps.
+ */
+public class TestMapStorage {
+	@Test
+	public void testMapped() {
+		MapStorage storage = MapStorage.create("mapped");
+		// Small buffers share a slab, large ones get a mapping of their own
+		IntBuffer[] buffers = {storage.allocate(1000), storage.allocate(5000000), storage.allocate(2), storage.allocate(1000)};
+		for (int i = 0; i < buffers.length; i++) {
+			IntBuffer buf = buffers[i];
+			for (int j = 0; j < buf.capacity(); j += 97)
+				Assert.assertEquals(buf.get(j), 0);
+			buf.put(0, i + 1);
+			buf.put(buf.capacity() - 1, -(i + 1));
+		}
+		for (int i = 0; i < buffers.length; i++) {
+			Assert.assertEquals(buffers[i].get(0), i + 1);
+			Assert.assertEquals(buffers[i].get(buffers[i].capacity() - 1), -(i + 1));
+		}
+		storage.close();
+		// Closing twice does no harm
+		storage.close();
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testAllocateAfterClose() {
+		MapStorage storage = MapStorage.create("mapped");
+		storage.allocate(10);
+		storage.close();
+		storage.allocate(10);
+	}
+
+	@Test
+	public void testTypes() {
+		for (String type : new String[] {"heap", "direct", "mapped"}) {
+			Assert.assertTrue(MapStorage.isValidType(type));
+			MapStorage storage = MapStorage.create(type);
+			Assert.assertEquals(storage.allocate(100).capacity(), 100);
+			storage.close();
+		}
+		Assert.assertFalse(MapStorage.isValidType("disk"));
+		Assert.assertNull(MapStorage.create("disk"));
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Unit tests for the reader that reads several files at once.
+ */
+public class TestMultiFileReader {
+	private static final String FIRST = "<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n" +
+					"<bounds minlat='51' minlon='-1' maxlat='52' maxlon='0'/>\n" +
+					"<node id='1' lat='51.1' lon='-0.9'><tag k='name' v='one'/></node>\n" +
+					"<node id='2' lat='51.2' lon='-0.8'/>\n" +
+					"<node id='3' lat='51.3' lon='-0.7'/>\n" +
+					"<way id='10'><nd ref='1'/><nd ref='2'/></way>\n" +
+					"<way id='11'><nd ref='2'/><nd ref='3'/></way>\n" +
+					"<relation id='20'><member type='way' ref='10' role='outer'/></relation>\n" +
+					"</osm>\n";
+
+	private static final String SECOND = "<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n" +
+					"<bounds minlat='52' minlon='0' maxlat='53' maxlon='1'/>\n" +
+					"<node id='101' lat='52.1' lon='0.1'/>\n" +
+					"<node id='102' lat='52.2' lon='0.2'/>\n" +
+					"<way id='110'><nd ref='101'/><nd ref='102'/><tag k='highway' v='primary'/></way>\n" +
+					"<relation id='120'><member type='node' ref='101' role=''/></relation>\n" +
+					"<relation id='121'><member type='way' ref='110' role='inner'/></relation>\n" +
+					"</osm>\n";
+
+	private List<String> filenames;
+
+	@BeforeClass
+	public void writeFiles() throws IOException {
+		filenames = Arrays.asList(write(FIRST), write(SECOND));
+	}
+
+	@AfterClass
+	public void deleteFiles() {
+		for (String filename : filenames)
+			new File(filename).delete();
+	}
+
+	@Test
+	public void testOrder() throws IOException, XmlPullParserException {
+		List<String> first = read(FIRST);
+		List<String> second = read(SECOND);
+		for (int threads = 1; threads <= 2; threads++) {
+			EventRecorder recorder = new EventRecorder();
+			MultiFileReader reader = new MultiFileReader(recorder, threads);
+			reader.process(filenames);
+			List<String> events = recorder.events;
+
+			// Everything from both files, with all the nodes before any of the ways
+			// and all the ways before any of the relations
+			Assert.assertEquals(events.size(), first.size() + second.size());
+			Assert.assertEquals(getTypes(events), Arrays.asList("node", "way", "relation"));
+			Assert.assertEquals(reader.getNodeCount(), 5);
+			Assert.assertEquals(reader.getWayCount(), 3);
+			Assert.assertEquals(reader.getRelationCount(), 3);
+
+			// The elements of each file stay in their original order
+			List<String> fromFirst = new ArrayList<String>(events);
+			fromFirst.retainAll(first);
+			Assert.assertEquals(fromFirst, first);
+			List<String> fromSecond = new ArrayList<String>(events);
+			fromSecond.retainAll(second);
+			Assert.assertEquals(fromSecond, second);
+		}
+	}
+
+	@Test
+	public void testMerge() throws IOException, XmlPullParserException {
+		NodeIdCollector collector = new NodeIdCollector();
+		MultiFileReader reader = new MultiFileReader(collector, 2);
+		reader.process(filenames);
+		Collections.sort(collector.ids);
+		Assert.assertEquals(collector.ids, Arrays.asList(1L, 2L, 3L, 101L, 102L));
+		Assert.assertEquals(reader.getNodeCount(), 5);
+		Assert.assertEquals(reader.getMinNodeId(), 1);
+		Assert.assertEquals(reader.getMaxNodeId(), 102);
+	}
+
+	@Test
+	public void testCopiesMergedAsFilesFinish() throws IOException, XmlPullParserException {
+		List<String> many = new ArrayList<String>();
+		for (int i = 0; i < 6; i++)
+			many.addAll(filenames);
+		NodeIdCollector collector = new NodeIdCollector();
+		MultiFileReader reader = new MultiFileReader(collector, 2);
+		reader.process(many);
+		Assert.assertEquals(collector.ids.size(), 30);
+		Assert.assertEquals(reader.getNodeCount(), 30);
+		// A copy is only made when a file is started, and is merged as soon as
+		// the file is finished, so there are never more of them than threads
+		Assert.assertEquals(collector.copies, 12);
+		Assert.assertEquals(collector.maxUnmerged, 2);
+	}
+
+	@Test
+	public void testMergeDensityMaps() throws IOException, XmlPullParserException {
+		DensityMapCollector collector = new DensityMapCollector(false, 24);
+		new MultiFileReader(collector, 2).process(filenames);
+		// The bounds from the two files are added together
+		Area area = collector.getExactArea();
+		Assert.assertEquals(area.getMinLat(), Utils.toMapUnit(51));
+		Assert.assertEquals(area.getMinLong(), Utils.toMapUnit(-1));
+		Assert.assertEquals(area.getMaxLat(), Utils.toMapUnit(53));
+		Assert.assertEquals(area.getMaxLong(), Utils.toMapUnit(1));
+	}
+
+	/**
+	 * @return the types of element in the order they first appear.
+	 */
+	private static List<String> getTypes(List<String> events) {
+		List<String> types = new ArrayList<String>();
+		for (String event : events) {
+			String type = event.substring(0, event.indexOf(' '));
+			if (types.isEmpty() || !types.get(types.size() - 1).equals(type))
+				types.add(type);
+		}
+		return types;
+	}
+
+	private static List<String> read(String xml) throws IOException {
+		EventRecorder recorder = new EventRecorder();
+		new OSMXmlScanner(recorder, false).parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		return recorder.events;
+	}
+
+	private static String write(String xml) throws IOException {
+		File file = File.createTempFile("splitter", ".osm");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(xml.getBytes("UTF-8"));
+		out.close();
+		return file.getPath();
+	}
+
+	/**
+	 * A mergeable processor that just keeps the ids of the nodes.
+	 */
+	private static class NodeIdCollector extends EventRecorder implements MergeableMapProcessor {
+		private final List<Long> ids = new ArrayList<Long>();
+		private int copies;
+		private int unmerged;
+		private int maxUnmerged;
+
+		NodeIdCollector() {
+			super(true);
+		}
+
+		@Override
+		public MergeableMapProcessor createEmptyCopy() {
+			copies++;
+			maxUnmerged = Math.max(maxUnmerged, ++unmerged);
+			return new NodeIdCollector();
+		}
+
+		@Override
+		public void merge(MergeableMapProcessor other) {
+			unmerged--;
+			ids.addAll(((NodeIdCollector) other).ids);
+		}
+
+		@Override
+		public void startNode(long id, int lat, int lon) {
+			ids.add(id);
+		}
+	}
+}
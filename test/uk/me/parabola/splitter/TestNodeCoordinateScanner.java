@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the scanner that only reads the node coordinates.
+ */
+public class TestNodeCoordinateScanner {
+	// Nodes after the ways, and markup that has to be skipped without being mistaken for a node
+	private static final String MIXED = "<osm version='0.6'>\n" +
+					"<!DOCTYPE osm [<!ELEMENT node ANY>]>\n" +
+					"<node id='1' lat='1.5' lon='2.5'><tag k='a' v='&lt;node id=\"96\"&gt;'/></node>\n" +
+					"<way id='10'><nd ref='1'/><tag k='node' v='node'/></way>\n" +
+					"<node\tid='-2'\nlat=\"-0.0000001\" lon = '+3' />\n" +
+					"<relation id='20'><member type='node' ref='1' role='node'/></relation>\n" +
+					"<node id='3' lat='4' lon='5' action='modify'/>\n" +
+					"<nodes id='95' lat='0' lon='0'/>\n" +
+					"</osm>\n";
+
+	@Test
+	public void testSameAsFullScanner() throws IOException {
+		for (int bufferSize : new int[] {1, 16, 64 * 1024}) {
+			for (boolean mixed : new boolean[] {false, true}) {
+				check(TestOSMXmlScanner.DOCUMENT, mixed, bufferSize);
+				check(MIXED, mixed, bufferSize);
+			}
+		}
+	}
+
+	@Test
+	public void testStopsAtFirstWay() throws IOException {
+		EventRecorder recorder = new EventRecorder(true);
+		NodeCoordinateScanner scanner = new NodeCoordinateScanner(recorder, false);
+		scanner.parse(toStream(MIXED, 1024));
+		Assert.assertTrue(scanner.isStopped());
+		Assert.assertEquals(recorder.events, Collections.singletonList("node 1 15000000 25000000"));
+
+		recorder = new EventRecorder(true);
+		scanner = new NodeCoordinateScanner(recorder, true);
+		scanner.parse(toStream(MIXED, 1024));
+		Assert.assertFalse(scanner.isStopped());
+		Assert.assertEquals(recorder.events.size(), 3);
+		Assert.assertEquals(scanner.getNodeCount(), 3);
+		Assert.assertEquals(scanner.getMinNodeId(), -2);
+		Assert.assertEquals(scanner.getMaxNodeId(), 3);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testTruncated() throws IOException {
+		String xml = TestOSMXmlScanner.DOCUMENT;
+		new NodeCoordinateScanner(new EventRecorder(true), true).parse(toStream(xml.substring(0, xml.indexOf("lat=\"51.5\"")), 16));
+	}
+
+	private static void check(String xml, boolean mixed, int bufferSize) throws IOException {
+		EventRecorder expected = new EventRecorder(true);
+		OSMXmlScanner full = new OSMXmlScanner(expected, mixed);
+		full.parse(toStream(xml, 1024));
+
+		EventRecorder recorder = new EventRecorder(true);
+		NodeCoordinateScanner scanner = new NodeCoordinateScanner(recorder, mixed, bufferSize);
+		scanner.parse(toStream(xml, bufferSize));
+
+		String message = "mixed=" + mixed + ", bufferSize=" + bufferSize;
+		Assert.assertEquals(recorder.events, expected.events, message);
+		Assert.assertEquals(recorder.bounds == null ? null : recorder.bounds.toHexString(),
+						expected.bounds == null ? null : expected.bounds.toHexString(), message);
+		Assert.assertEquals(scanner.getNodeCount(), full.getNodeCount(), message);
+		Assert.assertEquals(scanner.getMinNodeId(), full.getMinNodeId(), message);
+		Assert.assertEquals(scanner.getMaxNodeId(), full.getMaxNodeId(), message);
+		Assert.assertEquals(scanner.isStopped(), full.isStopped(), message);
+	}
+
+	private static InputStream toStream(String xml, int bufferSize) throws IOException {
+		InputStream in = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+		return bufferSize == 1 ? new TestOSMXmlScanner.TrickleInputStream(in) : in;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the XML tile writer, in particular the sharing of formatted
+ * elements between tiles.
+ */
+public class TestOSMWriter {
+	private static final Area BOUNDS = new Area(0x10000, 0x20000, 0x30000, 0x40000);
+
+	@Test
+	public void testFormat() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OSMWriter writer = createWriter(bytes);
+		Node node = new Node();
+		node.set(1, 515000000, -2500000);
+		node.addTag("name", "Caf\u00e9 'A' & <B> \uD83D\uDE00");
+		writer.write(node);
+		writer.finishWrite();
+		String xml = bytes.toString("UTF-8");
+		Assert.assertTrue(xml.contains("<node id='1' lat='51.5' lon='-0.25'>\n" +
+						"<tag k='name' v='Caf\u00e9 &apos;A&apos; &amp; &lt;B> \uD83D\uDE00'/>\n" +
+						"</node>\n"), xml);
+	}
+
+	@Test
+	public void testSharedFragments() throws IOException {
+		// The same elements formatted separately for each tile, and once for both
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		OSMWriter reference = createWriter(expected);
+		for (int i = 0; i < 3; i++)
+			writeElements(reference, reference, i, false);
+		reference.finishWrite();
+
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		OSMWriter firstWriter = createWriter(first);
+		OSMWriter secondWriter = createWriter(second);
+		for (int i = 0; i < 3; i++)
+			writeElements(firstWriter, secondWriter, i, true);
+		firstWriter.finishWrite();
+		secondWriter.finishWrite();
+
+		Assert.assertEquals(first.toByteArray(), expected.toByteArray());
+		Assert.assertEquals(second.toByteArray(), expected.toByteArray());
+	}
+
+	@Test
+	public void testReusedElements() throws IOException {
+		ElementPool<Node> pool = new ElementPool<Node>() {
+			@Override
+			protected Node create() {
+				return new Node();
+			}
+		};
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		OSMWriter reference = createWriter(expected);
+		OSMWriter firstWriter = createWriter(first);
+		OSMWriter secondWriter = createWriter(second);
+		Node previous = null;
+		for (int id = 1; id <= 5; id++) {
+			Node fresh = new Node();
+			setNode(fresh, id);
+			reference.write(fresh);
+
+			// Each element goes to both tiles, and back to the pool afterwards
+			Node node = pool.get();
+			if (previous != null)
+				Assert.assertSame(node, previous);
+			setNode(node, id);
+			node.setMultiTile(true);
+			node.setUsers(2);
+			firstWriter.write(node);
+			node.release();
+			secondWriter.write(node);
+			node.release();
+			Assert.assertNull(node.getFragment());
+			previous = node;
+		}
+		reference.finishWrite();
+		firstWriter.finishWrite();
+		secondWriter.finishWrite();
+
+		Assert.assertEquals(first.toByteArray(), expected.toByteArray());
+		Assert.assertEquals(second.toByteArray(), expected.toByteArray());
+	}
+
+	@Test
+	public void testReusedElementsOnSeveralThreads() throws IOException {
+		ElementPool<Node> pool = new ElementPool<Node>() {
+			@Override
+			protected Node create() {
+				return new Node();
+			}
+		};
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		OSMWriter reference = createWriter(expected);
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[3];
+		OSMWriter[] writers = new OSMWriter[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = new ByteArrayOutputStream();
+			writers[i] = createWriter(outputs[i]);
+		}
+
+		WriterScheduler scheduler = new WriterScheduler(writers, 3);
+		for (int id = 1; id <= 20000; id++) {
+			Node fresh = new Node();
+			setNode(fresh, id);
+			reference.write(fresh);
+
+			Node node = pool.get();
+			setNode(node, id);
+			node.setMultiTile(true);
+			node.setUsers(writers.length);
+			for (int i = 0; i < writers.length; i++)
+				scheduler.add(i, node);
+		}
+		scheduler.finish();
+		reference.finishWrite();
+		for (int i = 0; i < writers.length; i++) {
+			writers[i].finishWrite();
+			Assert.assertEquals(outputs[i].toByteArray(), expected.toByteArray());
+		}
+	}
+
+	private static void setNode(Node node, int id) {
+		node.set(id, id * 1000, -id * 7);
+		if (id % 2 == 0) {
+			node.addTag("name", "node " + id);
+			node.addTag("note", "it's <" + id + '>');
+		}
+	}
+
+	/**
+	 * Writes a node, a way and a relation to each of the writers.
+	 */
+	private static void writeElements(OSMWriter first, OSMWriter second, int n, boolean multiTile) throws IOException {
+		Node node = new Node();
+		setNode(node, n + 1);
+		node.setMultiTile(multiTile);
+		first.write(node);
+		if (second != first)
+			second.write(node);
+
+		Way way = new Way();
+		way.set(100 + n);
+		way.addRef(n + 1);
+		way.addRef(n + 2);
+		way.addTag("highway", "primary");
+		way.setMultiTile(multiTile);
+		first.write(way);
+		if (second != first)
+			second.write(way);
+
+		Relation rel = new Relation();
+		rel.set(200 + n);
+		rel.addMember("way", 100 + n, "outer");
+		rel.addMember("node", n + 1, "");
+		rel.addTag("type", "multipolygon");
+		rel.setMultiTile(multiTile);
+		first.write(rel);
+		if (second != first)
+			second.write(rel);
+	}
+
+	private static OSMWriter createWriter(OutputStream out) throws IOException {
+		OSMWriter writer = new OSMWriter(BOUNDS) {
+			@Override
+			protected OutputStream compress(OutputStream stream) {
+				// Keep the output readable
+				return stream;
+			}
+		};
+		writer.initForWrite(out, 0);
+		return writer;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the byte-level .osm scanner.
+ */
+public class TestOSMXmlScanner {
+	static final String DOCUMENT = "<?xml version='1.0' encoding='UTF-8'?>\r\n" +
+					"<osm version=\"0.6\" generator=\"test\">\r\n" +
+					"<!-- <node id=\"99\" lat=\"1\" lon=\"1\"/> is in a comment -->\r\n" +
+					"<?pi <node id=\"98\" lat=\"1\" lon=\"1\"/> ?>\r\n" +
+					"<bounds minlat=\"51.5\" minlon=\"-0.5\" maxlat=\"52\" maxlon=\"0.25\"/>\r\n" +
+					"<node id=\"1\" lat=\"51.5\" lon=\"-0.25\">\r\n" +
+					"  <tag k=\"name\" v=\"Caf\u00e9 &amp; &lt;Bar&gt; &quot;x&quot; &apos;y&apos;\"/>\r\n" +
+					"  <tag k='note' v='say \"hi\"'/>\r\n" +
+					"</node>\r\n" +
+					"<node id=\"2\" lat=\"-1.0000001\" lon=\"179.9999999\"><![CDATA[<node id=\"97\" lat=\"0\" lon=\"0\"/>]]></node>\r\n" +
+					"<node id=\"3\" lat=\"0\" lon=\"0\" action=\"delete\"/>\r\n" +
+					"<way id=\"10\">\r\n" +
+					"  <nd ref=\"1\"/><nd ref=\"2\"/>\r\n" +
+					"  <tag k=\"highway\" v=\"primary\"/>\r\n" +
+					"</way>\r\n" +
+					"<relation id=\"20\">\r\n" +
+					"  <member type=\"way\" ref=\"10\" role=\"outer\"/>\r\n" +
+					"  <member type='node' ref='1' role=''/>\r\n" +
+					"  <tag k=\"type\" v=\"multipolygon\"/>\r\n" +
+					"</relation>\r\n" +
+					"</osm>\r\n";
+
+	private static final List<String> EVENTS = Arrays.asList(
+					"node 1 515000000 -2500000 name=Caf\u00e9 & <Bar> \"x\" 'y' note=say \"hi\"",
+					"node 2 -10000001 1799999999",
+					"way 10 1 2 highway=primary",
+					"relation 20 way:10:outer node:1: type=multipolygon");
+
+	@Test
+	public void testDocument() throws IOException {
+		EventRecorder recorder = parse(DOCUMENT, false, false, 1024);
+		Assert.assertEquals(recorder.events, EVENTS);
+		assertBounds(recorder.bounds);
+	}
+
+	@Test
+	public void testTinyBuffer() throws IOException {
+		// Every token crosses the end of the buffer at some point
+		EventRecorder recorder = parse(DOCUMENT, false, false, 1);
+		Assert.assertEquals(recorder.events, EVENTS);
+		assertBounds(recorder.bounds);
+	}
+
+	@Test
+	public void testBoundWithBox() throws IOException {
+		EventRecorder recorder = parse("<osm><bound box=\"51.5,-0.5,52,0.25\" origin=\"test\"/></osm>", false, false, 1024);
+		assertBounds(recorder.bounds);
+	}
+
+	@Test
+	public void testEntities() throws IOException {
+		String xml = "<osm><node id='1' lat='0' lon='0'>" +
+						"<tag k='a' v='&amp;&lt;&gt;&quot;&apos;'/>" +
+						"<tag k='b' v='&#65;&#x42;&#x0063;&#233;&#x4E2D;&#x1F600;'/>" +
+						"<tag k='c' v='x &amp;amp; y'/>" +
+						"</node></osm>";
+		Assert.assertEquals(parse(xml, false, false, 1024).events,
+						Arrays.asList("node 1 0 0 a=&<>\"' b=ABc\u00e9\u4e2d\uD83D\uDE00 c=x &amp; y"));
+	}
+
+	@Test
+	public void testUtf8() throws IOException {
+		// Two, three and four byte sequences, in both keys and values
+		String xml = "<osm><node id='1' lat='0' lon='0'>" +
+						"<tag k='name:\u00e9' v='\u00e9\u4e2d\uD83D\uDE00'/>" +
+						"<tag k='\u4e2d' v='a\uD83D\uDE00b'/>" +
+						"</node></osm>";
+		Assert.assertEquals(parse(xml, false, false, 1024).events,
+						Arrays.asList("node 1 0 0 name:\u00e9=\u00e9\u4e2d\uD83D\uDE00 \u4e2d=a\uD83D\uDE00b"));
+		Assert.assertEquals(parse(xml, false, false, 1).events,
+						Arrays.asList("node 1 0 0 name:\u00e9=\u00e9\u4e2d\uD83D\uDE00 \u4e2d=a\uD83D\uDE00b"));
+	}
+
+	@Test
+	public void testLineEndings() throws IOException {
+		// Attribute values are normalised, with CR LF counting as a single space
+		String xml = "<osm>\r\n<node\r\nid='1'\r\nlat='0'\tlon='0'>\r\n" +
+						"<tag k='a' v='1\r\n2\r3\n4\t5'/>\r\n" +
+						"</node>\r\n</osm>";
+		Assert.assertEquals(parse(xml, false, false, 1024).events, Arrays.asList("node 1 0 0 a=1 2 3 4 5"));
+	}
+
+	@Test
+	public void testStartNodeOnly() throws IOException {
+		String xml = "<osm><node id='1' lat='0.0000001' lon='0.0000002'><tag k='a' v='b'/></node>" +
+						"<way id='10'><nd ref='1'/></way>" +
+						"<node id='2' lat='0.0000003' lon='0.0000004'/>" +
+						"<relation id='20'><member type='node' ref='2' role=''/></relation></osm>";
+		// Without mixed mode the scanner stops at the first way
+		Assert.assertEquals(parse(xml, true, false, 1024).events, Arrays.asList("node 1 1 2"));
+		Assert.assertEquals(parse(xml, true, true, 1024).events, Arrays.asList("node 1 1 2", "node 2 3 4"));
+		Assert.assertEquals(parse(xml, false, true, 1024).events,
+						Arrays.asList("node 1 1 2 a=b", "way 10 1", "node 2 3 4", "relation 20 node:2:"));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testUnknownEntity() throws IOException {
+		parse("<osm><node id='1' lat='0' lon='0'><tag k='a' v='&nbsp;'/></node></osm>", false, false, 1024);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testTruncatedMarkup() throws IOException {
+		parse("<osm><node id='1' lat='0' lon='0'><tag k='a' v='b", false, false, 1024);
+	}
+
+	private static void assertBounds(Area bounds) {
+		Assert.assertNotNull(bounds);
+		Assert.assertEquals(bounds.getMinLat(), Utils.toMapUnit(51.5));
+		Assert.assertEquals(bounds.getMinLong(), Utils.toMapUnit(-0.5));
+		Assert.assertEquals(bounds.getMaxLat(), Utils.toMapUnit(52));
+		Assert.assertEquals(bounds.getMaxLong(), Utils.toMapUnit(0.25));
+	}
+
+	private static EventRecorder parse(String xml, boolean startNodeOnly, boolean mixed, int bufferSize) throws IOException {
+		EventRecorder recorder = new EventRecorder(startNodeOnly);
+		InputStream in = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+		if (bufferSize == 1)
+			in = new TrickleInputStream(in);
+		new OSMXmlScanner(recorder, mixed, bufferSize).parse(in);
+		return recorder;
+	}
+
+	/**
+	 * Hands out a single byte at a time, so that the scanner has to resume
+	 * after every possible split.
+	 */
+	static class TrickleInputStream extends InputStream {
+		private final InputStream in;
+
+		TrickleInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, 1));
+		}
+	}
+}
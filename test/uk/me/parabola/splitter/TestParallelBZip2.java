@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the parallel bzip2 input stream.
+ */
+public class TestParallelBZip2 {
+	// The output of "bzip2 -1" on ten copies of the line "first stream, compressed with -1"
+	private static final String LEVEL1 =
+					"425a6831314159265359a5a6439c00004ad9800010400620002f62dc8020006029544f50d184c429931320c8cc27d4c2" +
+					"749f1374f69a26a99a649ca749926a9a2709da709d2729b27a4ed3b4d5364d9374f0984c9334fe2ee48a70a1214b4c87" +
+					"38";
+	// The output of "bzip2 -9" on pattern(250000, 'a', 7, 26), a single block of more than 100k
+	private static final String LEVEL9 =
+					"425a683931415926535978a249f70012c781803ffffff0300118014000019320a00000c99014aa8000346264fb54291d" +
+					"f1aa148c822919d50a47e08a46954291ad50a47308a474aa148ea1148ed54291dc2291e2a8523cd50a47a08a47baa148" +
+					"c02291f2a85230aa148fb542918d50a4641148cea8523f045234aa148d6a8523f8bb9229c28483c5124fb8";
+	// The output of "bzip2 -5" on pattern(300000, 'A', 11, 23)
+	private static final String LEVEL5 =
+					"425a68353141592653597f038f6c00197986003fffff803000f00500188d34d1a09aaa80068c0214006234d346981412" +
+					"9a7e28253128253228253328253428253b14129ad2094da904a6f482538a4129f2904a60504a7d28253f141298941299" +
+					"14129994129a52094d6904a6d482537a4129c52094fe2ee48a70a120fe071ed8";
+
+	@Test
+	public void testSingleStream() throws IOException {
+		Assert.assertEquals(decode(LEVEL9, 2), pattern(250000, 'a', 7, 26));
+	}
+
+	@Test
+	public void testMixedBlockSizes() throws IOException {
+		// Each of the concatenated streams has its own block size. The level 9
+		// block is too big to be decoded with the block size of the first stream.
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 10; i++)
+			expected.write("first stream, compressed with -1\n".getBytes("US-ASCII"));
+		expected.write(pattern(250000, 'a', 7, 26));
+		expected.write(pattern(300000, 'A', 11, 23));
+
+		Assert.assertEquals(decode(LEVEL1 + LEVEL9 + LEVEL5, 3), expected.toByteArray());
+		Assert.assertEquals(decode(LEVEL1 + LEVEL9 + LEVEL5, 1), expected.toByteArray());
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testNotBZip2() throws IOException {
+		decode("425a6830", 1);
+	}
+
+	private static byte[] decode(String hex, int threads) throws IOException {
+		byte[] compressed = new byte[hex.length() / 2];
+		for (int i = 0; i < compressed.length; i++)
+			compressed[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), threads);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				result.write(buf, 0, n);
+			return result.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Data with no runs of repeated bytes, so that it isn't shrunk by the
+	 * run length encoding that is done before a block is filled.
+	 */
+	private static byte[] pattern(int length, char first, int step, int count) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (first + (i * step) % count);
+		return data;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the parallel gzip output stream.
+ */
+public class TestParallelGzip {
+	@Test
+	public void testRoundTrip() throws IOException {
+		// Somewhat compressible data, spanning several blocks
+		byte[] data = new byte[1000000];
+		Random random = new Random(42);
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) ('a' + random.nextInt(8));
+
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, pool);
+			out.write(data, 0, 10);
+			out.write(data[10]);
+			out.write(data, 11, 300000);
+			out.flush();
+			out.write(data, 300011, data.length - 300011);
+			out.close();
+			Assert.assertTrue(bytes.size() < data.length / 2);
+
+			InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				result.write(buf, 0, n);
+			Assert.assertEquals(result.toByteArray(), data);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
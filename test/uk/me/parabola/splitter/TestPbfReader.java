@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the PBF reader, using files that are built up by hand so
+ * that they can contain things that the PBF writer never produces.
+ */
+public class TestPbfReader {
+	private static final String[] STRINGS = {"", "name", "Caf\u00e9", "highway", "primary"};
+
+	@Test
+	public void testPlainNodes() throws IOException {
+		ProtobufOutput group = new ProtobufOutput();
+		group.writeBytes(1, plainNode(10, 515000000, -1234567, 1, 2));
+		group.writeBytes(1, plainNode(-3, -900000000, 1800000000, -1, -1));
+		EventRecorder recorder = read(false, 1, headerBlob(false), dataBlob(group, 100, 0, 0, false));
+		Assert.assertEquals(recorder.events, Arrays.asList(
+						"node 10 515000000 -1234567 name=Caf\u00e9",
+						"node -3 -900000000 1800000000"));
+	}
+
+	@Test
+	public void testDenseNodes() throws IOException {
+		ProtobufOutput group = new ProtobufOutput();
+		group.writeBytes(2, denseNodes(new long[] {5, 6, 100}, new long[] {1, 2, 3}, new long[] {-1, -2, -3},
+						new int[] {0, 1, 2, 3, 4, 0, 0}));
+		EventRecorder recorder = read(false, 1, headerBlob(false), dataBlob(group, 100, 0, 0, true));
+		Assert.assertEquals(recorder.events, Arrays.asList(
+						"node 5 1 -1",
+						"node 6 2 -2 name=Caf\u00e9 highway=primary",
+						"node 100 3 -3"));
+	}
+
+	@Test
+	public void testGranularityAndOffsets() throws IOException {
+		ProtobufOutput group = new ProtobufOutput();
+		group.writeBytes(1, plainNode(1, 5000, -300, -1, -1));
+		group.writeBytes(2, denseNodes(new long[] {2}, new long[] {5000}, new long[] {-300}, null));
+		// Coordinates are offset + granularity * value, in nanodegrees
+		EventRecorder recorder = read(false, 1, headerBlob(false), dataBlob(group, 1000, 1234500, -2000000, true));
+		Assert.assertEquals(recorder.events, Arrays.asList("node 1 62345 -23000", "node 2 62345 -23000"));
+	}
+
+	@Test
+	public void testWaysAndStartNodeOnly() throws IOException {
+		ProtobufOutput nodes = new ProtobufOutput();
+		nodes.writeBytes(2, denseNodes(new long[] {1, 2}, new long[] {10, 20}, new long[] {30, 40}, new int[] {1, 2, 0, 0}));
+		ProtobufOutput ways = new ProtobufOutput();
+		ProtobufOutput way = new ProtobufOutput();
+		way.writeInt64(1, 77);
+		way.writeBytes(2, ints(3));
+		way.writeBytes(3, ints(4));
+		way.writeBytes(8, deltas(new long[] {2, 1}));
+		ways.writeBytes(3, way);
+
+		byte[][] blobs = {headerBlob(false), dataBlob(nodes, 100, 0, 0, true), dataBlob(ways, 100, 0, 0, false)};
+		EventRecorder recorder = read(false, 1, blobs);
+		Assert.assertEquals(recorder.events, Arrays.asList("node 1 10 30 name=Caf\u00e9", "node 2 20 40", "way 77 2 1 highway=primary"));
+
+		recorder = read(true, 1, blobs);
+		Assert.assertEquals(recorder.events, Arrays.asList("node 1 10 30", "node 2 20 40"));
+	}
+
+	@Test
+	public void testStartNodeOnlyStopsAtWays() throws IOException {
+		ProtobufOutput nodes = new ProtobufOutput();
+		nodes.writeBytes(2, denseNodes(new long[] {1, 2}, new long[] {10, 20}, new long[] {30, 40}, null));
+		ProtobufOutput way = new ProtobufOutput();
+		way.writeInt64(1, 77);
+		way.writeBytes(8, deltas(new long[] {2, 1}));
+		ProtobufOutput ways = new ProtobufOutput();
+		ways.writeBytes(3, way);
+		// Nothing after the first ways is read, so this broken blob is never decoded
+		ProtobufOutput broken = new ProtobufOutput();
+		broken.writeRawVarint32(1 << 3 | 7);
+
+		byte[][] blobs = {headerBlob(false), dataBlob(nodes, 100, 0, 0, true), dataBlob(ways, 100, 0, 0, true),
+						blob("OSMData", broken, false)};
+		Assert.assertEquals(read(true, 1, blobs).events, Arrays.asList("node 1 10 30", "node 2 20 40"));
+		Assert.assertEquals(read(true, 4, blobs).events, Arrays.asList("node 1 10 30", "node 2 20 40"));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testTruncatedFixed64() throws IOException {
+		ProtobufOutput message = new ProtobufOutput();
+		message.writeRawVarint32(1 << 3 | ProtobufInput.WIRETYPE_FIXED64);
+		message.writeRawVarint32(1);
+		ProtobufInput in = new ProtobufInput(message.getBuffer(), 0, message.size());
+		in.skipField(in.readTag());
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testTruncatedFixed32() throws IOException {
+		ProtobufOutput message = new ProtobufOutput();
+		message.writeRawVarint32(1 << 3 | ProtobufInput.WIRETYPE_FIXED32);
+		message.writeRawVarint32(1);
+		ProtobufInput in = new ProtobufInput(message.getBuffer(), 0, message.size());
+		in.skipField(in.readTag());
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testUnsupportedFeature() throws IOException {
+		read(false, 1, headerBlob(true));
+	}
+
+	@Test
+	public void testParallelOrder() throws IOException {
+		List<byte[]> blobs = new ArrayList<byte[]>();
+		List<String> expected = new ArrayList<String>();
+		blobs.add(headerBlob(false));
+		long id = 0;
+		for (int b = 0; b < 40; b++) {
+			// Blobs of very different sizes, so they don't finish decoding in order
+			int count = b % 2 == 0 ? 5000 : 3;
+			long[] ids = new long[count];
+			long[] lats = new long[count];
+			long[] lons = new long[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = ++id;
+				lats[i] = id % 1000;
+				lons[i] = -(id % 777);
+				expected.add("node " + id + ' ' + lats[i] + ' ' + lons[i]);
+			}
+			ProtobufOutput group = new ProtobufOutput();
+			group.writeBytes(2, denseNodes(ids, lats, lons, null));
+			blobs.add(dataBlob(group, 100, 0, 0, b % 3 != 0));
+		}
+		byte[][] array = blobs.toArray(new byte[blobs.size()][]);
+		Assert.assertEquals(read(false, 4, array).events, expected);
+		Assert.assertEquals(read(false, 1, array).events, expected);
+	}
+
+	private static EventRecorder read(boolean startNodeOnly, int threads, byte[]... blobs) throws IOException {
+		File file = File.createTempFile("splitter", ".osm.pbf");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			for (byte[] blob : blobs)
+				out.write(blob);
+			out.close();
+			EventRecorder recorder = new EventRecorder(startNodeOnly);
+			new PbfReader(recorder, false, threads).process(file.getPath());
+			return recorder;
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static ProtobufOutput plainNode(long id, long lat, long lon, int key, int value) {
+		ProtobufOutput node = new ProtobufOutput();
+		node.writeSInt64(1, id);
+		if (key >= 0) {
+			node.writeBytes(2, ints(key));
+			node.writeBytes(3, ints(value));
+		}
+		node.writeSInt64(8, lat);
+		node.writeSInt64(9, lon);
+		return node;
+	}
+
+	private static ProtobufOutput denseNodes(long[] ids, long[] lats, long[] lons, int[] keysVals) {
+		ProtobufOutput dense = new ProtobufOutput();
+		dense.writeBytes(1, deltas(ids));
+		dense.writeBytes(8, deltas(lats));
+		dense.writeBytes(9, deltas(lons));
+		if (keysVals != null)
+			dense.writeBytes(10, ints(keysVals));
+		return dense;
+	}
+
+	private static ProtobufOutput ints(int... values) {
+		ProtobufOutput packed = new ProtobufOutput();
+		for (int value : values)
+			packed.writeRawVarint32(value);
+		return packed;
+	}
+
+	private static ProtobufOutput deltas(long[] values) {
+		ProtobufOutput packed = new ProtobufOutput();
+		long last = 0;
+		for (long value : values) {
+			packed.writeRawSInt64(value - last);
+			last = value;
+		}
+		return packed;
+	}
+
+	private static byte[] headerBlob(boolean unsupported) throws IOException {
+		ProtobufOutput block = new ProtobufOutput();
+		block.writeString(4, "OsmSchema-V0.6");
+		block.writeString(4, "DenseNodes");
+		if (unsupported)
+			block.writeString(4, "HistoricalInformation");
+		return blob("OSMHeader", block, true);
+	}
+
+	private static byte[] dataBlob(ProtobufOutput group, int granularity, long latOffset, long lonOffset, boolean zlib) throws IOException {
+		ProtobufOutput table = new ProtobufOutput();
+		for (String s : STRINGS)
+			table.writeString(1, s);
+		ProtobufOutput block = new ProtobufOutput();
+		block.writeBytes(1, table);
+		block.writeBytes(2, group);
+		if (granularity != 100)
+			block.writeInt32(17, granularity);
+		if (latOffset != 0)
+			block.writeInt64(19, latOffset);
+		if (lonOffset != 0)
+			block.writeInt64(20, lonOffset);
+		return blob("OSMData", block, zlib);
+	}
+
+	private static byte[] blob(String type, ProtobufOutput data, boolean zlib) throws IOException {
+		ProtobufOutput blob = new ProtobufOutput();
+		if (zlib) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(data.getBuffer(), 0, data.size());
+			deflater.finish();
+			byte[] compressed = new byte[data.size() + 1024];
+			int length = 0;
+			while (!deflater.finished())
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			deflater.end();
+			blob.writeInt32(2, data.size());
+			blob.writeBytes(3, compressed, 0, length);
+		} else {
+			blob.writeBytes(1, data.getBuffer(), 0, data.size());
+		}
+		ProtobufOutput header = new ProtobufOutput();
+		header.writeString(1, type);
+		header.writeInt32(3, blob.size());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(header.size());
+		header.writeTo(out);
+		blob.writeTo(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
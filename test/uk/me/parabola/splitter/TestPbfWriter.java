@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the PBF tile writer, reading its output back with the PBF reader.
+ */
+public class TestPbfWriter {
+	@Test
+	public void testRoundTrip() throws IOException {
+		Area bounds = new Area(Utils.toMapUnit(50.0), Utils.toMapUnit(5.0), Utils.toMapUnit(52.0), Utils.toMapUnit(8.0));
+		PbfWriter writer = new PbfWriter(bounds);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.initForWrite(out, 2000);
+
+		List<String> expected = new ArrayList<String>();
+		// Enough nodes to need more than one block
+		for (int i = 1; i <= 10000; i++) {
+			Node node = new Node();
+			node.set(i * 2, 500000000 + i * 37, 50000000 - i * 11);
+			if (i % 1000 == 0) {
+				node.addTag("name", "Node " + i + " \u20AC");
+				expected.add("node " + (i * 2) + ' ' + (500000000 + i * 37) + ' ' + (50000000 - i * 11) + " name=Node " + i + " \u20AC");
+			} else {
+				expected.add("node " + (i * 2) + ' ' + (500000000 + i * 37) + ' ' + (50000000 - i * 11));
+			}
+			writer.write(node);
+		}
+		Way way = new Way();
+		way.set(5);
+		way.addRef(20);
+		way.addRef(4);
+		way.addRef(20000);
+		way.addTag("highway", "primary");
+		writer.write(way);
+		expected.add("way 5 20 4 20000 highway=primary");
+
+		Relation rel = new Relation();
+		rel.set(7);
+		rel.addMember("way", 5, "outer");
+		rel.addMember("node", 4, null);
+		rel.addTag("type", "multipolygon");
+		writer.write(rel);
+		expected.add("relation 7 way:5:outer node:4: type=multipolygon");
+		writer.finishWrite();
+
+		File file = File.createTempFile("splitter", ".osm.pbf");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(out.toByteArray());
+			fos.close();
+			EventRecorder recorder = new EventRecorder();
+			PbfReader reader = new PbfReader(recorder, false, 1);
+			reader.process(file.getPath());
+			Assert.assertEquals(recorder.events, expected);
+			Assert.assertEquals(reader.getNodeCount(), 10000);
+			Assert.assertEquals(reader.getWayCount(), 1);
+			Assert.assertEquals(reader.getRelationCount(), 1);
+			Assert.assertNotNull(recorder.bounds);
+		} finally {
+			file.delete();
+		}
+	}
+}
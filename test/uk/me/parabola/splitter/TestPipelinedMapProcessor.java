@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the processor that hands the map over to another thread.
+ */
+public class TestPipelinedMapProcessor {
+
+	@Test
+	public void testOrder() {
+		// Enough elements to fill the queue several times over
+		EventRecorder expected = new EventRecorder();
+		send(expected, 50000, 20000, 1000);
+		EndRecorder recorder = new EndRecorder();
+		PipelinedMapProcessor pipeline = new PipelinedMapProcessor(recorder);
+		send(pipeline, 50000, 20000, 1000);
+
+		Assert.assertEquals(recorder.events, expected.events);
+		Assert.assertEquals(recorder.bounds.toHexString(), expected.bounds.toHexString());
+		// endMap() is only passed on once everything else has been processed
+		Assert.assertEquals(recorder.eventsAtEnd, expected.events.size());
+		Assert.assertSame(recorder.endThread, Thread.currentThread());
+		Assert.assertTrue(pipeline.getBatchCount() > 8);
+	}
+
+	@Test
+	public void testStartNodeOnly() {
+		EventRecorder expected = new EventRecorder(true);
+		send(expected, 10000, 0, 0);
+		EventRecorder recorder = new EventRecorder(true);
+		PipelinedMapProcessor pipeline = new PipelinedMapProcessor(recorder);
+		Assert.assertTrue(pipeline.isStartNodeOnly());
+		send(pipeline, 10000, 0, 0);
+		Assert.assertEquals(recorder.events, expected.events);
+	}
+
+	@Test
+	public void testErrorWhileReading() {
+		FailingRecorder recorder = new FailingRecorder(100);
+		MapProcessor pipeline = new PipelinedMapProcessor(recorder);
+		try {
+			// The error is seen when a later batch is handed over
+			send(pipeline, 1000000, 0, 0);
+			Assert.fail("The error on the processing thread wasn't passed on");
+		} catch (RuntimeException e) {
+			Assert.assertSame(e.getCause(), recorder.error);
+		}
+	}
+
+	@Test
+	public void testErrorAtEnd() {
+		// All the elements fit in a single batch, so the error only shows up in endMap()
+		FailingRecorder recorder = new FailingRecorder(5);
+		MapProcessor pipeline = new PipelinedMapProcessor(recorder);
+		try {
+			send(pipeline, 10, 0, 0);
+			Assert.fail("The error on the processing thread wasn't passed on");
+		} catch (RuntimeException e) {
+			Assert.assertSame(e.getCause(), recorder.error);
+		}
+		Assert.assertFalse(recorder.ended);
+	}
+
+	private static void send(MapProcessor processor, int nodes, int ways, int relations) {
+		processor.boundTag(new Area(1, 2, 3, 4));
+		for (int i = 0; i < nodes; i++) {
+			processor.startNode(i, i * 3, -i);
+			if (i % 10 == 0)
+				processor.nodeTag("name", "n" + i);
+			processor.endNode();
+		}
+		for (int i = 0; i < ways; i++) {
+			processor.startWay(i + 1000000000000L);
+			processor.wayNode(i);
+			processor.wayNode(i + 1);
+			processor.wayTag("highway", "residential");
+			processor.endWay();
+		}
+		for (int i = 0; i < relations; i++) {
+			processor.startRelation(i);
+			processor.relationNode(i, "stop");
+			processor.relationWay(i + 1000000000000L, "");
+			processor.relationTag("type", "route");
+			processor.endRelation();
+		}
+		processor.endMap();
+	}
+
+	/**
+	 * Notes what has happened by the time the map is ended.
+	 */
+	private static class EndRecorder extends EventRecorder {
+		private int eventsAtEnd = -1;
+		private Thread endThread;
+
+		@Override
+		public void endMap() {
+			eventsAtEnd = events.size();
+			endThread = Thread.currentThread();
+		}
+	}
+
+	/**
+	 * Fails when it is given the node with a particular id.
+	 */
+	private static class FailingRecorder extends EventRecorder {
+		private final long failId;
+		private volatile RuntimeException error;
+		private boolean ended;
+
+		FailingRecorder(long failId) {
+			this.failId = failId;
+		}
+
+		@Override
+		public void startNode(long id, int lat, int lon) {
+			if (id == failId) {
+				error = new IllegalStateException("Failing on node " + id);
+				throw error;
+			}
+			super.startNode(id, lat, lon);
+		}
+
+		@Override
+		public void endMap() {
+			ended = true;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the shared tag dictionary.
+ */
+public class TestTagDictionary {
+	@Test
+	public void testKeys() {
+		TagDictionary dictionary = new TagDictionary(3, 10);
+		int highway = dictionary.getKeyId("highway");
+		int name = dictionary.getKeyId(new String("name"));
+		Assert.assertEquals(highway, 1);
+		Assert.assertEquals(name, 2);
+		Assert.assertEquals(dictionary.getKeyId(new String("highway")), highway);
+		Assert.assertEquals(dictionary.getKey(name), "name");
+		Assert.assertEquals(dictionary.getKeyId("ref"), 3);
+		// The dictionary is full
+		Assert.assertEquals(dictionary.getKeyId("oneway"), -1);
+		Assert.assertEquals(dictionary.getKeyCount(), 3);
+
+		String key = new String("name");
+		Assert.assertNotSame(key, dictionary.getKey(name));
+		Assert.assertSame(dictionary.internKey(key), dictionary.getKey(name));
+		key = new String("oneway");
+		Assert.assertSame(dictionary.internKey(key), key);
+	}
+
+	@Test
+	public void testValues() {
+		TagDictionary dictionary = new TagDictionary(10, 2);
+		String first = new String("residential");
+		String second = new String("residential");
+		String third = new String("residential");
+		// Values are only shared once they have been seen more than once
+		Assert.assertSame(dictionary.internValue(first), first);
+		Assert.assertSame(dictionary.internValue(second), second);
+		Assert.assertSame(dictionary.internValue(third), second);
+
+		// Long values are never shared
+		String longValue = "A value that is far too long to be worth sharing";
+		dictionary.internValue(longValue);
+		dictionary.internValue(longValue);
+		String copy = new String(longValue);
+		Assert.assertSame(dictionary.internValue(copy), copy);
+
+		// Once the dictionary is full no more values are shared
+		dictionary.internValue("primary");
+		dictionary.internValue("primary");
+		dictionary.internValue("tertiary");
+		dictionary.internValue("tertiary");
+		copy = new String("tertiary");
+		Assert.assertSame(dictionary.internValue(copy), copy);
+		copy = new String("primary");
+		Assert.assertNotSame(dictionary.internValue(copy), copy);
+	}
+
+	@Test
+	public void testConcurrentKeys() throws InterruptedException {
+		final TagDictionary dictionary = new TagDictionary(10000, 10);
+		final int[][] ids = new int[4][1000];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < ids.length; t++) {
+			final int[] result = ids[t];
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < result.length; i++)
+						result[i] = dictionary.getKeyId("key" + i);
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertEquals(dictionary.getKeyCount(), 1000);
+		for (int i = 0; i < 1000; i++) {
+			for (int t = 1; t < ids.length; t++)
+				Assert.assertEquals(ids[t][i], ids[0][i]);
+			Assert.assertEquals(dictionary.getKey(ids[0][i]), "key" + i);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the sharing out of tile writing over several threads.
+ */
+public class TestWriterScheduler {
+	@Test
+	public void testOrderIsKept() {
+		RecordingWriter[] writers = new RecordingWriter[5];
+		for (int i = 0; i < writers.length; i++)
+			writers[i] = new RecordingWriter(i);
+		WriterScheduler scheduler = new WriterScheduler(writers, 3);
+		// Give the writers different amounts of work, and enough to fill several batches
+		for (int id = 0; id < 5000; id++) {
+			Node node = new Node();
+			node.set(id, 0, 0);
+			for (int i = 0; i <= id % writers.length; i++)
+				scheduler.add(i, node);
+		}
+		Way way = new Way();
+		way.set(1L << 40);
+		scheduler.add(4, way);
+		scheduler.finish();
+
+		for (int i = 0; i < writers.length; i++) {
+			List<Long> ids = writers[i].ids;
+			Assert.assertEquals(ids.size(), 1000 * (writers.length - i) + (i == 4 ? 1 : 0));
+			for (int j = 1; j < ids.size(); j++)
+				Assert.assertTrue(ids.get(j) > ids.get(j - 1));
+			Assert.assertEquals(scheduler.getBacklog(i), 0);
+			Assert.assertTrue(scheduler.getPeakBacklog(i) > 0);
+			// No more batches can be waiting than the three threads are allowed between them
+			Assert.assertTrue(scheduler.getPeakBacklog(i) <= 3 * 32);
+		}
+		Assert.assertEquals(writers[4].ids.get(writers[4].ids.size() - 1).longValue(), 1L << 40);
+	}
+
+	@Test
+	public void testElementsGoBackToThePool() {
+		ElementPool<Node> pool = new ElementPool<Node>() {
+			@Override
+			protected Node create() {
+				return new Node();
+			}
+		};
+		RecordingWriter[] writers = {new RecordingWriter(1), new RecordingWriter(2)};
+		WriterScheduler scheduler = new WriterScheduler(writers, 2);
+		Node node = pool.get();
+		node.set(42, 1, 2);
+		node.addTag("name", "x");
+		node.setUsers(2);
+		scheduler.add(0, node);
+		scheduler.add(1, node);
+		scheduler.finish();
+
+		Assert.assertEquals(writers[0].ids.get(0).longValue(), 42);
+		Assert.assertEquals(writers[1].ids.get(0).longValue(), 42);
+		Node reused = pool.get();
+		Assert.assertSame(reused, node);
+		Assert.assertEquals(reused.getId(), 0);
+		Assert.assertFalse(reused.hasTags());
+		Assert.assertNotSame(pool.get(), node);
+	}
+
+	@Test(expectedExceptions = RuntimeException.class)
+	public void testErrorIsPassedOn() {
+		RecordingWriter writer = new RecordingWriter(1);
+		writer.failAt = 10;
+		WriterScheduler scheduler = new WriterScheduler(new TileWriter[] {writer}, 2);
+		Node node = new Node();
+		for (int id = 0; id < 100; id++)
+			scheduler.add(0, node);
+		scheduler.finish();
+	}
+
+	private static class RecordingWriter implements TileWriter {
+		private final int mapId;
+		private final List<Long> ids = new ArrayList<Long>();
+		private int failAt = -1;
+
+		RecordingWriter(int mapId) {
+			this.mapId = mapId;
+		}
+
+		@Override
+		public void initForWrite(int mapId, int extra) {
+		}
+
+		@Override
+		public void finishWrite() {
+		}
+
+		@Override
+		public int getMapId() {
+			return mapId;
+		}
+
+		@Override
+		public Area getExtendedBounds() {
+			return null;
+		}
+
+		@Override
+		public boolean nodeBelongsToThisArea(Node node) {
+			return true;
+		}
+
+		@Override
+		public void write(Node node) throws IOException {
+			if (ids.size() == failAt)
+				throw new IOException("Failed on purpose");
+			ids.add(node.getId());
+		}
+
+		@Override
+		public void write(Way way) {
+			ids.add(way.getId());
+		}
+
+		@Override
+		public void write(Relation rel) {
+			ids.add(rel.getId());
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+
+package uk.me.parabola.splitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how quickly each of the tile writers can write out a synthetic
+ * set of elements. The output is thrown away, so only the formatting and
+ * compression are measured.
+ * <p/>
+ * This isn't a unit test. Run it with
+ * {@code java -cp build/classes:build/test-classes uk.me.parabola.splitter.WriterBenchmark [iterations]}
+ */
+public class WriterBenchmark {
+	private static final int NODES = 500000;
+	private static final int WAYS = 50000;
+	private static final int RELATIONS = 2000;
+
+	private final List<Element> elements = new ArrayList<Element>();
+	private final Area bounds = new Area(Utils.toMapUnit(50.0), Utils.toMapUnit(5.0), Utils.toMapUnit(52.0), Utils.toMapUnit(8.0));
+
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		WriterBenchmark benchmark = new WriterBenchmark();
+		benchmark.createElements();
+		for (int i = 0; i < iterations; i++) {
+			System.out.println("Iteration " + (i + 1));
+			benchmark.run("xml", new OSMWriter(benchmark.bounds) {
+				@Override
+				protected OutputStream compress(OutputStream stream) {
+					return stream;
+				}
+			});
+			benchmark.run("xml.gz", new OSMWriter(benchmark.bounds));
+			benchmark.run("pbf", new PbfWriter(benchmark.bounds));
+		}
+	}
+
+	private void createElements() {
+		Random random = new Random(1);
+		String[] values = {"residential", "primary", "yes", "Caf\u00e9 du Nord", "Stra\u00dfe", "\u5317\u4eac", "a & b", "it's"};
+		for (int i = 1; i <= NODES; i++) {
+			Node node = new Node();
+			node.set(i, 500000000 + random.nextInt(20000000), 50000000 + random.nextInt(30000000));
+			if (i % 10 == 0) {
+				node.addTag("name", values[random.nextInt(values.length)] + ' ' + i);
+				node.addTag("amenity", values[random.nextInt(values.length)]);
+			}
+			elements.add(node);
+		}
+		for (int i = 1; i <= WAYS; i++) {
+			Way way = new Way();
+			way.set(i);
+			int start = random.nextInt(NODES - 20) + 1;
+			for (int j = 0; j < 10; j++)
+				way.addRef(start + j);
+			way.addTag("highway", values[random.nextInt(3)]);
+			way.addTag("name", values[random.nextInt(values.length)]);
+			elements.add(way);
+		}
+		for (int i = 1; i <= RELATIONS; i++) {
+			Relation rel = new Relation();
+			rel.set(i);
+			for (int j = 0; j < 5; j++)
+				rel.addMember("way", random.nextInt(WAYS) + 1, j == 0 ? "outer" : "inner");
+			rel.addTag("type", "multipolygon");
+			elements.add(rel);
+		}
+	}
+
+	private void run(String name, AbstractTileWriter writer) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		long start = System.nanoTime();
+		writer.initForWrite(out, 2000);
+		for (Element element : elements) {
+			if (element instanceof Node)
+				writer.write((Node) element);
+			else if (element instanceof Way)
+				writer.write((Way) element);
+			else
+				writer.write((Relation) element);
+		}
+		writer.finishWrite();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("  %-7s %8.3fs %,12d bytes %8.1f MB/s %,12.0f elements/s%n", name, seconds, out.count,
+						out.count / seconds / 1e6, elements.size() / seconds);
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -15,6 +15,8 @@ package uk.me.parabola.splitter.disk;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 import org.testng.Assert;
@@ -84,4 +86,66 @@ public class TestLengthPrefixStreams {
 		Assert.assertEquals(is.remaining(), 0x00, "Unexpected number of bytes remaining in this segment");
 		Assert.assertEquals(is.next(), false, "Expected to reach the end of stream but didn't");
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testMappedInput() throws IOException {
+		File file = File.createTempFile("records", ".bin");
+		file.deleteOnExit();
+		LengthPrefixOutputStream os = new LengthPrefixOutputStream(new FileOutputStream(file));
+		for (int i = 0; i < 100; i++) {
+			os.writeLong(5000000000L + i);
+			os.writeShort(i);
+			os.writeUTF("Euro: \u20AC  Pound: \u00A3 " + i);
+			os.next();
+		}
+		// Big enough to need the long length prefix
+		for (int i = 0; i < 10000; i++)
+			os.writeInt(i);
+		os.next();
+		os.writeByte(240);
+		os.next();
+		os.close();
+
+		// A tiny window, so that records are split across windows
+		MappedRecordReader is = new MappedRecordReader(file.getPath(), 16);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertTrue(is.next(), "Premature end of file reached");
+			Assert.assertEquals(is.readLong(), 5000000000L + i);
+			Assert.assertEquals(is.readShort(), (short) i);
+			Assert.assertEquals(is.readUTF(), "Euro: \u20AC  Pound: \u00A3 " + i);
+		}
+		Assert.assertTrue(is.next(), "Premature end of file reached");
+		for (int i = 0; i < 10000; i++)
+			Assert.assertEquals(is.readInt(), i);
+		Assert.assertTrue(is.next(), "Premature end of file reached");
+		Assert.assertEquals(is.readByte(), (byte) 240);
+		try {
+			is.readByte();
+			Assert.fail("Read past the end of the record");
+		} catch (IOException e) {
+			// expected
+		}
+		Assert.assertFalse(is.next(), "Expected to reach the end of the file but didn't");
+		is.close();
+	}
+
+	@Test
+	public void testMappedInputTruncatedLength() throws IOException {
+		File file = File.createTempFile("records", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		LengthPrefixOutputStream os = new LengthPrefixOutputStream(out);
+		os.writeInt(42);
+		os.next();
+		os.flush();
+		// Only the first byte of the next length prefix
+		out.write(0);
+		os.close();
+
+		MappedRecordReader is = new MappedRecordReader(file.getPath(), 16);
+		Assert.assertTrue(is.next(), "Premature end of file reached");
+		Assert.assertEquals(is.readInt(), 42);
+		Assert.assertFalse(is.next(), "Expected the truncated length to end the file");
+		is.close();
+	}
+}
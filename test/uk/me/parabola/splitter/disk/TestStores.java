@@ -33,13 +33,13 @@ public class TestStores {
 		KeyLookupWriter keyWriter = new KeyLookupWriter(keyOut);
 
 		NodeStoreWriter nodeWriter = new NodeStoreWriter(nodeOut, keyWriter);
-		nodeWriter.write(1, 0.1234d, 99.125d);
+		nodeWriter.write(1, 1234000, 991250000);
 		nodeWriter.writeTag("key1", "value1");
 		nodeWriter.writeTag("key2", "value2");
 		nodeWriter.writeTag("key3", "Euro: \u20AC  Pound: \u00A3");
 		nodeWriter.closeTags();
 		nodeWriter.next();
-		nodeWriter.write(2, 5432.12d, 48484.48484d);
+		nodeWriter.write(3000000000L, -854321200, -1794848484);
 		nodeWriter.writeTag("key2", "Euro: \u20AC");
 		nodeWriter.writeTag("key4", "Pound: \u00A3");
 		nodeWriter.closeTags();
@@ -55,8 +55,8 @@ public class TestStores {
 
 		Assert.assertTrue(nodeReader.next());
 		Assert.assertEquals(nodeReader.getId(), 1);
-		Assert.assertEquals(nodeReader.getLat(), 0.1234d);
-		Assert.assertEquals(nodeReader.getLon(), 99.125d);
+		Assert.assertEquals(nodeReader.getLat(), 1234000);
+		Assert.assertEquals(nodeReader.getLon(), 991250000);
 		Map<String, String> tags = nodeReader.getTags();
 		Assert.assertEquals(tags.size(), 3);
 		Assert.assertEquals(tags.get("key1"), "value1");
@@ -65,9 +65,9 @@ public class TestStores {
 		Assert.assertNull(tags.get("key4"));
 
 		Assert.assertTrue(nodeReader.next());
-		Assert.assertEquals(nodeReader.getId(), 2);
-		Assert.assertEquals(nodeReader.getLat(), 5432.12d);
-		Assert.assertEquals(nodeReader.getLon(), 48484.48484d);
+		Assert.assertEquals(nodeReader.getId(), 3000000000L);
+		Assert.assertEquals(nodeReader.getLat(), -854321200);
+		Assert.assertEquals(nodeReader.getLon(), -1794848484);
 		tags = nodeReader.getTags();
 		Assert.assertEquals(tags.size(), 2);
 		Assert.assertNull(tags.get("key1"));
@@ -78,6 +78,77 @@ public class TestStores {
 		Assert.assertFalse(nodeReader.next());
 	}
 
+	@Test
+	public void testNodeStoreDeltas() throws IOException {
+		ByteArrayOutputStream nodeOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream keyOut = new ByteArrayOutputStream();
+		NodeStoreWriter nodeWriter = new NodeStoreWriter(nodeOut, new KeyLookupWriter(keyOut));
+		// Enough nodes to fill several records, with big jumps in the IDs and coordinates
+		int count = NodeStoreWriter.NODES_PER_RECORD * 3 + 7;
+		for (int i = 0; i < count; i++) {
+			nodeWriter.write(nodeId(i), latitude(i), -latitude(i) * 2);
+			if (i % 10 == 0)
+				nodeWriter.writeTag("name", "Node " + i);
+			nodeWriter.closeTags();
+			nodeWriter.next();
+		}
+		nodeWriter.close();
+
+		KeyLookupReader keyReader = new KeyLookupReader(new ByteArrayInputStream(keyOut.toByteArray()));
+		NodeStoreReader nodeReader = new NodeStoreReader(new ByteArrayInputStream(nodeOut.toByteArray()), keyReader);
+		for (int i = 0; i < count; i++) {
+			Assert.assertTrue(nodeReader.next());
+			Assert.assertEquals(nodeReader.getId(), nodeId(i));
+			Assert.assertEquals(nodeReader.getLat(), latitude(i));
+			Assert.assertEquals(nodeReader.getLon(), -latitude(i) * 2);
+			Map<String, String> tags = nodeReader.getTags();
+			if (i % 10 == 0) {
+				Assert.assertEquals(tags.size(), 1);
+				Assert.assertEquals(tags.get("name"), "Node " + i);
+			} else {
+				Assert.assertTrue(tags.isEmpty());
+			}
+		}
+		Assert.assertFalse(nodeReader.next());
+	}
+
+	private static long nodeId(int i) {
+		return i % 3 == 0 ? -i : i * 50000000000L;
+	}
+
+	private static int latitude(int i) {
+		return i % 2 == 0 ? 900000000 - i : i - 900000000;
+	}
+
+	@Test
+	public void testNodeStoreSkipTags() throws IOException {
+		ByteArrayOutputStream nodeOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream keyOut = new ByteArrayOutputStream();
+		NodeStoreWriter nodeWriter = new NodeStoreWriter(nodeOut, new KeyLookupWriter(keyOut));
+		int count = NodeStoreWriter.NODES_PER_RECORD * 2 + 3;
+		for (int i = 0; i < count; i++) {
+			nodeWriter.write(nodeId(i), latitude(i), -latitude(i) * 2);
+			if (i % 3 == 0) {
+				nodeWriter.writeTag("name", "Node " + i);
+				nodeWriter.writeTag("note", "Euro: \u20AC");
+			}
+			nodeWriter.closeTags();
+			nodeWriter.next();
+		}
+		nodeWriter.close();
+
+		KeyLookupReader keyReader = new KeyLookupReader(new ByteArrayInputStream(keyOut.toByteArray()));
+		NodeStoreReader nodeReader = new NodeStoreReader(new ByteArrayInputStream(nodeOut.toByteArray()), keyReader, true);
+		for (int i = 0; i < count; i++) {
+			Assert.assertTrue(nodeReader.next());
+			Assert.assertEquals(nodeReader.getId(), nodeId(i));
+			Assert.assertEquals(nodeReader.getLat(), latitude(i));
+			Assert.assertEquals(nodeReader.getLon(), -latitude(i) * 2);
+			Assert.assertTrue(nodeReader.getTags().isEmpty());
+		}
+		Assert.assertFalse(nodeReader.next());
+	}
+
 	@Test
 	public void testWayStore() throws IOException {
 		ByteArrayOutputStream nodeOut = new ByteArrayOutputStream();
@@ -88,7 +159,7 @@ public class TestStores {
 		wayWriter.write(1);
 		wayWriter.writeNodeRef(10);
 		wayWriter.writeNodeRef(11);
-		wayWriter.writeNodeRef(12);
+		wayWriter.writeNodeRef(12000000000L);
 		wayWriter.closeNodeRefs();
 		wayWriter.writeTag("key1", "value1");
 		wayWriter.writeTag("key2", "value2");
@@ -112,11 +183,11 @@ public class TestStores {
 
 		Assert.assertTrue(wayReader.next());
 		Assert.assertEquals(wayReader.getId(), 1);
-		int[] nodeIds = wayReader.getNodeIds();
+		long[] nodeIds = wayReader.getNodeIds();
 		Assert.assertEquals(nodeIds.length, 3);
 		Assert.assertEquals(nodeIds[0], 10);
 		Assert.assertEquals(nodeIds[1], 11);
-		Assert.assertEquals(nodeIds[2], 12);
+		Assert.assertEquals(nodeIds[2], 12000000000L);
 		Map<String, String> tags = wayReader.getTags();
 		Assert.assertEquals(tags.size(), 3);
 		Assert.assertEquals(tags.get("key1"), "value1");